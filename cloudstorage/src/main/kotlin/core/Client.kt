@@ -9,7 +9,7 @@ import java.util.*
  *
  * This class provides operated task execution, as defined in the project description. It logs all necessary data and responses to the CloudStorageGroup2.log file (and prints the same output data to the runtime console). It is responsible for invoking the corresponding DictionaryAPI functions for each task and logging the results.
  */
-class Client(private val api: DictionaryAPI, private val filePath: String = "testEntries.txt") {
+class Client(private val api: DictionaryAPI, private val filePath: String = "testEntries.txt", private val batchSize: Int = 1000) {
 	private val fileParser = FileParser()
 	private lateinit var fileContents: MutableMap<String, String>
 
@@ -58,13 +58,13 @@ class Client(private val api: DictionaryAPI, private val filePath: String = "tes
 		fileContents = fileParser.parseFile(file)
 		logger.info { "File parsing complete." }
 
-		logger.info { "Starting insert requests..." }
-		for (entry in fileContents) {
-			logger.info { "Executing insert request for key: ${entry.key} and value: ${entry.value}" }
-			val result = api.insert(entry.key, entry.value)
+		logger.info { "Starting batch insert requests..." }
+		for (batch in fileContents.entries.chunked(batchSize)) {
+			logger.info { "Executing batch insert request for ${batch.size} entries" }
+			val result = api.insertBatch(batch.associate { it.key to it.value })
 
 			if (result.success) {
-				logger.info { " - Successfully inserted - ${result.msg.replace("=", "")}" }
+				logger.info { " - Successfully executed batch - ${result.msg.replace("=", "")}" }
 			} else {
 				logger.info { " - Failed - ${result.msg}" }
 			}
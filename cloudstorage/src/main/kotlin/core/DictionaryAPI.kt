@@ -46,6 +46,12 @@ range startKey endKey
 		return responseHandler.handleResponse(request)
 	}
 
+	fun insertBatch(entries: Map<String, String>): RequestResult {
+		logger.debug { "insertBatch() - creating ${entries.size} entries" }
+		val request = requestHandler.insertBatch(entries)
+		return responseHandler.handleResponse(request)
+	}
+
 	fun delete(key: String): RequestResult {
 		logger.debug { "delete() - deleting entry for key $key" }
 		val request = requestHandler.delete(key)
@@ -60,8 +66,21 @@ range startKey endKey
 
 	fun range(startKey: String, endKey: String): RequestResult {
 		logger.debug { "range() - reading entry for key $startKey and $endKey" }
-		val request = requestHandler.range(startKey, endKey)
-		return responseHandler.handleResponse(request)
+		var result = responseHandler.handleResponse(requestHandler.range(startKey, endKey))
+		val pages = mutableListOf(result.msg)
+
+		// The server returns a range page by page, every page but the last names the cursor of the next one
+		while (result.success && result.nextCursor != null) {
+			val cursor = result.nextCursor
+			logger.debug { "range() - reading next page at cursor $cursor" }
+			result = responseHandler.handleResponse(requestHandler.range(startKey, endKey, cursor))
+			pages.add(result.msg)
+		}
+
+		if (!result.success) {
+			return result
+		}
+		return RequestResult(true, pages.filter { it.isNotEmpty() }.joinToString(", "))
 	}
 
 	fun retrieveAll(): RequestResult {
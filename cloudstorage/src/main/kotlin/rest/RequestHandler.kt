@@ -12,7 +12,8 @@ import mu.*
 class RequestHandler(
 		private val url: String = "http://localhost:8080",
 		private val entriesPath: String = "entries",
-		private val rangePath: String = "range"
+		private val rangePath: String = "range",
+		private val batchPath: String = "_batch"
 ) {
 	companion object: KLogging()
 
@@ -25,12 +26,32 @@ class RequestHandler(
 
 	fun insert(key: String, value: String): Request = "/$entriesPath/$key".httpPost().body(value)
 
+	fun insertBatch(entries: Map<String, String>): Request =
+			"/$entriesPath/$batchPath".httpPost()
+					.header("Content-Type" to "application/json")
+					.body(entries.entries.joinToString(",", "[", "]") {
+						"{\"op\":\"insert\",\"key\":${it.key.toJsonString()},\"value\":${it.value.toJsonString()}}"
+					})
+
 	fun delete(key: String): Request = "/$entriesPath/$key".httpDelete()
 
 	fun search(key: String): Request = "/$entriesPath/$key".httpGet()
 
-	fun range(startKey: String, endKey: String): Request =
-			"/$entriesPath/$rangePath/$startKey/$endKey".httpGet()
-
-	fun retrieveAll(): Request = "/$entriesPath".httpGet()
+	fun range(startKey: String, endKey: String, cursor: String? = null): Request =
+			"/$entriesPath/$rangePath/$startKey/$endKey".httpGet(cursor?.let { listOf("cursor" to it) })
+
+	fun retrieveAll(): Request = "/$entriesPath".httpGet().header("Accept" to "text/plain")
+}
+
+private fun String.toJsonString(): String {
+	val builder = StringBuilder("\"")
+	for (char in this) {
+		when {
+			char == '"' -> builder.append("\\\"")
+			char == '\\' -> builder.append("\\\\")
+			char < ' ' -> builder.append(String.format("\\u%04x", char.toInt()))
+			else -> builder.append(char)
+		}
+	}
+	return builder.append('"').toString()
 }
\ No newline at end of file
@@ -8,13 +8,13 @@ import com.github.kittinunf.result.*
  *
  * This class makes an HTTP request using the Request object passed in as a function parameter. Once an HTTP response has been received, it interprets it and returns a RequestResult object, reflective of whether the response was a successful or failing result. Any messages contained in the HTTP Response body are passed along as well.
  */
-class ResponseHandler {
+class ResponseHandler(private val nextCursorHeader: String = "X-Next-Cursor") {
 
 	fun handleResponse(requestObject: Request): RequestResult {
 		var success = false
 		var msg = ""
 
-		val (_, _, result) = requestObject.responseString()
+		val (_, response, result) = requestObject.responseString()
 
 		when (result) {
 			is Result.Failure -> {
@@ -26,13 +26,14 @@ class ResponseHandler {
 			}
 		}
 
-		return RequestResult(success, msg)
+		return RequestResult(success, msg, response.headers.entries
+				.firstOrNull { it.key.equals(nextCursorHeader, ignoreCase = true) }?.value?.firstOrNull())
 	}
 }
 
 /**
  * class RequestResult
  *
- * This data class consists of a boolean value indicating whether the respective request failed or succeeded, as well as a string message (with a default value of an empty string).
+ * This data class consists of a boolean value indicating whether the respective request failed or succeeded, as well as a string message (with a default value of an empty string). If the server returned only one page of the result, nextCursor holds the cursor of the following page.
  */
-data class RequestResult(val success: Boolean, val msg: String = "")
\ No newline at end of file
+data class RequestResult(val success: Boolean, val msg: String = "", val nextCursor: String? = null)
\ No newline at end of file
@@ -0,0 +1,18 @@
+package org.catchcase.cloudcomputing.webserver;
+
+import org.catchcase.cloudcomputing.webserver.backend.*;
+import org.springframework.context.*;
+
+/**
+ * class CloudStoragePropertiesInitializer
+ *
+ * This class hands the Spring Environment to the CloudStorageProperties before any bean is created, so the settings of the storage backend come from the same property sources as the rest of the application, e.g. --name=value arguments and profiles.
+ * It is registered in META-INF/spring.factories, so it also runs for tests which start the application context.
+ */
+public class CloudStoragePropertiesInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+	@Override
+	public void initialize(ConfigurableApplicationContext applicationContext) {
+		CloudStorageProperties.getPropertiesInstance().setEnvironment(applicationContext.getEnvironment());
+	}
+}
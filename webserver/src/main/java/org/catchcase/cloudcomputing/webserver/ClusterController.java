@@ -0,0 +1,145 @@
+package org.catchcase.cloudcomputing.webserver;
+
+import com.fasterxml.jackson.core.*;
+import org.catchcase.cloudcomputing.webserver.backend.*;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * class ClusterController
+ *
+ * This class is the REST-mapped controller for the requests other nodes of the cluster forward to this node, see CloudStorageClusterEngine. Every request must carry the X-CloudStorage-Forwarded header and is served by the replica of this node only, so it is never forwarded again. Outside cluster mode all requests are answered with 404.
+ * The endpoints share the public port, so every request must carry the secret of the cluster in the X-CloudStorage-Secret header; requests without it are answered with 403 before they reach a handler. A write whose version is too far ahead of the clock of this node is answered with 400.
+ * The requests are handled on the servlet thread. Running them on the CloudStorageExecutor could let two nodes whose workers wait for each other exhaust both pools.
+ */
+@RequestMapping(value = "/internal")
+@RestController
+public class ClusterController {
+
+	private static final String NDJSON_VALUE = "application/x-ndjson";
+
+	private CloudStorageClusterEngine cluster = CloudStorageEngineFactory.getClusterEngineInstance();
+
+	private JsonFactory jsonFactory = new JsonFactory().setRootValueSeparator(null);
+
+	/**
+	 * Runs before every handler and rejects requests which do not carry the secret of the cluster.
+	 */
+	@ModelAttribute
+	public void authenticate(@RequestHeader(value = CloudStorageClusterEngine.SECRET_HEADER, required = false) String secret) {
+		if (cluster != null && !cluster.isTrusted(secret)) {
+			throw new SecurityException("Missing or wrong cluster secret.");
+		}
+	}
+
+	@ExceptionHandler(SecurityException.class)
+	public ResponseEntity<String> forbidden() {
+		return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+		return ResponseEntity.badRequest().body(e.getMessage());
+	}
+
+	/**
+	 * Returns the copy of the key this node holds with its version, also if the key has been deleted.
+	 */
+	@RequestMapping(method = RequestMethod.GET, path = "/replica/{key}", produces = {MediaType.APPLICATION_JSON_VALUE})
+	public ResponseEntity<CloudStorageVersioned> read(@RequestHeader(CloudStorageClusterEngine.FORWARDED_HEADER) String origin,
+			@PathVariable int key) {
+		CloudStorageVersioned copy = cluster == null ? null : cluster.readReplica(key);
+
+		return copy == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(copy);
+	}
+
+	/**
+	 * Stores the value if the version is newer than the one of this node, returns whether it was stored.
+	 */
+	@RequestMapping(method = RequestMethod.PUT, path = "/replica/{key}")
+	public ResponseEntity<Boolean> write(@RequestHeader(CloudStorageClusterEngine.FORWARDED_HEADER) String origin,
+			@PathVariable int key, @RequestParam long version, @RequestBody(required = false) String value) {
+		if (cluster == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(cluster.writeReplica(key, new CloudStorageVersioned(version, value == null ? "" : value)));
+	}
+
+	/**
+	 * Marks the key as deleted if the version is newer than the one of this node, returns whether it was stored.
+	 */
+	@RequestMapping(method = RequestMethod.DELETE, path = "/replica/{key}")
+	public ResponseEntity<Boolean> delete(@RequestHeader(CloudStorageClusterEngine.FORWARDED_HEADER) String origin,
+			@PathVariable int key, @RequestParam long version) {
+		if (cluster == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(cluster.writeReplica(key, new CloudStorageVersioned(version, null)));
+	}
+
+	@RequestMapping(method = RequestMethod.GET, path = "/replica/{key}/bucket")
+	public ResponseEntity<Integer> bucket(@RequestHeader(CloudStorageClusterEngine.FORWARDED_HEADER) String origin,
+			@PathVariable int key) {
+		if (cluster == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(cluster.getReplicaBucketNumber(key));
+	}
+
+	/**
+	 * Returns at most limit keys of the range this node holds in ascending order.
+	 */
+	@RequestMapping(method = RequestMethod.GET, path = "/keys", produces = {MediaType.APPLICATION_JSON_VALUE})
+	public ResponseEntity<List<Integer>> keys(@RequestHeader(CloudStorageClusterEngine.FORWARDED_HEADER) String origin,
+			@RequestParam int from, @RequestParam int to, @RequestParam int limit) {
+		if (cluster == null) {
+			return ResponseEntity.notFound().build();
+		}
+		List<Integer> keys = new ArrayList<>();
+
+		for (int key : cluster.rangeReplica(from, to)) {
+			if (keys.size() == limit) {
+				break;
+			}
+			keys.add(key);
+		}
+		return ResponseEntity.ok(keys);
+	}
+
+	/**
+	 * Answers whether this node runs in cluster mode, a scan asks every node first to know which ones are down.
+	 */
+	@RequestMapping(method = RequestMethod.GET, path = "/ping", produces = {MediaType.APPLICATION_JSON_VALUE})
+	public ResponseEntity<Boolean> ping(@RequestHeader(CloudStorageClusterEngine.FORWARDED_HEADER) String origin) {
+		return cluster == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(true);
+	}
+
+	/**
+	 * Streams the entries this node is the first replica of as newline-delimited JSON, in the format of GET /entries.
+	 * Replicas in down are passed over, so this node also streams the entries it is the first reachable replica of.
+	 * The entries are written on the servlet thread as well, not as a StreamingResponseBody on the asynchronous executor which the streams of GET /entries wait on.
+	 */
+	@RequestMapping(method = RequestMethod.GET, path = "/entries", produces = {NDJSON_VALUE})
+	public void entries(@RequestHeader(CloudStorageClusterEngine.FORWARDED_HEADER) String origin,
+			@RequestParam(required = false) List<String> down, HttpServletResponse response) throws IOException {
+		if (cluster == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		response.setContentType(NDJSON_VALUE);
+		try (JsonGenerator generator = jsonFactory.createGenerator(response.getOutputStream())) {
+			cluster.scanReplica(down == null ? Collections.emptyList() : down, (bucketNumber, key, value) -> {
+				generator.writeStartObject();
+				generator.writeNumberField("bucket", bucketNumber);
+				generator.writeNumberField("key", key);
+				generator.writeStringField("value", value);
+				generator.writeEndObject();
+				generator.writeRaw('\n');
+			});
+		}
+	}
+}
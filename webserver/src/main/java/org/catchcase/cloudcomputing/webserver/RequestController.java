@@ -1,101 +1,282 @@
 package org.catchcase.cloudcomputing.webserver;
 
+import com.fasterxml.jackson.core.*;
 import org.catchcase.cloudcomputing.webserver.backend.*;
 import org.springframework.beans.factory.annotation.*;
+import org.springframework.core.task.*;
 import org.springframework.http.*;
+import org.springframework.scheduling.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.*;
 
+import java.io.*;
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 /**
  * class RequestController
  *
  * This class is the REST-mapped controller for the Spring web service which handles requests made to by the client to the rest endpoint. It delegates operations to the CloudStorageManager class and sends the appropriate HTTP Responses to the client for each request, depending on the operation outcome.
+ * Storage operations run asynchronously on the bounded CloudStorageExecutor, so the servlet thread is released while the blob store is busy. If the executor is saturated, or an operation takes longer than cloudstorage.request.timeout-ms, the request is answered with 503 Service Unavailable. The same holds for a streamed response which the stream pool rejects.
  */
 @RequestMapping(value = "/")
 @RestController
 public class RequestController {
 
+	private static final String NDJSON_VALUE = "application/x-ndjson";
+	private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
 	@Autowired
 	private CloudStorageManager manager = CloudStorageManager.getManagerInstance();
 
+	private Executor executor = CloudStorageExecutor.getExecutorInstance().getExecutor();
+
+	@Autowired
+	private TaskScheduler requestTimeoutScheduler;
+
+	@Value("${cloudstorage.request.timeout-ms:30000}")
+	private long requestTimeout;
+
+	private JsonFactory jsonFactory = new JsonFactory().setRootValueSeparator(null);
+
 	@RequestMapping(method = RequestMethod.GET, produces = {MediaType.TEXT_PLAIN_VALUE})
 	public String index() {
 		return "CloudStorage Web Server - Group 2";
 	}
 
+	/**
+	 * Returns the counters of the storage engine, e.g. the false positive rate of the Bloom filters of the buckets.
+	 */
+	@RequestMapping(method = RequestMethod.GET, path = "/metrics", produces = {MediaType.APPLICATION_JSON_VALUE})
+	public Map<String, Number> metrics() {
+		return manager.getMetrics();
+	}
+
 	@RequestMapping(method = RequestMethod.POST, path = "/entries/{key}")
-	public ResponseEntity<String> insert(@PathVariable String key, @RequestBody String value) {
-		CloudStorageLogger result;
+	public CompletableFuture<ResponseEntity<String>> insert(@PathVariable String key, @RequestBody String value) {
+		int intKey;
 
 		try {
-			result = manager.insert(Integer.parseInt(key), value);
+			intKey = Integer.parseInt(key);
 		} catch (NumberFormatException nfe) {
-			return ResponseEntity.badRequest().body("Invalid key parameter; must be integer");
+			return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Invalid key parameter; must be integer"));
 		}
 
-		return getStringResponseEntity(result);
+		return async(() -> getStringResponseEntity(manager.insert(intKey, value)));
+	}
+
+	@RequestMapping(method = RequestMethod.POST, path = "/entries/_batch",
+			consumes = {MediaType.APPLICATION_JSON_VALUE}, produces = {MediaType.APPLICATION_JSON_VALUE})
+	public CompletableFuture<ResponseEntity<Object>> batch(@RequestBody List<CloudStorageOperation> operations) {
+		return this.<Object>async(() -> {
+			try {
+				return ResponseEntity.ok(manager.batch(operations));
+			} catch (IllegalArgumentException iae) {
+				return ResponseEntity.badRequest().body(iae.getMessage());
+			}
+		});
 	}
 
 	@RequestMapping(method = RequestMethod.DELETE, path = "/entries/{key}")
-	public ResponseEntity<String> delete(@PathVariable String key) {
-		CloudStorageLogger result;
+	public CompletableFuture<ResponseEntity<String>> delete(@PathVariable String key) {
+		int intKey;
 
 		try {
-			result = manager.delete(Integer.parseInt(key));
+			intKey = Integer.parseInt(key);
 		} catch (NumberFormatException nfe) {
-			return ResponseEntity.badRequest().body("Invalid key parameter; must be integer");
+			return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Invalid key parameter; must be integer"));
 		}
 
-		return getStringResponseEntity(result);
+		return async(() -> getStringResponseEntity(manager.delete(intKey)));
 	}
 
 	@RequestMapping(method = RequestMethod.GET, path = "/entries/{key}")
-	public ResponseEntity<String> search(@PathVariable String key) {
-		CloudStorageLogger result;
+	public CompletableFuture<ResponseEntity<String>> search(@PathVariable String key) {
+		int intKey;
 
 		try {
-			result = manager.search(Integer.parseInt(key));
+			intKey = Integer.parseInt(key);
 		} catch (NumberFormatException nfe) {
-			return ResponseEntity.badRequest().body("Invalid key parameter; must be integer");
+			return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Invalid key parameter; must be integer"));
 		}
 
-		return getStringResponseEntity(result);
+		return async(() -> getStringResponseEntity(manager.search(intKey)));
 	}
 
+	/**
+	 * Returns one page of the range, at most limit keys. If more keys follow,
+	 * the cursor of the next page is sent in the X-Next-Cursor header. Without
+	 * limit the page has cloudstorage.page.default-limit keys.
+	 */
 	@RequestMapping(method = RequestMethod.GET, path = "/entries/range/{startKey}/{endKey}")
-	public ResponseEntity<String> range(
-			@PathVariable("startKey") String startKey, @PathVariable("endKey") String endKey) {
-		List<String> result;
+	public CompletableFuture<ResponseEntity<String>> range(
+			@PathVariable("startKey") String startKey, @PathVariable("endKey") String endKey,
+			@RequestParam(required = false) Integer limit, @RequestParam(required = false) String cursor) {
+		int intStartKey;
+		int intEndKey;
 
 		try {
-			result = manager.rangeQuery(Integer.parseInt(startKey), Integer.parseInt(endKey));
+			intStartKey = Integer.parseInt(startKey);
+			intEndKey = Integer.parseInt(endKey);
 		} catch (NumberFormatException nfe) {
-			return ResponseEntity.badRequest().body("Invalid key parameter; must be integer");
+			return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Invalid key parameter; must be integer"));
 		}
 
-		if (result.size() == 0) {
-			return ResponseEntity.notFound().build();
-		} else {
-			return ResponseEntity.ok(String.join(", ", result));
+		return async(() -> {
+			CloudStoragePage<String> page;
+
+			try {
+				page = manager.rangeQuery(intStartKey, intEndKey, cursor, limit);
+			} catch (IllegalArgumentException iae) {
+				return ResponseEntity.badRequest().body(iae.getMessage());
+			}
+
+			//Only an empty first page means an empty range, later pages may lose their keys to deletes
+			if (cursor == null && page.getEntries().size() == 0 && page.getCursor() == null) {
+				return ResponseEntity.notFound().build();
+			} else {
+				return pageResponse(page).body(String.join(", ", page.getEntries()));
+			}
+		});
+	}
+
+	/**
+	 * Streams all entries as newline-delimited JSON, one object per line and
+	 * bucket by bucket, so the listing is never held in memory as a whole.
+	 * Clients which prefer text/plain in their Accept header get the entries
+	 * as "key : value" separated by ", ", each bucket led by "Bucket n".
+	 * If limit or cursor is given, only one page is returned in ascending key
+	 * order, with the cursor of the next page in the X-Next-Cursor header.
+	 */
+	@RequestMapping(method = RequestMethod.GET, path = "/entries", produces = {NDJSON_VALUE, MediaType.TEXT_PLAIN_VALUE})
+	public CompletableFuture<ResponseEntity<StreamingResponseBody>> retrieveAll(
+			@RequestParam(required = false) Integer limit, @RequestParam(required = false) String cursor,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		boolean plainText = prefersPlainText(accept);
+		MediaType contentType = plainText ? MediaType.TEXT_PLAIN : MediaType.valueOf(NDJSON_VALUE);
+
+		if (limit == null && cursor == null) {
+			StreamingResponseBody body = out -> {
+				if (plainText) {
+					PlainTextWriter writer = new PlainTextWriter(out);
+
+					manager.visitAllEntries(writer::writeEntry);
+					writer.flush();
+				} else {
+					try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+						manager.visitAllEntries((bucketNumber, key, value) -> writeEntry(generator, bucketNumber, key, value));
+					}
+				}
+			};
+
+			return CompletableFuture.completedFuture(ResponseEntity.ok().contentType(contentType).body(body));
 		}
+
+		return async(() -> {
+			CloudStoragePage<MyKeyValue> page;
+
+			try {
+				page = manager.listPage(cursor, limit);
+			} catch (IllegalArgumentException iae) {
+				byte[] message = iae.getMessage().getBytes(StandardCharsets.UTF_8);
+
+				return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(out -> out.write(message));
+			}
+
+			return pageResponse(page).contentType(contentType).body(out -> {
+				if (plainText) {
+					PlainTextWriter writer = new PlainTextWriter(out);
+
+					for (MyKeyValue entry : page.getEntries()) {
+						writer.writeEntry(manager.getBucketNumber(entry.getKey()), entry.getKey(), entry.getValue());
+					}
+					writer.flush();
+				} else {
+					try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+						for (MyKeyValue entry : page.getEntries()) {
+							writeEntry(generator, manager.getBucketNumber(entry.getKey()), entry.getKey(), entry.getValue());
+						}
+					}
+				}
+			});
+		});
 	}
 
-	@RequestMapping(method = RequestMethod.GET, path = "/entries")
-	public ResponseEntity<String> retrieveAll() {
-		List<String> result;
+	/**
+	 * Returns true if the Accept header ranks text/plain above NDJSON. Without
+	 * an Accept header, or if both are equally acceptable, NDJSON is used.
+	 */
+	private static boolean prefersPlainText(String accept) {
+		if (accept == null) {
+			return false;
+		}
+		List<MediaType> mediaTypes;
 
 		try {
-			result = manager.listAllEntries();
-		} catch (Exception e) {
-			return ResponseEntity.badRequest().body("Something went wrong!");
+			mediaTypes = MediaType.parseMediaTypes(accept);
+		} catch (InvalidMediaTypeException imte) {
+			return false;
 		}
+		MediaType.sortBySpecificityAndQuality(mediaTypes);
 
-		if (result == null) {
-			return ResponseEntity.notFound().build();
-		} else {
-			return ResponseEntity.ok(String.join(", ", result));
+		for (MediaType mediaType : mediaTypes) {
+			if (mediaType.includes(MediaType.valueOf(NDJSON_VALUE))) {
+				return false;
+			}
+			if (mediaType.includes(MediaType.TEXT_PLAIN)) {
+				return true;
+			}
 		}
+		return false;
+	}
+
+	private void writeEntry(JsonGenerator generator, int bucketNumber, int key, String value) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("bucket", bucketNumber);
+		generator.writeNumberField("key", key);
+		generator.writeStringField("value", value);
+		generator.writeEndObject();
+		generator.writeRaw('\n');
+	}
+
+	private ResponseEntity.BodyBuilder pageResponse(CloudStoragePage<?> page) {
+		ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+
+		if (page.getCursor() != null) {
+			builder.header(NEXT_CURSOR_HEADER, page.getCursor());
+		}
+		return builder;
+	}
+
+	/**
+	 * A streamed response which the stream pool rejects is answered with 503, like a rejected storage operation.
+	 */
+	@ExceptionHandler(TaskRejectedException.class)
+	public ResponseEntity<String> streamRejected() {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+	}
+
+	/**
+	 * Runs the storage operation on the storage executor. If the executor
+	 * rejects it, the request is answered with 503 right away; if it does not
+	 * finish within the request timeout, with 503 when the timeout expires.
+	 */
+	private <T> CompletableFuture<ResponseEntity<T>> async(Supplier<ResponseEntity<T>> operation) {
+		CompletableFuture<ResponseEntity<T>> future;
+
+		try {
+			future = CompletableFuture.supplyAsync(operation, executor);
+		} catch (RejectedExecutionException ree) {
+			return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+		}
+
+		ScheduledFuture<?> timeout = requestTimeoutScheduler.schedule(
+				() -> future.complete(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build()),
+				new Date(System.currentTimeMillis() + requestTimeout));
+		future.whenComplete((response, throwable) -> timeout.cancel(false));
+		return future;
 	}
 
 	private ResponseEntity<String> getStringResponseEntity(CloudStorageLogger result) {
@@ -111,4 +292,41 @@ public class RequestController {
 				return ResponseEntity.badRequest().body("");
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * class PlainTextWriter
+	 *
+	 * Writes entries in the text/plain format of GET /entries: "key : value" separated by ", ", with a
+	 * "Bucket n" element whenever the bucket changes.
+	 */
+	private static class PlainTextWriter {
+
+		private final Writer writer;
+		private Integer bucket;
+		private boolean first = true;
+
+		PlainTextWriter(OutputStream out) {
+			writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		}
+
+		void writeEntry(int bucketNumber, int key, String value) throws IOException {
+			if (bucket == null || bucket != bucketNumber) {
+				bucket = bucketNumber;
+				writeElement("Bucket " + bucketNumber);
+			}
+			writeElement(key + " : " + value);
+		}
+
+		void flush() throws IOException {
+			writer.flush();
+		}
+
+		private void writeElement(String element) throws IOException {
+			if (!first) {
+				writer.write(", ");
+			}
+			first = false;
+			writer.write(element);
+		}
+	}
+}
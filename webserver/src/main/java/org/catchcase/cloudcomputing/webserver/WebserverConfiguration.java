@@ -0,0 +1,51 @@
+package org.catchcase.cloudcomputing.webserver;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.annotation.*;
+import org.springframework.scheduling.concurrent.*;
+import org.springframework.web.servlet.config.annotation.*;
+
+/**
+ * class WebserverConfiguration
+ *
+ * This class configures Spring MVC to run asynchronous request processing, such as streamed responses, on a bounded pool of its own instead of creating a new thread per request.
+ * The pool is separate from the CloudStorageExecutor, so long streams neither hold the threads of storage operations nor wait for streams of other nodes which wait on the same threads.
+ * Streams have no timeout; the timeout of storage operations is scheduled on the requestTimeoutScheduler.
+ */
+@Configuration
+public class WebserverConfiguration extends WebMvcConfigurerAdapter {
+
+	@Value("${cloudstorage.stream.threads:8}")
+	private int streamThreads;
+
+	@Value("${cloudstorage.stream.queue-capacity:100}")
+	private int streamQueueCapacity;
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.setTaskExecutor(streamExecutor());
+	}
+
+	@Bean
+	public ThreadPoolTaskExecutor streamExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+		executor.setCorePoolSize(streamThreads);
+		executor.setMaxPoolSize(streamThreads);
+		executor.setQueueCapacity(streamQueueCapacity);
+		executor.setAllowCoreThreadTimeOut(true);
+		executor.setDaemon(true);
+		executor.setThreadNamePrefix("response-stream-");
+		return executor;
+	}
+
+	@Bean
+	public ThreadPoolTaskScheduler requestTimeoutScheduler() {
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+		scheduler.setDaemon(true);
+		scheduler.setRemoveOnCancelPolicy(true);
+		scheduler.setThreadNamePrefix("request-timeout-");
+		return scheduler;
+	}
+}
@@ -1,45 +1,57 @@
 package org.catchcase.cloudcomputing.webserver.backend;
 
 import com.microsoft.azure.storage.*;
-import com.microsoft.azure.storage.file.*;
+import com.microsoft.azure.storage.blob.*;
 
 import java.io.*;
 import java.net.*;
 import java.security.*;
+import java.util.*;
 
 /**
  * class AzureStorage
  *
  * This class is defined as Singleton and implements the connection to the
- * Azure FileStorage.
+ * Azure BlobStorage. The connection string and the name of the container are
+ * read from the properties cloudstorage.azure.connection-string and
+ * cloudstorage.azure.container.
+ * The version of a blob is its ETag. Conditional writes send the expected
+ * ETag as If-Match condition, or If-None-Match: * if the blob must not exist,
+ * so the storage service itself rejects a write of another instance which
+ * came in between. Snapshots are stored as block blobs, logs as append blobs.
+ * The blobs of a cluster node are stored in the virtual directory of its
+ * namespace, see BlobStoreFactory.
  */
-public class AzureStorage {
-    private static final String storageConnectionString =
+public class AzureStorage implements BlobStore {
+    private static final String defaultConnectionString =
             "DefaultEndpointsProtocol=https;" +
                     "AccountName=;" +
                     "AccountKey=";
+    private static final String defaultContainerName = "cca4buckets";
+    private static final int maxAppendBlockSize = 4 * 1024 * 1024;
 
     private static AzureStorage azureInstance = null;
     private CloudStorageAccount storageAccount;
-    private CloudFileClient fileClient;
-    private CloudFileShare share;
-    private CloudFileDirectory rootDir;
-    private CloudFile cloudFile;
+    private CloudBlobClient blobClient;
+    private CloudBlobContainer container;
+    private final String prefix;
+
+    private AzureStorage(String namespace){
+        prefix = namespace.isEmpty() ? "" : namespace + "/";
+        CloudStorageProperties properties = CloudStorageProperties.getPropertiesInstance();
 
-    private AzureStorage(){
         try{
             //Connect to storage account.
-            storageAccount = CloudStorageAccount.parse(storageConnectionString);
-
-            //Create Azure Files client.
-            fileClient = storageAccount.createCloudFileClient();
+            storageAccount = CloudStorageAccount.parse(
+                    properties.getString("cloudstorage.azure.connection-string", defaultConnectionString));
 
-            //Create Fileshare if not exisiting.
-            share = fileClient.getShareReference("cca4buckets");
-            share.createIfNotExists();
+            //Create Azure Blob client.
+            blobClient = storageAccount.createCloudBlobClient();
 
-            //Get a reference to the root directory for the share.
-            rootDir = share.getRootDirectoryReference();
+            //Create container if not exisiting.
+            container = blobClient.getContainerReference(
+                    properties.getString("cloudstorage.azure.container", defaultContainerName));
+            container.createIfNotExists();
 
         } catch (InvalidKeyException | URISyntaxException | StorageException e) {
             e.printStackTrace();
@@ -47,49 +59,376 @@ public class AzureStorage {
     }
 
     /**
-     * AzureStorage getAzureInstance ()
+     * AzureStorage getAzureInstance (String namespace)
      *
      * Instantiate a new AzureStorage class, if not already existing.
      *
+     * @param namespace - virtual directory of the blobs, empty for the root
+     *
      * @return new AzureStorage or the existing AzureStorage
      */
-    public static AzureStorage getAzureInstance(){
+    public static synchronized AzureStorage getAzureInstance(String namespace){
         if(azureInstance == null){
-            azureInstance = new AzureStorage();
+            azureInstance = new AzureStorage(namespace);
         }
         return azureInstance;
     }
 
     /**
-     * void uploadBucket (File reference)
+     * void upload (File reference)
      *
-     * This method uploads the given file to the Azure FileStorage.
+     * This method uploads the given file to the Azure BlobStorage.
      *
      * @param reference - reference of the file
      */
-    protected void uploadBucket(File reference){
+    @Override
+    public void upload(File reference){
         try {
-            cloudFile = rootDir.getFileReference(reference.getName());
-            cloudFile.uploadFromFile(reference.getAbsolutePath());
+            CloudBlockBlob blob = container.getBlockBlobReference(prefix + reference.getName());
+            blob.uploadFromFile(reference.getAbsolutePath());
         } catch (StorageException | IOException | URISyntaxException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * void downloadBucket (File reference)
+     * String upload (File reference, String version)
      *
-     * This method downloads the wanted file from the Azure FileStorage and
-     * overrides the current one.
+     * This method uploads the given file if the blob in the Azure BlobStorage
+     * still has the given ETag.
      *
      * @param reference - reference of the file
+     * @param version - expected ETag, null if the blob must not exist
+     *
+     * @return the new ETag, null if the upload failed
+     */
+    @Override
+    public String upload(File reference, String version){
+        try {
+            CloudBlockBlob blob = container.getBlockBlobReference(prefix + reference.getName());
+
+            blob.uploadFromFile(reference.getAbsolutePath(), condition(version), null, null);
+            return blob.getProperties().getEtag();
+        } catch (StorageException e) {
+            if (isConflict(e)) {
+                throw conflict(reference.getName(), version);
+            }
+            e.printStackTrace();
+            return null;
+        } catch (IOException | URISyntaxException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * void append (String name, byte[] data)
+     *
+     * This method appends the given bytes to the append blob in the Azure
+     * BlobStorage, which is created if it does not exist yet.
+     *
+     * @param name - name of the blob
+     * @param data - bytes to append
      */
-    protected void downloadBucket(File reference){
+    @Override
+    public void append(String name, byte[] data){
         try {
-            cloudFile = rootDir.getFileReference(reference.getName());
-            cloudFile.downloadToFile(reference.getAbsolutePath());
+            CloudAppendBlob blob = container.getAppendBlobReference(prefix + name);
+
+            try {
+                blob.createOrReplace(AccessCondition.generateIfNotExistsCondition(), null, null);
+            } catch (StorageException e) {
+                if (!isConflict(e)) {
+                    throw e;
+                }
+            }
+            appendBlocks(blob, data, null);
+        } catch (StorageException | IOException | URISyntaxException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * String append (String name, byte[] data, String version)
+     *
+     * This method appends the given bytes like append(name, data), if the blob
+     * still has the given ETag. Every block is appended with the ETag left by
+     * the previous one as If-Match condition. If the blob is created here and
+     * the first block fails, the empty blob is deleted again.
+     *
+     * @param name - name of the blob
+     * @param data - bytes to append
+     * @param version - expected ETag, null if the blob must not exist
+     *
+     * @return the new ETag, null if the append failed
+     */
+    @Override
+    public String append(String name, byte[] data, String version){
+        try {
+            CloudAppendBlob blob = container.getAppendBlobReference(prefix + name);
+            String expected = version;
+
+            if (version == null) {
+                blob.createOrReplace(AccessCondition.generateIfNotExistsCondition(), null, null);
+                expected = blob.getProperties().getEtag();
+            }
+            try {
+                return appendBlocks(blob, data, expected);
+            } catch (StorageException | IOException e) {
+                if (version == null && expected.equals(blob.getProperties().getEtag())) {
+                    try {
+                        blob.deleteIfExists(DeleteSnapshotsOption.NONE,
+                                AccessCondition.generateIfMatchCondition(expected), null, null);
+                    } catch (StorageException undo) {
+                        e.addSuppressed(undo);
+                    }
+                }
+                throw e;
+            }
+        } catch (StorageException e) {
+            if (isConflict(e)) {
+                throw conflict(name, version);
+            }
+            e.printStackTrace();
+            return null;
+        } catch (IOException | URISyntaxException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * String appendBlocks (CloudAppendBlob blob, byte[] data, String version)
+     *
+     * Appends the given bytes in blocks of at most 4 MB, the largest block
+     * the service accepts. A failure after the first block leaves a torn
+     * record at the end of the log, which is skipped on replay, see
+     * CloudStorageBucketLog.
+     *
+     * @param blob - existing append blob
+     * @param data - bytes to append
+     * @param version - expected ETag, null to append unconditionally
+     *
+     * @return the ETag after the last block
+     */
+    private String appendBlocks(CloudAppendBlob blob, byte[] data, String version) throws StorageException, IOException {
+        for (int offset = 0; offset < data.length; offset += maxAppendBlockSize) {
+            int length = Math.min(maxAppendBlockSize, data.length - offset);
+            AccessCondition condition = version == null
+                    ? AccessCondition.generateEmptyCondition()
+                    : AccessCondition.generateIfMatchCondition(version);
+
+            blob.appendBlock(new ByteArrayInputStream(data, offset, length), length, condition, null, null);
+            if (version != null) {
+                version = blob.getProperties().getEtag();
+            }
+        }
+        return blob.getProperties().getEtag();
+    }
+
+    /**
+     * boolean download (File reference)
+     *
+     * This method downloads the wanted blob from the Azure BlobStorage and
+     * overrides the current file.
+     *
+     * @param reference - reference of the file
+     *
+     * @return a boolean true, if the blob existed and was downloaded, else returns false
+     */
+    @Override
+    public boolean download(File reference){
+        return download(reference, null) != null;
+    }
+
+    /**
+     * String download (File reference, String version)
+     *
+     * This method downloads the wanted blob only if its ETag differs from the
+     * given one. The download is bound to the listed ETag, so a blob which is
+     * written meanwhile is listed and downloaded again instead of mixing both
+     * versions.
+     *
+     * @param reference - reference of the file
+     * @param version - ETag of the local copy, null if there is none
+     *
+     * @return the ETag of the downloaded or unchanged blob, null if the blob
+     *      does not exist or the download failed
+     */
+    @Override
+    public String download(File reference, String version){
+        try {
+            while (true) {
+                CloudBlob blob = find(reference.getName());
+                if (blob == null) {
+                    return null;
+                }
+                String etag = blob.getProperties().getEtag();
+                if (version != null && reference.exists() && version.equals(etag)) {
+                    return version;
+                }
+                try {
+                    blob.downloadToFile(reference.getAbsolutePath(),
+                            AccessCondition.generateIfMatchCondition(etag), null, null);
+                    return etag;
+                } catch (StorageException e) {
+                    if (e.getHttpStatusCode() != HttpURLConnection.HTTP_PRECON_FAILED
+                            && e.getHttpStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                        throw e;
+                    }
+                }
+            }
         } catch (URISyntaxException | IOException | StorageException e) {
             e.printStackTrace();
+            return null;
         }
     }
+
+    /**
+     * boolean exists (String name)
+     *
+     * @param name - name of the blob
+     *
+     * @return a boolean true, if the blob exists in the Azure BlobStorage
+     */
+    @Override
+    public boolean exists(String name){
+        try {
+            return find(name) != null;
+        } catch (URISyntaxException | StorageException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * String version (String name)
+     *
+     * @param name - name of the blob
+     *
+     * @return the ETag of the blob or null if the blob does not exist
+     */
+    @Override
+    public String version(String name){
+        try {
+            CloudBlob blob = find(name);
+            return blob == null ? null : blob.getProperties().getEtag();
+        } catch (URISyntaxException | StorageException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * boolean delete (String name)
+     *
+     * @param name - name of the blob
+     *
+     * @return a boolean true, if the blob existed and was deleted
+     */
+    @Override
+    public boolean delete(String name){
+        try {
+            CloudBlob blob = find(name);
+            return blob != null && blob.deleteIfExists();
+        } catch (URISyntaxException | StorageException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * boolean delete (String name, String version)
+     *
+     * @param name - name of the blob
+     * @param version - expected ETag
+     *
+     * @return a boolean true, if the blob existed and was deleted
+     */
+    @Override
+    public boolean delete(String name, String version){
+        try {
+            CloudBlob blob = find(name);
+            if (blob == null) {
+                if (version != null) {
+                    throw new BlobStoreConflictException(name, version, null);
+                }
+                return false;
+            }
+            blob.delete(DeleteSnapshotsOption.NONE, condition(version), null, null);
+            return true;
+        } catch (StorageException e) {
+            if (isConflict(e)) {
+                throw conflict(name, version);
+            }
+            e.printStackTrace();
+            return false;
+        } catch (URISyntaxException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * CloudBlob find (String name)
+     *
+     * Lists the blob with the given name. The listing returns a reference of
+     * the right blob type with its properties, so logs and snapshots are read
+     * through the same methods.
+     *
+     * @param name - name of the blob
+     *
+     * @return the blob, null if it does not exist
+     */
+    private CloudBlob find(String name) throws URISyntaxException, StorageException {
+        String blobName = prefix + name;
+
+        for (ListBlobItem item : container.listBlobs(blobName, true, EnumSet.noneOf(BlobListingDetails.class), null,
+                null)) {
+            if (item instanceof CloudBlob && ((CloudBlob) item).getName().equals(blobName)) {
+                return (CloudBlob) item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * AccessCondition condition (String version)
+     *
+     * @param version - expected ETag, null if the blob must not exist
+     *
+     * @return the condition under which the service accepts the write
+     */
+    private static AccessCondition condition(String version){
+        return version == null
+                ? AccessCondition.generateIfNotExistsCondition()
+                : AccessCondition.generateIfMatchCondition(version);
+    }
+
+    /**
+     * boolean isConflict (StorageException e)
+     *
+     * @param e - failure of a conditional request
+     *
+     * @return a boolean true, if the service rejected the request because
+     *      the blob has another ETag or does or does not exist
+     */
+    private static boolean isConflict(StorageException e){
+        int status = e.getHttpStatusCode();
+        return status == HttpURLConnection.HTTP_PRECON_FAILED
+                || status == HttpURLConnection.HTTP_CONFLICT
+                || status == HttpURLConnection.HTTP_NOT_FOUND;
+    }
+
+    /**
+     * BlobStoreConflictException conflict (String name, String version)
+     *
+     * @param name - name of the blob
+     * @param version - expected ETag
+     *
+     * @return the exception for a rejected condition, with the current ETag
+     */
+    private BlobStoreConflictException conflict(String name, String version){
+        return new BlobStoreConflictException(name, version, version(name));
+    }
 }
@@ -0,0 +1,137 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+
+/**
+ * interface BlobStore
+ *
+ * This interface describes the storage in which the bucket files are kept.
+ * Blobs are addressed by the name of the local file reference, so the same
+ * local file is always stored under the same blob.
+ * Every blob has an opaque version, which changes whenever it is written.
+ * The conditional methods take the version the caller has seen last, so
+ * several instances sharing the store can skip downloads of unchanged blobs
+ * and detect writes of the others instead of overwriting them.
+ */
+public interface BlobStore {
+
+    /**
+     * void upload (File reference)
+     *
+     * Uploads the given file and replaces the blob with the same name.
+     *
+     * @param reference - reference of the file
+     */
+    void upload(File reference);
+
+    /**
+     * String upload (File reference, String version)
+     *
+     * Uploads the given file only if the blob still has the given version.
+     *
+     * @param reference - reference of the file
+     * @param version - version the blob must have, null if it must not exist
+     *
+     * @return the new version of the blob, null if the upload failed
+     *
+     * @throws BlobStoreConflictException if the blob has another version
+     */
+    String upload(File reference, String version);
+
+    /**
+     * void append (String name, byte[] data)
+     *
+     * Appends the given bytes to the end of the blob. The blob is created if
+     * it does not exist yet.
+     *
+     * @param name - name of the blob
+     * @param data - bytes to append
+     */
+    void append(String name, byte[] data);
+
+    /**
+     * String append (String name, byte[] data, String version)
+     *
+     * Appends the given bytes only if the blob still has the given version.
+     *
+     * @param name - name of the blob
+     * @param data - bytes to append
+     * @param version - version the blob must have, null if it must not exist
+     *
+     * @return the new version of the blob, null if the append failed
+     *
+     * @throws BlobStoreConflictException if the blob has another version
+     */
+    String append(String name, byte[] data, String version);
+
+    /**
+     * boolean download (File reference)
+     *
+     * Downloads the blob with the name of the given file and overrides the
+     * content of the file.
+     *
+     * @param reference - reference of the file
+     *
+     * @return a boolean true, if the blob existed and was downloaded, else returns false
+     */
+    boolean download(File reference);
+
+    /**
+     * String download (File reference, String version)
+     *
+     * Downloads the blob only if its version differs from the given one,
+     * which is the version of the local copy in the file.
+     *
+     * @param reference - reference of the file
+     * @param version - version of the local copy, null if there is none
+     *
+     * @return the version of the blob the file now holds, equal to the given
+     *      version if nothing was downloaded; null if the blob does not exist
+     *      or the download failed
+     */
+    String download(File reference, String version);
+
+    /**
+     * boolean exists (String name)
+     *
+     * @param name - name of the blob
+     *
+     * @return a boolean true, if the blob exists, else returns false
+     */
+    boolean exists(String name);
+
+    /**
+     * String version (String name)
+     *
+     * Returns an opaque version of the blob, which changes whenever the blob
+     * is written.
+     *
+     * @param name - name of the blob
+     *
+     * @return the version as String or null if the blob does not exist
+     */
+    String version(String name);
+
+    /**
+     * boolean delete (String name)
+     *
+     * @param name - name of the blob
+     *
+     * @return a boolean true, if the blob existed and was deleted, else returns false
+     */
+    boolean delete(String name);
+
+    /**
+     * boolean delete (String name, String version)
+     *
+     * Deletes the blob only if it still has the given version.
+     *
+     * @param name - name of the blob
+     * @param version - version the blob must have
+     *
+     * @return a boolean true, if the blob existed and was deleted, else returns false
+     *
+     * @throws BlobStoreConflictException if the blob has another version
+     */
+    boolean delete(String name, String version);
+}
@@ -0,0 +1,17 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * class BlobStoreConflictException
+ *
+ * This exception is thrown by a conditional write of a BlobStore if the blob
+ * no longer has the expected version, because another instance has written
+ * it in the meantime. Nothing has been written then.
+ */
+public class BlobStoreConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BlobStoreConflictException(String name, String expected, String actual){
+        super("Blob " + name + " has version " + actual + ", expected " + expected + ".", null, false, false);
+    }
+}
@@ -0,0 +1,70 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.nio.file.*;
+import java.util.logging.*;
+
+/**
+ * class BlobStoreFactory
+ *
+ * This class creates the BlobStore which is configured in the
+ * application.properties. Every bucket shares the same instance.
+ * In cluster mode every node keeps its own buckets, so the blobs of a node
+ * are stored under its namespace, see getNamespace. Otherwise the nodes of a
+ * cluster sharing a store would all write the same bucket blobs.
+ */
+public class BlobStoreFactory {
+
+    private final static Logger logger = Logger.getLogger(BlobStoreFactory.class.getName());
+    private static BlobStore blobStoreInstance = null;
+
+    private BlobStoreFactory(){
+    }
+
+    /**
+     * BlobStore getBlobStoreInstance ()
+     *
+     * Instantiate the configured BlobStore, if not already existing.
+     *
+     * @return new BlobStore or the existing BlobStore
+     */
+    public static synchronized BlobStore getBlobStoreInstance(){
+        if(blobStoreInstance == null){
+            CloudStorageProperties properties = CloudStorageProperties.getPropertiesInstance();
+            BlobStoreType type = properties.getEnum("cloudstorage.blobstore", BlobStoreType.class, BlobStoreType.AZURE);
+            String namespace = getNamespace(properties);
+
+            switch (type) {
+                case AZURE:
+                    blobStoreInstance = AzureStorage.getAzureInstance(namespace);
+                    break;
+                case MEMORY:
+                    blobStoreInstance = new InMemoryBlobStore();
+                    break;
+                default:
+                    blobStoreInstance = new LocalFileBlobStore(Paths.get(
+                            properties.getString("cloudstorage.blobstore.local.path", "blobstore"), namespace).toString());
+            }
+            logger.info("Using " + type + " blob store" + (namespace.isEmpty() ? "." : " in namespace " + namespace + "."));
+        }
+        return blobStoreInstance;
+    }
+
+    /**
+     * String getNamespace (CloudStorageProperties properties)
+     *
+     * Derives the namespace of this node from cloudstorage.cluster.self, e.g.
+     * localhost-8081 for http://localhost:8081.
+     *
+     * @param properties - configuration of this node
+     *
+     * @return the namespace of this node, empty if not in cluster mode
+     */
+    static String getNamespace(CloudStorageProperties properties){
+        if (properties.getString("cloudstorage.cluster.nodes", "").isEmpty()) {
+            return "";
+        }
+        String self = properties.getString("cloudstorage.cluster.self", "http://localhost:8080");
+
+        return self.replaceFirst("^[a-zA-Z]+://", "").replaceAll("/+$", "").replaceAll("[^a-zA-Z0-9.-]", "-");
+    }
+}
@@ -0,0 +1,25 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * enum BlobStoreType
+ *
+ * This enum lists the available BlobStore implementations. The one in use is
+ * selected with the property cloudstorage.blobstore.
+ */
+public enum BlobStoreType {
+
+    /**
+     * Azure BlobStorage, see AzureStorage.
+     */
+    AZURE,
+
+    /**
+     * Directory on the local file system, see LocalFileBlobStore.
+     */
+    LOCAL,
+
+    /**
+     * Heap of the running process, see InMemoryBlobStore.
+     */
+    MEMORY
+}
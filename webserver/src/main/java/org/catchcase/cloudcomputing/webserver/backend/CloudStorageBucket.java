@@ -2,7 +2,9 @@ package org.catchcase.cloudcomputing.webserver.backend;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 import java.util.logging.*;
 
 /**
@@ -10,22 +12,127 @@ import java.util.logging.*;
  *
  * This class implements the bucket in which the key/value pair will be stored
  * as MyKeyValue objects.
+ * The hash map of the bucket stays resident after it has been loaded once, so
+ * reads are served from memory and the blob store is only touched when
+ * the content changes.
+ * Changes are appended as records to a write-ahead log. After a number of
+ * records the log is compacted into a snapshot of the whole hash map
+ * (checkpoint). Loading a bucket reads the snapshot and replays the log.
+ * Until the first change or listing, single keys are looked up directly in
+ * the memory-mapped snapshot (see CloudStorageBucketFile) and the log, so the
+ * snapshot does not have to be decoded completely.
+ * A Bloom filter of the keys (see CloudStorageBucketFilter) is uploaded with
+ * every snapshot. Lookups and deletes of keys it does not contain are
+ * answered without downloading or decoding the snapshot.
+ * The values of a resident bucket are kept on the heap or in the off-heap
+ * CloudStorageValueArena, depending on its CloudStorageValueStorage.
+ * Reads share a read lock and run in parallel, changes hold the write lock.
+ * The bucket remembers the blob versions of its snapshot and log. Local
+ * copies are only downloaded again if their blob has changed, and every
+ * upload, append and delete is conditional on the version seen last, so
+ * several instances can share one blob store: a conflicting write drops the
+ * resident state, the bucket is loaded again and the change is retried. With
+ * a revalidate interval the versions are also compared before operations, so
+ * reads see the changes of the other instances after at most that interval.
+ * A bucket holds every key whose lowest localDepth hash bits are equal to
+ * its pattern, see mix(int). When the hash directory splits a bucket, these keys are divided
+ * between the bucket and a new sibling bucket.
  */
 public class CloudStorageBucket {
 
     private final static Logger logger = Logger.getLogger(CloudStorageBucket.class.getName());
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+    private static final int DEFAULT_LOCAL_DEPTH = 2;
+    private int bucketNumber;
+    private volatile int localDepth;
+    private volatile int pattern;
+    private final boolean mixKeys;
+    private File localDirectory;
     private String fileName;
+    private String logName;
     private File file;
-    private HashMap hashTable;
-    private Semaphore lock = new Semaphore(1);
-    private AzureStorage azureStorage;
+    private File logFile;
+    private File mappedFile;
+    private File filterFile;
+    private CloudStorageValueMap hashTable;
+    private CloudStorageBucketFile snapshot;
+    private CloudStorageBucketFilter filter;
+    private HashMap<Integer, String> logOverlay;
+    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private BlobStore blobStore;
+    private CloudStorageWriteMode writeMode;
+    private CloudStorageValueStorage valueStorage;
+    private int checkpointInterval;
+    private long revalidateInterval;
+    private CloudStorageKeyIndex keyIndex;
+    private int[] indexedKeys;
+    private volatile boolean opened = false;
+    private volatile boolean mapped = false;
+    private volatile boolean loaded = false;
+    private volatile boolean stale = false;
+    private volatile long validated;
+    private volatile String snapshotVersion;
+    private volatile String logVersion;
+    private String mappedVersion;
+    private String logFileVersion;
+    private String filterFileVersion;
+    private int logRecords = 0;
+    private int pendingRecords = 0;
+    private ByteArrayOutputStream pendingLog = new ByteArrayOutputStream();
+    private final LongAdder filterNegatives = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
 
 
     public CloudStorageBucket(int bucketNumber){
+        this(bucketNumber, CloudStorageWriteMode.WRITE_THROUGH, DEFAULT_CHECKPOINT_INTERVAL, new File("."));
+    }
+
+    public CloudStorageBucket(int bucketNumber, CloudStorageWriteMode writeMode, int checkpointInterval,
+                              File localDirectory){
+        this(bucketNumber, writeMode, checkpointInterval, localDirectory, DEFAULT_LOCAL_DEPTH, bucketNumber);
+    }
+
+    public CloudStorageBucket(int bucketNumber, CloudStorageWriteMode writeMode, int checkpointInterval,
+                              File localDirectory, int localDepth, int pattern){
+        this(bucketNumber, writeMode, checkpointInterval, localDirectory, localDepth, pattern,
+                CloudStorageValueStorage.HEAP);
+    }
+
+    public CloudStorageBucket(int bucketNumber, CloudStorageWriteMode writeMode, int checkpointInterval,
+                              File localDirectory, int localDepth, int pattern,
+                              CloudStorageValueStorage valueStorage){
+        this(bucketNumber, writeMode, checkpointInterval, localDirectory, localDepth, pattern, valueStorage, false);
+    }
+
+    public CloudStorageBucket(int bucketNumber, CloudStorageWriteMode writeMode, int checkpointInterval,
+                              File localDirectory, int localDepth, int pattern,
+                              CloudStorageValueStorage valueStorage, boolean mixKeys){
+        this(bucketNumber, writeMode, checkpointInterval, localDirectory, localDepth, pattern, valueStorage, mixKeys,
+                BlobStoreFactory.getBlobStoreInstance());
+    }
+
+    CloudStorageBucket(int bucketNumber, CloudStorageWriteMode writeMode, int checkpointInterval,
+                       File localDirectory, int localDepth, int pattern,
+                       CloudStorageValueStorage valueStorage, boolean mixKeys, BlobStore blobStore){
+        this.bucketNumber = bucketNumber;
+        this.localDepth = localDepth;
+        this.pattern = pattern;
+        this.mixKeys = mixKeys;
+        this.localDirectory = localDirectory;
         fileName = "bucket" + bucketNumber + ".txt";
-        file = new File(fileName);
-        hashTable = new HashMap(1, 0.5F);
-        azureStorage = AzureStorage.getAzureInstance();
+        logName = "bucket" + bucketNumber + ".log";
+        file = new File(localDirectory, fileName);
+        logFile = new File(localDirectory, logName);
+        mappedFile = new File(new File(localDirectory, "mapped"), fileName);
+        mappedFile.getParentFile().mkdirs();
+        filterFile = new File(localDirectory, "bucket" + bucketNumber + ".bloom");
+        this.valueStorage = valueStorage;
+        hashTable = CloudStorageValueMap.create(valueStorage, 0);
+        this.blobStore = blobStore;
+        this.writeMode = writeMode;
+        this.checkpointInterval = checkpointInterval;
+        revalidateInterval = CloudStorageProperties.getPropertiesInstance()
+                .getLong("cloudstorage.bucket.revalidate-interval-ms", -1);
     }
 
     /**
@@ -33,33 +140,77 @@ public class CloudStorageBucket {
      *
      * This method adds the myKeyValue object into the hash map if not already
      * existing.
-     * Further it downloads/uploads the file where the hash map is stored from/to the
-     * Azure FileStorage and reads/writes it.
-     * This method is also thread safe, because the of the semaphore.
+     * Further it loads the hash map if it is not resident yet and persists the
+     * change according to the write mode of the bucket. If another instance
+     * has changed the bucket, it is loaded again and the add is retried.
+     * If the change cannot be persisted, the resident state is dropped, so the
+     * change is undone, and the error is thrown.
+     * This method is also thread safe, because of the write lock.
      *
      * @param myKeyValue - key/value pair as MyKeyValue object
      *
      * @return a boolean true, if add operation was successful, else returns false
      */
     public boolean add(MyKeyValue myKeyValue){
-        lock.acquireUninterruptibly();
+        return store(myKeyValue, false);
+    }
 
+    /**
+     * boolean put (MyKeyValue myKeyValue)
+     *
+     * This method stores the myKeyValue object in the hash map like add, but
+     * replaces the value of an existing key. The old value is replaced by the
+     * one log record, so the key is never missing in between.
+     *
+     * @param myKeyValue - key/value pair as MyKeyValue object
+     *
+     * @return a boolean true, if the pair was stored
+     */
+    public boolean put(MyKeyValue myKeyValue){
+        return store(myKeyValue, true);
+    }
+
+    /**
+     * boolean store (MyKeyValue myKeyValue, boolean replace)
+     *
+     * @param myKeyValue - key/value pair as MyKeyValue object
+     * @param replace - a boolean true, if the value of an existing key is replaced
+     *
+     * @return a boolean true, if the pair was stored
+     */
+    private boolean store(MyKeyValue myKeyValue, boolean replace){
+        revalidate();
+        lock.writeLock().lock();
         try {
-            read();
+            while (true) {
+                checkCovers(myKeyValue.getKey());
+                load();
 
-            if(hashTable.containsKey(myKeyValue.getKey())) {
-                logger.info("Key is already existing.");
+                if(!replace && hashTable.containsKey(myKeyValue.getKey())) {
+                    logger.fine("Key is already existing.");
 
-                return false;
-            } else {
+                    return false;
+                }
                 hashTable.put(myKeyValue.getKey(), myKeyValue.getValue());
-                logger.info("KeyValuePair successfully stored.");
-                write();
+                try {
+                    appendLog(CloudStorageBucketLog.insertRecord(myKeyValue.getKey(), myKeyValue.getValue()), 1);
+                } catch (BlobStoreConflictException e) {
+                    reload(e);
+                    continue;
+                } catch (UncheckedIOException e) {
+                    invalidate();
+                    throw e;
+                }
+                addToFilter(myKeyValue.getKey());
+                if (keyIndex != null) {
+                    keyIndex.add(myKeyValue.getKey());
+                }
+                logger.fine("KeyValuePair successfully stored.");
 
                 return true;
             }
         } finally {
-            lock.release();
+            lock.writeLock().unlock();
         }
     }
 
@@ -67,33 +218,58 @@ public class CloudStorageBucket {
      * boolean delete (int key)
      *
      * This method deletes the key/value pair from the hash map if existing.
-     * Further it downloads/uploads the file where the hash map is stored from/to the
-     * Azure FileStorage and reads/writes it.
-     * This method is also thread safe, because the of the semaphore.
+     * Further it loads the hash map if it is not resident yet and persists the
+     * change according to the write mode of the bucket. A key which is not in
+     * the Bloom filter is not deleted without loading the hash map.
+     * If another instance has changed the bucket, it is loaded again and the
+     * delete is retried. If the change cannot be persisted, the resident
+     * state is dropped, so the change is undone, and the error is thrown.
+     * This method is also thread safe, because of the write lock.
      *
      * @param key - key of the wanted value
      *
      * @return a boolean true, if delete operation was successful, else returns false
      */
     public boolean delete(int key){
-        lock.acquireUninterruptibly();
-
+        revalidate();
+        lock.writeLock().lock();
         try {
-            read();
+            while (true) {
+                checkCovers(key);
+                open();
+                if (!filter.mightContain(key)) {
+                    filterNegatives.increment();
+                    logger.fine("Key not existing.");
+
+                    return false;
+                }
+                load();
+
+                if (!hashTable.containsKey(key)) {
+                    filterFalsePositives.increment();
+                    logger.fine("Key not existing.");
 
-            if(hashTable.containsKey(key)) {
+                    return false;
+                }
                 hashTable.remove(key);
-                logger.info("KeyValuePair successfully removed.");
-                write();
+                try {
+                    appendLog(CloudStorageBucketLog.deleteRecord(key), 1);
+                } catch (BlobStoreConflictException e) {
+                    reload(e);
+                    continue;
+                } catch (UncheckedIOException e) {
+                    invalidate();
+                    throw e;
+                }
+                if (keyIndex != null) {
+                    keyIndex.remove(key);
+                }
+                logger.fine("KeyValuePair successfully removed.");
 
                 return true;
-            } else {
-                logger.info("Key not existing.");
-
-                return false;
             }
         } finally {
-            lock.release();
+            lock.writeLock().unlock();
         }
     }
 
@@ -101,33 +277,68 @@ public class CloudStorageBucket {
      * MyKeyValue getKeyValue (int key)
      *
      * This method searches for the key/value pair from the hash map if existing.
-     * Further it downloads the file where the hash map is stored from the
-     * Azure FileStorage and reads it.
-     * This method is also thread safe, because the of the semaphore.
+     * As long as the hash map is not resident, the key is searched in the log
+     * and the memory-mapped snapshot instead of loading the whole bucket.
+     * Keys which are not in the Bloom filter are not searched at all, the
+     * snapshot is only downloaded for the first key the filter contains and
+     * the log does not.
+     * It only holds the read lock, so lookups in the same bucket run in
+     * parallel.
      *
      * @param key - key of the wanted value
      *
      * @return the key/value pair as MyKeyValue object
      */
     public MyKeyValue getKeyValue(int key){
-        lock.acquireUninterruptibly();
-        try {
-            read();
+        revalidate();
 
-            if (hashTable.containsKey(key)) {
-                MyKeyValue myKeyValue = new MyKeyValue();
+        while (true) {
+            prepareRead(false);
 
-                myKeyValue.setKey(key);
-                myKeyValue.setValue(hashTable.get(key).toString());
-                logger.info("KeyValuePair successfully acquired.");
+            lock.readLock().lock();
+            try {
+                String value = null;
+                boolean known = true;
 
-                return myKeyValue;
-            } else {
-                logger.info("Key not existing.");
-                return null;
+                if (!opened) {
+                    //Dropped by revalidate() in the meantime
+                    continue;
+                }
+                checkCovers(key);
+                if (!filter.mightContain(key)) {
+                    filterNegatives.increment();
+                    logger.fine("Key not existing.");
+
+                    return null;
+                }
+                if (loaded) {
+                    value = hashTable.get(key);
+                } else if (logOverlay.containsKey(key)) {
+                    value = logOverlay.get(key);
+                } else if (mapped) {
+                    value = snapshot == null ? null : snapshot.lookup(key);
+                } else {
+                    known = false;
+                }
+
+                if (value != null) {
+                    MyKeyValue myKeyValue = new MyKeyValue();
+
+                    myKeyValue.setKey(key);
+                    myKeyValue.setValue(value);
+                    logger.fine("KeyValuePair successfully acquired.");
+
+                    return myKeyValue;
+                } else if (known) {
+                    filterFalsePositives.increment();
+                    logger.fine("Key not existing.");
+
+                    return null;
+                }
+            } finally {
+                lock.readLock().unlock();
             }
-        } finally {
-            lock.release();
+            prepareSnapshot();
         }
     }
 
@@ -135,79 +346,965 @@ public class CloudStorageBucket {
      * List<String> getKeyValue ()
      *
      * This method retrieves all key/value pairs from the hash map if existing.
-     * Further it downloads the file where the hash map is stored from the
-     * Azure FileStorage and reads it.
-     * This method is also thread safe, because the of the semaphore.
+     * The hash map is loaded from the blob store only if it is not
+     * resident yet.
+     * It only holds the read lock, so it runs in parallel to other reads.
      *
      * @return a List of key/value pairs as String
      */
     public List<String> getEntries() {
-        lock.acquireUninterruptibly();
-
         List<String> result = new ArrayList<>();
         MyKeyValue temp = new MyKeyValue();
 
-        read();
-
+        revalidate();
+        readLockLoaded();
         try {
-            hashTable.keySet().forEach(key -> {
-                temp.setKey(key.hashCode());
-                temp.setValue(hashTable.get(key).toString());
+            hashTable.forEachKey(key -> {
+                temp.setKey(key);
+                temp.setValue(hashTable.get(key));
                 result.add(temp.toString());
             });
 
             return result;
         } finally {
-            lock.release();
+            lock.readLock().unlock();
         }
     }
 
     /**
-     * void write ()
+     * CloudStorageIntMap<String> getSnapshot ()
      *
-     * This method creates a file if not already existing.
-     * Write the hash map into this file and uploads it to the
-     * Azure FileStorage.
+     * This method copies the key/value pairs of the bucket under the read
+     * lock. Only the map entries are copied, the values are shared, so the
+     * copy can be written to a slow client without blocking writers.
+     *
+     * @return a copy of the key/value pairs of the bucket
      */
-    private void write(){
+    public CloudStorageIntMap<String> getSnapshot() {
+        revalidate();
+        readLockLoaded();
         try {
-            file.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
+            return hashTable.copy();
+        } finally {
+            lock.readLock().unlock();
         }
+    }
+
+    /**
+     * void apply (List<CloudStorageOperation> operations)
+     *
+     * This method applies every operation whose key belongs into this bucket
+     * in the given order. The bucket is loaded and locked once and all
+     * changes are persisted together with a single log append. The
+     * operations are completed only after the append, because the batch is
+     * evaluated again if another instance has changed the bucket meanwhile.
+     * If the bucket cannot be loaded or the changes cannot be persisted, its
+     * operations fail and the resident state is dropped.
+     * Operations for other buckets are left unapplied.
+     * This method is also thread safe, because of the write lock.
+     *
+     * @param operations - operations of a batch
+     */
+    public void apply(List<CloudStorageOperation> operations) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        List<Runnable> completions = new ArrayList<>();
+        int count;
+
+        revalidate();
+        lock.writeLock().lock();
+        try {
+            while (true) {
+                records.reset();
+                completions.clear();
+                count = 0;
+                load();
+
+                for (CloudStorageOperation operation : operations) {
+                    int key = operation.getKey();
+
+                    if (operation.isApplied() || !covers(key)) {
+                        continue;
+                    }
+                    if (CloudStorageOperation.INSERT.equals(operation.getOp())) {
+                        if (hashTable.containsKey(key)) {
+                            completions.add(() -> operation.complete(false, null));
+                            continue;
+                        }
+                        hashTable.put(key, operation.getValue());
+                        byte[] record = CloudStorageBucketLog.insertRecord(key, operation.getValue());
+                        records.write(record, 0, record.length);
+                        count++;
+                        completions.add(() -> {
+                            addToFilter(key);
+                            if (keyIndex != null) {
+                                keyIndex.add(key);
+                            }
+                            operation.complete(true, null);
+                        });
+                    } else if (CloudStorageOperation.DELETE.equals(operation.getOp())) {
+                        if (!hashTable.remove(key)) {
+                            completions.add(() -> operation.complete(false, null));
+                            continue;
+                        }
+                        byte[] record = CloudStorageBucketLog.deleteRecord(key);
+                        records.write(record, 0, record.length);
+                        count++;
+                        completions.add(() -> {
+                            if (keyIndex != null) {
+                                keyIndex.remove(key);
+                            }
+                            operation.complete(true, null);
+                        });
+                    } else {
+                        String value = hashTable.get(key);
+                        completions.add(() -> operation.complete(value != null, value));
+                    }
+                }
+
+                if (count > 0) {
+                    try {
+                        appendLog(records.toByteArray(), count);
+                    } catch (BlobStoreConflictException e) {
+                        reload(e);
+                        continue;
+                    }
+                }
+                break;
+            }
+
+            completions.forEach(Runnable::run);
+            logger.fine(count + " changes of a batch applied to bucket " + fileName + ".");
+        } catch (UncheckedIOException e) {
+            logger.warning("Batch could not be applied to bucket " + fileName + ": " + e.getMessage());
+            invalidate();
+            for (CloudStorageOperation operation : operations) {
+                if (!operation.isApplied() && covers(operation.getKey())) {
+                    operation.fail("Key: " + operation.getKey() + " could not be persisted.");
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * void indexKeys (CloudStorageKeyIndex keyIndex)
+     *
+     * This method adds every key of the bucket to the given index and keeps
+     * the index up to date on later inserts and deletes. Both happens under
+     * the lock of the bucket, so no change gets lost in between.
+     *
+     * @param keyIndex - ordered index of all keys
+     */
+    public void indexKeys(CloudStorageKeyIndex keyIndex) {
+        lock.writeLock().lock();
+        try {
+            load();
+            hashTable.forEachKey(keyIndex::add);
+            this.keyIndex = keyIndex;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * int size ()
+     *
+     * @return the number of key/value pairs in the bucket
+     */
+    public int size() {
+        readLockLoaded();
+        try {
+            return hashTable.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * CloudStorageBucket split (int siblingNumber, Consumer<CloudStorageBucket> publish)
+     *
+     * This method splits the bucket by one more bit of the key. Every pair
+     * whose key has this bit set is moved into a new sibling bucket.
+     * The sibling snapshot is uploaded first, then publish is called to make
+     * the new layout visible and persistent, and finally the snapshot of this
+     * bucket is rewritten without the moved pairs. If the sibling snapshot
+     * cannot be uploaded or publish fails, the bucket keeps all its pairs and
+     * is not split.
+     * A split which would move none or all of the pairs is not done either.
+     * Operations on this bucket wait until the split is finished; other
+     * buckets are not blocked.
+     *
+     * @param siblingNumber - number of the new bucket
+     * @param publish - updates the hash directory with the sibling
+     *
+     * @return the new sibling bucket, null if the bit does not divide the pairs
+     *
+     * @throws UncheckedIOException if the sibling or the layout could not be persisted
+     */
+    public CloudStorageBucket split(int siblingNumber, Consumer<CloudStorageBucket> publish) {
+        lock.writeLock().lock();
+        try {
+            load();
+
+            int splitBit = 1 << localDepth;
+            CloudStorageBucket sibling = new CloudStorageBucket(siblingNumber, writeMode, checkpointInterval,
+                    localDirectory, localDepth + 1, pattern | splitBit, valueStorage, mixKeys, blobStore);
+            CloudStorageValueMap kept = CloudStorageValueMap.create(valueStorage, hashTable.size() / 2);
 
-        try(ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))){
-            oos.writeObject(hashTable);
-            azureStorage.uploadBucket(file);
+            hashTable.forEachKey(key -> {
+                if ((hash(key) & splitBit) != 0) {
+                    sibling.hashTable.put(key, hashTable.get(key));
+                } else {
+                    kept.put(key, hashTable.get(key));
+                }
+            });
+            if (kept.size() == 0 || sibling.hashTable.size() == 0) {
+                kept.release();
+                sibling.hashTable.release();
+                logger.info("Bucket " + fileName + " not split, bit " + localDepth + " does not divide its keys.");
+
+                return null;
+            }
+            sibling.keyIndex = keyIndex;
+            sibling.opened = true;
+            sibling.loaded = true;
+            //Blobs left behind under the number of the sibling are replaced
+            sibling.snapshotVersion = blobStore.version(sibling.fileName);
+            sibling.logVersion = blobStore.version(sibling.logName);
+            if (!sibling.checkpoint(new byte[0])) {
+                kept.release();
+                sibling.hashTable.release();
+                throw new UncheckedIOException(new IOException("Bucket " + fileName + " not split, the snapshot of "
+                        + sibling.fileName + " could not be written."));
+            }
+            CloudStorageValueMap full = hashTable;
+
+            hashTable = kept;
+            localDepth++;
+            try {
+                publish.accept(sibling);
+            } catch (RuntimeException e) {
+                //The persisted layout does not know the sibling, so this bucket keeps all its pairs
+                hashTable = full;
+                localDepth--;
+                kept.release();
+                sibling.hashTable.release();
+                throw e;
+            }
+            full.release();
+            checkpoint(new byte[0]);
+            logger.info("Bucket " + fileName + " split, " + sibling.hashTable.size() + " pairs moved to "
+                    + sibling.fileName + ".");
+
+            return sibling;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * boolean covers (int key)
+     *
+     * @param key - key of a value
+     *
+     * @return a boolean true, if the key belongs into this bucket
+     */
+    public boolean covers(int key) {
+        return (hash(key) & ((1 << localDepth) - 1)) == pattern;
+    }
+
+    /**
+     * int mix (int key)
+     *
+     * Spreads the bits of the key with the finalizer of MurmurHash3. The
+     * function is a bijection, so distinct keys never share all hash bits,
+     * and keys which only differ in their high bits still land in different
+     * buckets.
+     *
+     * @param key - key of a value
+     *
+     * @return the mixed key
+     */
+    static int mix(int key) {
+        int hash = key;
+
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * int hash (int key)
+     *
+     * @param key - key of a value
+     *
+     * @return the bits which decide the bucket of the key: the mixed key, or
+     *      the key itself for buckets of a layout from before the mixing
+     */
+    private int hash(int key) {
+        return mixKeys ? mix(key) : key;
+    }
+
+    /**
+     * int getBucketNumber ()
+     *
+     * @return the number of the bucket
+     */
+    public int getBucketNumber() {
+        return bucketNumber;
+    }
+
+    /**
+     * int getLocalDepth ()
+     *
+     * @return the number of key bits which are equal for all keys of the bucket
+     */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    /**
+     * int getPattern ()
+     *
+     * @return the lowest localDepth hash bits which all keys of the bucket have
+     */
+    public int getPattern() {
+        return pattern;
+    }
+
+    /**
+     * void flush ()
+     *
+     * This method appends the log records which have been buffered in
+     * write-back mode to the log in the blob store. It is a no-op for buckets
+     * in write-through mode, because they never buffer records.
+     * If the records cannot be appended, they stay buffered for the next flush.
+     * If another instance has changed the log meanwhile, the bucket is loaded
+     * again, the buffered records are applied on top of the changes of the
+     * other instance, and they are appended to the new version of the log.
+     * The records stay buffered until they have been appended.
+     * This method is also thread safe, because of the write lock.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            while (pendingRecords > 0) {
+                byte[] records = pendingLog.toByteArray();
+
+                try {
+                    if (logRecords + pendingRecords >= checkpointInterval) {
+                        checkpoint(records);
+                    } else {
+                        appendToLog(records);
+                        logRecords += pendingRecords;
+                    }
+                } catch (BlobStoreConflictException e) {
+                    reload(e);
+                    try {
+                        load();
+                    } catch (UncheckedIOException loadFailure) {
+                        logger.warning("Bucket " + fileName + " could not be flushed, it is retried: "
+                                + loadFailure.getMessage());
+                        return;
+                    }
+                    continue;
+                } catch (UncheckedIOException e) {
+                    logger.warning("Bucket " + fileName + " could not be flushed, it is retried: " + e.getMessage());
+                    return;
+                }
+                pendingLog.reset();
+                pendingRecords = 0;
+                logger.info("Bucket " + fileName + " flushed.");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * boolean isDirty ()
+     *
+     * @return a boolean true, if the bucket has changes which are not uploaded yet
+     */
+    public boolean isDirty() {
+        return pendingRecords > 0;
+    }
+
+    /**
+     * long getFilterNegatives ()
+     *
+     * @return the number of lookups and deletes the Bloom filter answered alone
+     */
+    public long getFilterNegatives() {
+        return filterNegatives.sum();
+    }
+
+    /**
+     * long getFilterFalsePositives ()
+     *
+     * @return the number of missing keys the Bloom filter did not rule out
+     */
+    public long getFilterFalsePositives() {
+        return filterFalsePositives.sum();
+    }
+
+    /**
+     * double getFilterExpectedFalsePositiveRate ()
+     *
+     * @return the estimated rate of false positives of the Bloom filter, -1 if
+     *      the bucket has not been opened yet
+     */
+    public double getFilterExpectedFalsePositiveRate() {
+        lock.readLock().lock();
+        try {
+            return filter == null ? -1 : filter.getExpectedFalsePositiveRate();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * long getFilterBytes ()
+     *
+     * @return the size of the Bloom filter in bytes, 0 if the bucket has not
+     *      been opened yet
+     */
+    public long getFilterBytes() {
+        lock.readLock().lock();
+        try {
+            return filter == null ? 0 : filter.getBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * void revalidate ()
+     *
+     * This method drops the resident state of the bucket if another instance
+     * has changed it. The versions of the snapshot and the log are compared
+     * with the ones seen last at most every revalidateInterval milliseconds;
+     * with a negative interval only conflicting writes reveal changes.
+     */
+    private void revalidate() {
+        boolean changed = stale;
+
+        if (!changed && opened && revalidateInterval >= 0
+                && System.currentTimeMillis() - validated >= revalidateInterval) {
+            validated = System.currentTimeMillis();
+            changed = isChanged();
+        }
+        if (!changed) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (opened && (stale || isChanged())) {
+                logger.info("Bucket " + fileName + " has been changed by another instance.");
+                invalidate();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * boolean isChanged ()
+     *
+     * @return a boolean true, if the snapshot or the log in the blob store
+     *      has another version than the bucket has seen last
+     */
+    private boolean isChanged() {
+        return !Objects.equals(blobStore.version(logName), logVersion)
+                || !Objects.equals(blobStore.version(fileName), snapshotVersion);
+    }
+
+    /**
+     * void reload (BlobStoreConflictException e)
+     *
+     * This method drops the resident state after a conflicting write, so the
+     * operation can be retried on the current content of the bucket.
+     *
+     * @param e - conflict of the write
+     */
+    private void reload(BlobStoreConflictException e) {
+        logger.info("Bucket " + fileName + " has been changed by another instance: " + e.getMessage());
+        invalidate();
+    }
+
+    /**
+     * void invalidate ()
+     *
+     * This method resets the bucket to its unopened state under the write
+     * lock. The next operation downloads the blobs which have changed and
+     * opens it again; buffered records are kept and applied on top.
+     * The keys in the key index stay until the bucket is loaded again, then
+     * they are replaced by the keys of the new content.
+     */
+    private void invalidate() {
+        if (keyIndex != null && loaded && indexedKeys == null) {
+            int[] keys = new int[hashTable.size()];
+            int[] count = {0};
+
+            hashTable.forEachKey(key -> keys[count[0]++] = key);
+            indexedKeys = keys;
+        }
+        hashTable.release();
+        hashTable = CloudStorageValueMap.create(valueStorage, 0);
+        snapshot = null;
+        logOverlay = null;
+        filter = null;
+        opened = false;
+        mapped = false;
+        loaded = false;
+        stale = false;
+    }
+
+    /**
+     * void readLockLoaded ()
+     *
+     * This method loads the bucket completely and takes the read lock. If the
+     * bucket is dropped by revalidate() before the lock is taken, it is
+     * loaded again.
+     */
+    private void readLockLoaded() {
+        while (true) {
+            prepareRead(true);
+            lock.readLock().lock();
+            if (loaded) {
+                return;
+            }
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * void addToFilter (int key)
+     *
+     * This method adds a new key to the Bloom filter. A resident bucket whose
+     * filter holds more keys than it was sized for gets a new filter from its
+     * hash map right away, otherwise the next checkpoint builds it.
+     *
+     * @param key - key which has been added to the hash map
+     */
+    private void addToFilter(int key) {
+        filter.put(key);
+        if (loaded && filter.isSaturated()) {
+            filter = buildFilter();
+        }
+    }
+
+    /**
+     * CloudStorageBucketFilter buildFilter ()
+     *
+     * @return a new Bloom filter of the keys of the resident hash map, with
+     *      room for the inserts until the next checkpoint
+     */
+    private CloudStorageBucketFilter buildFilter() {
+        CloudStorageBucketFilter built = CloudStorageBucketFilter.create(hashTable.size() + checkpointInterval);
+
+        hashTable.forEachKey(built::put);
+        return built;
+    }
+
+    /**
+     * void appendLog (byte[] records, int count)
+     *
+     * This method records changes of the hash map. In write-through mode the
+     * records are appended to the log immediately, in write-back mode they are
+     * buffered until the next flush.
+     * Once the log holds checkpointInterval records it is compacted.
+     *
+     * @param records - encoded log records
+     * @param count - number of records
+     *
+     * @throws BlobStoreConflictException if another instance has changed the
+     *      log, the records have not been written then
+     * @throws UncheckedIOException if the records could not be appended
+     */
+    private void appendLog(byte[] records, int count) {
+        if (writeMode == CloudStorageWriteMode.WRITE_THROUGH) {
+            if (logRecords + count >= checkpointInterval) {
+                checkpoint(records);
+            } else {
+                appendToLog(records);
+                logRecords += count;
+            }
+        } else {
+            pendingLog.write(records, 0, records.length);
+            pendingRecords += count;
+        }
+    }
+
+    /**
+     * void appendToLog (byte[] records)
+     *
+     * This method appends records to the log in the blob store, if the log
+     * still has the version the bucket has seen last.
+     *
+     * @param records - encoded log records
+     *
+     * @throws BlobStoreConflictException if another instance has changed the log
+     * @throws UncheckedIOException if the records could not be appended
+     */
+    private void appendToLog(byte[] records) {
+        String appended = blobStore.append(logName, records, logVersion);
+
+        if (appended == null) {
+            throw new UncheckedIOException(new IOException("Log of bucket " + fileName + " could not be appended."));
+        }
+        logVersion = appended;
+    }
+
+    /**
+     * void prepareRead (boolean resident)
+     *
+     * This method opens the bucket, or loads it completely if resident is
+     * true, under the write lock. Readers afterwards only need the read lock.
+     *
+     * @param resident - a boolean true, if the whole hash map is needed
+     */
+    private void prepareRead(boolean resident) {
+        if (loaded || (!resident && opened)) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            open();
+            if (resident || (snapshot != null && snapshot.isLegacy())) {
+                load();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * void prepareSnapshot ()
+     *
+     * This method downloads and maps the snapshot of an opened bucket under
+     * the write lock, if it is neither mapped nor loaded yet.
+     */
+    private void prepareSnapshot() {
+        if (loaded || mapped) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            map();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * void checkCovers (int key)
+     *
+     * @param key - key of the current operation
+     *
+     * @throws CloudStorageBucketMovedException if the key belongs into another bucket
+     */
+    private void checkCovers(int key) {
+        if (!covers(key)) {
+            throw new CloudStorageBucketMovedException(key);
+        }
+    }
+
+    /**
+     * boolean checkpoint (byte[] records)
+     *
+     * This method appends the given records to the log, uploads a snapshot of
+     * the whole hash map and deletes the log afterwards. If the process dies
+     * in between, the log is replayed on top of the new snapshot, which leads
+     * to the same hash map.
+     * The Bloom filter is built again from the hash map, which drops the keys
+     * deleted since the last checkpoint.
+     * Once the records are in the log, a conflict with another instance only
+     * skips the rest of the checkpoint, because the log still holds every
+     * change; the bucket is loaded again on the next operation.
+     *
+     * @param records - encoded log records which are not persisted yet
+     *
+     * @return a boolean true, if the snapshot was uploaded, else returns false
+     *
+     * @throws BlobStoreConflictException if another instance has changed the
+     *      log, the records have not been written then
+     * @throws UncheckedIOException if the records could not be appended
+     */
+    private boolean checkpoint(byte[] records) {
+        if (records.length > 0) {
+            appendToLog(records);
+            pendingLog.reset();
+            pendingRecords = 0;
+        }
+        filter = buildFilter();
+
+        try {
+            if (!write()) {
+                return false;
+            }
+        } catch (BlobStoreConflictException e) {
+            logger.info("Checkpoint of bucket " + fileName + " skipped: " + e.getMessage());
+            stale = true;
+            return false;
+        }
+        //The snapshot holds the buffered records as well
+        pendingLog.reset();
+        pendingRecords = 0;
+        try {
+            if (logVersion != null && blobStore.delete(logName, logVersion)) {
+                logVersion = null;
+            }
+        } catch (BlobStoreConflictException e) {
+            //The log is replayed on top of the new snapshot, which leads to the same hash map
+            logger.info("Log of bucket " + fileName + " kept: " + e.getMessage());
+            stale = true;
+        }
+        logRecords = 0;
+        logger.info("Checkpoint of bucket " + fileName + " written.");
+        return true;
+    }
+
+    /**
+     * void open ()
+     *
+     * This method downloads the Bloom filter and the log of the bucket once.
+     * The records of the log are replayed into a small overlay, in which
+     * deleted keys map to null, and their keys are added to the filter.
+     * The snapshot is downloaded later by map(), when the first lookup passes
+     * the filter. Without a stored filter of the current snapshot, e.g. for a
+     * bucket written by an older version or when the process died between
+     * both uploads, the snapshot is mapped right away and the filter is built
+     * from its keys.
+     * Local copies whose blob has not changed are not downloaded again.
+     * If the log or the snapshot cannot be read, the bucket stays unopened.
+     *
+     * @throws UncheckedIOException if the bucket could not be read
+     */
+    private void open() {
+        if (opened) {
+            return;
+        }
+        logOverlay = new HashMap<>();
+        snapshotVersion = blobStore.version(fileName);
+        filter = readFilter();
+
+        if (filter == null) {
+            map();
+            filter = CloudStorageBucketFilter.create(
+                    (snapshot == null ? 0 : Math.max(0, snapshot.size())) + checkpointInterval);
+            if (snapshot != null) {
+                try {
+                    snapshot.forEachKey(filter::put);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        logFileVersion = blobStore.download(logFile, logFileVersion);
+        if (logFileVersion == null && blobStore.exists(logName)) {
+            throw new UncheckedIOException(new IOException("Log of bucket " + fileName + " could not be downloaded."));
+        }
+        logVersion = logFileVersion;
+        logRecords = 0;
+
+        CloudStorageBucketLog.Replay overlay = new CloudStorageBucketLog.Replay() {
+            @Override
+            public void insert(int key, String value) {
+                logOverlay.put(key, value);
+                filter.put(key);
+            }
+
+            @Override
+            public void delete(int key) {
+                logOverlay.put(key, null);
+            }
+        };
+        if (logFileVersion != null) {
+            logRecords = CloudStorageBucketLog.replay(logFile, overlay);
+            logger.info(logRecords + " log records of bucket " + fileName + " replayed.");
+        }
+        if (pendingRecords > 0) {
+            //Buffered changes of write-back mode stay on top of the state of the blob store
+            CloudStorageBucketLog.replay(pendingLog.toByteArray(), overlay);
+        }
+        validated = System.currentTimeMillis();
+        opened = true;
+    }
+
+    /**
+     * void map ()
+     *
+     * This method downloads the snapshot of the bucket once and maps it into
+     * memory. If it is not the snapshot open() has seen, another instance has
+     * written a checkpoint in between and the bucket is marked as stale.
+     *
+     * @throws UncheckedIOException if the snapshot exists but could not be read
+     */
+    private void map() {
+        if (mapped || loaded) {
+            return;
+        }
+        snapshot = null;
+        mappedVersion = blobStore.download(mappedFile, mappedVersion);
+
+        if (mappedVersion != null) {
+            try {
+                snapshot = CloudStorageBucketFile.open(mappedFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if (snapshotVersion != null) {
+            throw new UncheckedIOException(new IOException("Snapshot of bucket " + fileName + " could not be downloaded."));
+        } else {
+            logger.info("Bucket " + fileName + " does not exist yet.");
+        }
+        if (!Objects.equals(mappedVersion, snapshotVersion)) {
+            stale = true;
+        }
+        mapped = true;
+    }
+
+    /**
+     * CloudStorageBucketFilter readFilter ()
+     *
+     * @return the stored Bloom filter of the current snapshot, null if there
+     *      is none
+     */
+    private CloudStorageBucketFilter readFilter() {
+        filterFileVersion = blobStore.download(filterFile, filterFileVersion);
+        if (filterFileVersion == null) {
+            return null;
+        }
+        try {
+            CloudStorageBucketFilter stored = CloudStorageBucketFilter.read(filterFile);
+
+            if (!Objects.equals(stored.getSnapshotVersion(), snapshotVersion)) {
+                logger.info("Filter of bucket " + fileName + " belongs to another snapshot and is ignored.");
+                return null;
+            }
+            return stored;
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.warning("Filter of bucket " + fileName + " is ignored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * void load ()
+     *
+     * This method decodes the snapshot and applies the log on first access.
+     * Afterwards the resident hash map is used. A snapshot in the old
+     * serialized format is rewritten in the binary format right away.
+     * If the snapshot cannot be read, the bucket is not marked as loaded, so a
+     * later checkpoint never replaces the snapshot with an incomplete map.
+     * Pairs which the bucket does not cover any more are dropped; they are
+     * left over when the snapshot was not rewritten after a split.
+     *
+     * @throws UncheckedIOException if the bucket could not be read
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        open();
+        map();
+
+        boolean legacy = snapshot != null && snapshot.isLegacy();
+        if (snapshot != null) {
+            CloudStorageValueMap entries = CloudStorageValueMap.create(valueStorage, Math.max(0, snapshot.size()));
+
+            try {
+                snapshot.readInto(entries);
+            } catch (IOException e) {
+                entries.release();
+                throw new UncheckedIOException(e);
+            }
+            hashTable.release();
+            hashTable = entries;
+        }
+        logOverlay.forEach((key, value) -> {
+            if (value == null) {
+                hashTable.remove(key);
+            } else {
+                hashTable.put(key, value);
+            }
+        });
+        //Pairs moved by a split whose checkpoint of this bucket failed belong to the sibling
+        List<Integer> moved = new ArrayList<>();
+        hashTable.forEachKey(key -> {
+            if (!covers(key)) {
+                moved.add(key);
+            }
+        });
+        moved.forEach(hashTable::remove);
+        snapshot = null;
+        logOverlay = null;
+        loaded = true;
+
+        if (keyIndex != null && indexedKeys != null) {
+            //Reloaded after another instance changed the bucket, its keys in the index are outdated
+            for (int key : indexedKeys) {
+                if (!hashTable.containsKey(key)) {
+                    keyIndex.remove(key);
+                }
+            }
+            hashTable.forEachKey(keyIndex::add);
+            indexedKeys = null;
+        }
+
+        if (legacy) {
+            logger.info("Migrating bucket " + fileName + " to the binary format.");
+            checkpoint(new byte[0]);
         }
     }
 
     /**
-     * void read ()
+     * boolean write ()
      *
-     * This method creates a empty file if not already existing.
-     * Downloads a file from the Azure FileStorage, overrides the current ones
-     * and read the content of the file and put it into the hash map.
+     * This method writes the hash map as binary snapshot and the Bloom filter
+     * into local files and uploads them to the blob store. The snapshot is
+     * only uploaded if it has not been replaced since it was read. The filter
+     * follows with the version of the new snapshot: if the process dies in
+     * between, the stored filter does not match the snapshot and the next
+     * open builds it from the snapshot. The same happens if the filter cannot
+     * be written, then the stored one is removed.
+     *
+     * @return a boolean true, if the snapshot was uploaded, else returns false
+     *
+     * @throws BlobStoreConflictException if another instance has replaced the snapshot
      */
-    private void read() {
-        ObjectInputStream ois = null;
+    private boolean write(){
+        String written;
 
         try {
-            file.createNewFile();
+            CloudStorageBucketFile.write(file, hashTable);
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
+        }
+        written = blobStore.upload(file, snapshotVersion);
+        if (written == null) {
+            return false;
         }
+        snapshotVersion = written;
 
-        try{
-            azureStorage.downloadBucket(file);
-            ois = new ObjectInputStream(new FileInputStream(file));
-            hashTable = (HashMap) ois.readObject();
-        } catch (EOFException e) {
-            //Do nothing, this Exception just tells that he has read all the file
-        } catch (IOException | ClassNotFoundException e) {
+        try {
+            filter.write(filterFile, snapshotVersion);
+            filterFileVersion = null;
+            blobStore.upload(filterFile);
+        } catch (IOException e) {
             e.printStackTrace();
+            blobStore.delete(filterFile.getName());
         }
+        return true;
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * class CloudStorageBucketEngine
+ *
+ * This class is the CloudStorageEngine on top of the CloudStorageHashDirectory,
+ * whose buckets are persisted in the blob store.
+ */
+public class CloudStorageBucketEngine implements CloudStorageEngine {
+
+    private final CloudStorageHashDirectory hashDirectory;
+
+    CloudStorageBucketEngine(CloudStorageHashDirectory hashDirectory) {
+        this.hashDirectory = hashDirectory;
+    }
+
+    @Override
+    public boolean insert(int key, String value) {
+        MyKeyValue myKeyValue = new MyKeyValue();
+        myKeyValue.setKey(key);
+        myKeyValue.setValue(value);
+
+        return hashDirectory.add(myKeyValue);
+    }
+
+    @Override
+    public boolean put(int key, String value) {
+        MyKeyValue myKeyValue = new MyKeyValue();
+        myKeyValue.setKey(key);
+        myKeyValue.setValue(value);
+
+        return hashDirectory.put(myKeyValue);
+    }
+
+    @Override
+    public boolean delete(int key) {
+        return hashDirectory.remove(key);
+    }
+
+    @Override
+    public String get(int key) {
+        MyKeyValue myKeyValue = hashDirectory.getKeyValuePair(key);
+
+        return myKeyValue == null ? null : myKeyValue.getValue();
+    }
+
+    @Override
+    public Iterable<Integer> range(int fromKey, int toKey) {
+        return hashDirectory.getKeys(fromKey, toKey);
+    }
+
+    /**
+     * void scan (EntryVisitor visitor)
+     *
+     * Visits the pairs bucket by bucket, only the snapshot of the bucket being
+     * visited is held in memory.
+     */
+    @Override
+    public void scan(EntryVisitor visitor) throws IOException {
+        hashDirectory.forEachBucket((bucketNumber, entries) ->
+                entries.forEachEntry((key, value) -> visitor.visit(bucketNumber, key, value)));
+    }
+
+    /**
+     * void scan (int bucketNumber, EntryVisitor visitor)
+     *
+     * Only the given bucket is loaded.
+     */
+    @Override
+    public void scan(int bucketNumber, EntryVisitor visitor) throws IOException {
+        hashDirectory.visitBucket(bucketNumber, (number, entries) ->
+                entries.forEachEntry((key, value) -> visitor.visit(number, key, value)));
+    }
+
+    @Override
+    public int getBucketNumber(int key) {
+        return hashDirectory.getBucketNumber(key);
+    }
+
+    /**
+     * void apply (List<CloudStorageOperation> operations)
+     *
+     * Lets the hash directory group the operations by bucket, so every bucket
+     * is loaded and persisted only once per batch.
+     */
+    @Override
+    public void apply(List<CloudStorageOperation> operations) {
+        hashDirectory.apply(operations);
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        return hashDirectory.getFilterMetrics();
+    }
+
+    @Override
+    public void close() {
+        hashDirectory.flushAll();
+    }
+}
@@ -0,0 +1,262 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * class CloudStorageBucketFile
+ *
+ * This class reads and writes the snapshot of a bucket in a compact binary
+ * format:
+ *
+ *   int magic | int version | int count
+ *   count x (int key | int offset)     sorted by key
+ *   count x (int length | UTF-8 value) referenced by offset
+ *
+ * Because the offset table is sorted, a single value can be found with a
+ * binary search on the memory-mapped file without decoding the others.
+ * Snapshots written by older versions as serialized HashMap are still
+ * readable, see isLegacy().
+ */
+public class CloudStorageBucketFile {
+
+    private static final int MAGIC = 0x43534246;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 8;
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private CloudStorageBucketFile(File file, ByteBuffer buffer, int count){
+        this.file = file;
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    /**
+     * CloudStorageBucketFile open (File file)
+     *
+     * Maps the given snapshot into memory. For an old serialized snapshot
+     * nothing is mapped and isLegacy() returns true.
+     *
+     * @param file - local copy of the snapshot
+     *
+     * @return the opened snapshot
+     */
+    public static CloudStorageBucketFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() >= 2 && isSerialized(channel)) {
+                return new CloudStorageBucketFile(file, null, -1);
+            }
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Bucket file " + file.getName() + " is truncated.");
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Bucket file " + file.getName() + " has an unknown format.");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Bucket file " + file.getName() + " has unsupported version " + buffer.getInt(4) + ".");
+            }
+            return new CloudStorageBucketFile(file, buffer, buffer.getInt(8));
+        }
+    }
+
+    /**
+     * void write (File file, Map<Integer, String> entries)
+     *
+     * Writes the given entries as snapshot into the file.
+     *
+     * @param file - target file, it is overwritten
+     * @param entries - key/value pairs of the bucket
+     */
+    public static void write(File file, Map<Integer, String> entries) throws IOException {
+        CloudStorageValueMap values = new CloudStorageHeapValueMap(entries.size());
+
+        entries.forEach(values::put);
+        write(file, values);
+    }
+
+    /**
+     * void write (File file, CloudStorageValueMap entries)
+     *
+     * Writes the resident key/value pairs of a bucket as snapshot into the
+     * file. The values are copied as UTF-8 bytes.
+     *
+     * @param file - target file, it is overwritten
+     * @param entries - key/value pairs of the bucket
+     */
+    public static void write(File file, CloudStorageValueMap entries) throws IOException {
+        int[] keys = new int[entries.size()];
+        int[] index = new int[1];
+        entries.forEachKey(key -> keys[index[0]++] = key);
+        Arrays.sort(keys);
+
+        byte[][] values = new byte[keys.length][];
+        int offset = HEADER_SIZE + keys.length * ENTRY_SIZE;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.length);
+
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = entries.getBytes(keys[i]);
+                out.writeInt(keys[i]);
+                out.writeInt(offset);
+                offset += 4 + values[i].length;
+            }
+            for (byte[] value : values) {
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+    }
+
+    /**
+     * boolean isLegacy ()
+     *
+     * @return a boolean true, if the file is a serialized HashMap written by
+     *      an older version and has to be read with readAll()
+     */
+    public boolean isLegacy(){
+        return buffer == null;
+    }
+
+    /**
+     * int size ()
+     *
+     * @return the number of key/value pairs, -1 for legacy files
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * String lookup (int key)
+     *
+     * Searches the key in the offset table and decodes only its value.
+     *
+     * @param key - key of the wanted value
+     *
+     * @return the value or null if the key is not in the snapshot
+     */
+    public String lookup(int key){
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleKey = buffer.getInt(HEADER_SIZE + middle * ENTRY_SIZE);
+
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return value(middle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * CloudStorageIntMap<String> readAll ()
+     *
+     * Decodes every key/value pair of the snapshot.
+     *
+     * @return the key/value pairs in a new CloudStorageIntMap
+     */
+    @SuppressWarnings("unchecked")
+    public CloudStorageIntMap<String> readAll() throws IOException {
+        if (isLegacy()) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                HashMap<Integer, String> legacy = (HashMap<Integer, String>) ois.readObject();
+                CloudStorageIntMap<String> entries = new CloudStorageIntMap<>(legacy.size());
+
+                entries.putAll(legacy);
+                return entries;
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+
+        CloudStorageIntMap<String> entries = new CloudStorageIntMap<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.put(buffer.getInt(HEADER_SIZE + i * ENTRY_SIZE), value(i));
+        }
+        return entries;
+    }
+
+    /**
+     * void readInto (CloudStorageValueMap entries)
+     *
+     * Decodes every key/value pair of the snapshot into the given map.
+     *
+     * @param entries - map which receives the key/value pairs
+     */
+    public void readInto(CloudStorageValueMap entries) throws IOException {
+        if (isLegacy()) {
+            readAll().forEachEntry(entries::put);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            entries.put(buffer.getInt(HEADER_SIZE + i * ENTRY_SIZE), value(i));
+        }
+    }
+
+    /**
+     * void forEachKey (IntConsumer action)
+     *
+     * Reads only the keys from the offset table, the values are not decoded.
+     *
+     * @param action - called with every key of the snapshot
+     */
+    public void forEachKey(IntConsumer action) throws IOException {
+        if (isLegacy()) {
+            readAll().forEachEntry((key, value) -> action.accept(key));
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            action.accept(buffer.getInt(HEADER_SIZE + i * ENTRY_SIZE));
+        }
+    }
+
+    /**
+     * String value (int index)
+     *
+     * @param index - position of the entry in the offset table
+     *
+     * @return the decoded value of the entry
+     */
+    private String value(int index){
+        int offset = buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 4);
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer view = buffer.duplicate();
+
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * boolean isSerialized (FileChannel channel)
+     *
+     * @return a boolean true, if the channel starts with the Java serialization magic
+     */
+    private static boolean isSerialized(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(2);
+
+        channel.read(head, 0);
+        return (head.getShort(0) & 0xFFFF) == SERIALIZATION_MAGIC;
+    }
+}
@@ -0,0 +1,219 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+
+/**
+ * class CloudStorageBucketFilter
+ *
+ * This class is the Bloom filter of the keys of a bucket. If it does not
+ * contain a key, the key is not in the bucket and the lookup is answered
+ * without reading the snapshot. A key it contains may still be missing with
+ * a probability of about FALSE_POSITIVE_RATE.
+ * A deleted key stays in the filter, so deletes only raise the rate of false
+ * positives until the filter is built again from the keys of the bucket at the
+ * next checkpoint. The filter is stored next to the snapshot in this format:
+ *
+ *   int magic | int version | UTF snapshot version | int hashes | int capacity | int count | int words | words x long
+ *
+ * The snapshot version is the blob version of the snapshot the filter was
+ * built for. A filter whose snapshot has been replaced since, e.g. by another
+ * instance sharing the blob store, is not used.
+ *
+ * The key is mixed with the finalizer of MurmurHash3 and the positions are
+ * derived by double hashing from the two halves of the result.
+ * The filter is not thread safe, the bucket guards it with its lock.
+ */
+public class CloudStorageBucketFilter {
+
+    public static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MAGIC = 0x4353424C;
+    private static final int VERSION = 2;
+    private static final int MIN_CAPACITY = 64;
+
+    private final long[] words;
+    private final int hashes;
+    private final int capacity;
+    private int count;
+    private String snapshotVersion;
+
+    private CloudStorageBucketFilter(long[] words, int hashes, int capacity, int count){
+        this.words = words;
+        this.hashes = hashes;
+        this.capacity = capacity;
+        this.count = count;
+    }
+
+    /**
+     * CloudStorageBucketFilter create (int capacity)
+     *
+     * Sizes an empty filter so that it keeps FALSE_POSITIVE_RATE with the
+     * given number of keys.
+     *
+     * @param capacity - expected number of keys
+     *
+     * @return the empty filter
+     */
+    public static CloudStorageBucketFilter create(int capacity){
+        int keys = Math.max(MIN_CAPACITY, capacity);
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-keys * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+        int hashes = Math.max(1, (int) Math.round((double) bits / keys * ln2));
+
+        return new CloudStorageBucketFilter(new long[(int) ((bits + 63) / 64)], hashes, keys, 0);
+    }
+
+    /**
+     * CloudStorageBucketFilter read (File file)
+     *
+     * @param file - local copy of a stored filter
+     *
+     * @return the filter
+     *
+     * @throws IOException if the file cannot be read or has an unknown format
+     */
+    public static CloudStorageBucketFilter read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Filter file " + file.getName() + " has an unknown format.");
+            }
+            if (in.readInt() != VERSION) {
+                throw new IOException("Filter file " + file.getName() + " has an unsupported version.");
+            }
+            String snapshotVersion = in.readUTF();
+            int hashes = in.readInt();
+            int capacity = in.readInt();
+            int count = in.readInt();
+            long[] words = new long[in.readInt()];
+
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            if (hashes < 1 || words.length == 0) {
+                throw new IOException("Filter file " + file.getName() + " is corrupt.");
+            }
+            CloudStorageBucketFilter filter = new CloudStorageBucketFilter(words, hashes, capacity, count);
+
+            filter.snapshotVersion = snapshotVersion.isEmpty() ? null : snapshotVersion;
+            return filter;
+        }
+    }
+
+    /**
+     * void write (File file, String snapshotVersion)
+     *
+     * @param file - target file, it is overwritten
+     * @param snapshotVersion - blob version of the snapshot the filter belongs to,
+     *      null if there is no snapshot
+     */
+    public void write(File file, String snapshotVersion) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(snapshotVersion == null ? "" : snapshotVersion);
+            out.writeInt(hashes);
+            out.writeInt(capacity);
+            out.writeInt(count);
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * void put (int key)
+     *
+     * @param key - key which has been added to the bucket
+     */
+    public void put(int key){
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = words.length * 64L;
+
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    /**
+     * boolean mightContain (int key)
+     *
+     * @param key - key of a lookup
+     *
+     * @return a boolean false, if the key is certainly not in the bucket
+     */
+    public boolean mightContain(int key){
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = words.length * 64L;
+
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * boolean isSaturated ()
+     *
+     * @return a boolean true, if more keys have been added than the filter was
+     *      sized for, so its rate of false positives is above FALSE_POSITIVE_RATE
+     */
+    public boolean isSaturated(){
+        return count > capacity;
+    }
+
+    /**
+     * double getExpectedFalsePositiveRate ()
+     *
+     * @return the probability of a false positive estimated from the share of
+     *      set bits, which includes the bits of deleted keys
+     */
+    public double getExpectedFalsePositiveRate(){
+        long set = 0;
+
+        for (long word : words) {
+            set += Long.bitCount(word);
+        }
+        return Math.pow((double) set / (words.length * 64L), hashes);
+    }
+
+    /**
+     * String getSnapshotVersion ()
+     *
+     * @return the blob version of the snapshot the filter was written with,
+     *      null if it has not been read from a file or there was no snapshot
+     */
+    public String getSnapshotVersion(){
+        return snapshotVersion;
+    }
+
+    /**
+     * long getBytes ()
+     *
+     * @return the size of the bit array in bytes
+     */
+    public long getBytes(){
+        return words.length * 8L;
+    }
+
+    private static long mix(int key){
+        long hash = key;
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,248 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.logging.*;
+import java.util.zip.*;
+
+/**
+ * class CloudStorageBucketLog
+ *
+ * This class encodes and replays the write-ahead log of a bucket. Every
+ * insert and delete is appended to the log as one record:
+ *
+ *   byte type | int key | int length | UTF-8 value | int CRC32
+ *
+ * Deletes have an empty value. The checksum covers all previous fields, so a
+ * record which was only partially written is detected and ignored on replay.
+ * Replay continues with the next valid record behind a corrupt range, e.g.
+ * the first blocks of an append which failed before its last block was
+ * written.
+ */
+public class CloudStorageBucketLog {
+
+    private final static Logger logger = Logger.getLogger(CloudStorageBucketLog.class.getName());
+    private static final byte INSERT = 'I';
+    private static final byte DELETE = 'D';
+    private static final int HEADER_BYTES = 9;
+    private static final int RECORD_OVERHEAD = HEADER_BYTES + 4;
+
+    private CloudStorageBucketLog(){
+    }
+
+    /**
+     * interface Replay
+     *
+     * Receives the records of a log in the order they were written.
+     */
+    public interface Replay {
+        void insert(int key, String value);
+
+        void delete(int key);
+    }
+
+    /**
+     * byte[] insertRecord (int key, String value)
+     *
+     * @param key - key of the inserted pair
+     * @param value - value of the inserted pair
+     *
+     * @return the encoded insert record
+     */
+    public static byte[] insertRecord(int key, String value){
+        return record(INSERT, key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * byte[] deleteRecord (int key)
+     *
+     * @param key - key of the deleted pair
+     *
+     * @return the encoded delete record
+     */
+    public static byte[] deleteRecord(int key){
+        return record(DELETE, key, new byte[0]);
+    }
+
+    /**
+     * int replay (File log, Replay replay)
+     *
+     * Reads the records of the given log file and passes them to replay.
+     * Corrupt ranges are skipped, reading stops at an incomplete last record.
+     *
+     * @param log - local copy of the log
+     * @param replay - receiver of the records
+     *
+     * @return the number of replayed records
+     */
+    public static int replay(File log, Replay replay){
+        try (InputStream in = new FileInputStream(log)) {
+            return replay(in, log.getName(), replay);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * int replay (byte[] records, Replay replay)
+     *
+     * Passes encoded records which have not been written to a log yet to
+     * replay, e.g. the buffered records of a bucket in write-back mode.
+     *
+     * @param records - encoded log records
+     * @param replay - receiver of the records
+     *
+     * @return the number of replayed records
+     */
+    public static int replay(byte[] records, Replay replay){
+        return replay(new ByteArrayInputStream(records), "buffered records", replay);
+    }
+
+    /**
+     * int replay (InputStream log, String name, Replay replay)
+     *
+     * @param log - stream of encoded records
+     * @param name - name of the log for messages
+     * @param replay - receiver of the records
+     *
+     * @return the number of replayed records
+     */
+    private static int replay(InputStream log, String name, Replay replay){
+        byte[] bytes;
+
+        try (InputStream in = log) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            bytes = buffer.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int records = 0;
+        int position = 0;
+
+        while (bytes.length - position >= RECORD_OVERHEAD) {
+            int end = recordEnd(buffer, position);
+
+            if (end < 0) {
+                int next = resync(buffer, position + 1);
+
+                if (next < 0) {
+                    //Do nothing, a torn last record has been reached
+                    break;
+                }
+                logger.warning("Corrupt range of " + (next - position) + " bytes in " + name + " after "
+                        + records + " records skipped.");
+                position = next;
+                continue;
+            }
+
+            int key = buffer.getInt(position + 1);
+            int length = buffer.getInt(position + 5);
+            if (bytes[position] == INSERT) {
+                replay.insert(key, new String(bytes, position + HEADER_BYTES, length, StandardCharsets.UTF_8));
+            } else {
+                replay.delete(key);
+            }
+            records++;
+            position = end;
+        }
+        return records;
+    }
+
+    /**
+     * int resync (ByteBuffer log, int from)
+     *
+     * @param log - encoded records
+     * @param from - first position which is tried
+     *
+     * @return the position of the next valid record, -1 if there is none
+     */
+    private static int resync(ByteBuffer log, int from){
+        for (int position = from; log.limit() - position >= RECORD_OVERHEAD; position++) {
+            if (recordEnd(log, position) >= 0) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * int recordEnd (ByteBuffer log, int position)
+     *
+     * @param log - encoded records
+     * @param position - position of a record
+     *
+     * @return the position behind the record, -1 if no complete record with a
+     *      known type and a matching checksum starts at the position
+     */
+    private static int recordEnd(ByteBuffer log, int position){
+        byte type = log.get(position);
+        int length = log.getInt(position + 5);
+
+        if ((type != INSERT && type != DELETE) || length < 0
+                || length > log.limit() - position - RECORD_OVERHEAD) {
+            return -1;
+        }
+        int checksumPosition = position + HEADER_BYTES + length;
+        CRC32 crc = new CRC32();
+
+        crc.update(log.array(), position, HEADER_BYTES);
+        crc.update(log.array(), position + HEADER_BYTES, length);
+        if (log.getInt(checksumPosition) != (int) crc.getValue()) {
+            return -1;
+        }
+        return checksumPosition + 4;
+    }
+
+    /**
+     * byte[] record (byte type, int key, byte[] value)
+     *
+     * @return the encoded record including its checksum
+     */
+    private static byte[] record(byte type, int key, byte[] value){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(13 + value.length);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeInt(key);
+            out.writeInt(value.length);
+            out.write(value);
+            out.writeInt(checksum(type, key, value));
+        } catch (IOException e) {
+            //Cannot happen, the stream writes into memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * int checksum (byte type, int key, byte[] value)
+     *
+     * @return the CRC32 of the record fields
+     */
+    private static int checksum(byte type, int key, byte[] value){
+        CRC32 crc = new CRC32();
+
+        crc.update(type);
+        crc.update(key >>> 24);
+        crc.update(key >>> 16);
+        crc.update(key >>> 8);
+        crc.update(key);
+        crc.update(value.length >>> 24);
+        crc.update(value.length >>> 16);
+        crc.update(value.length >>> 8);
+        crc.update(value.length);
+        crc.update(value);
+        return (int) crc.getValue();
+    }
+}
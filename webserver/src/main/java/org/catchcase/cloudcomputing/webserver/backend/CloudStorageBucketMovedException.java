@@ -0,0 +1,18 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * class CloudStorageBucketMovedException
+ *
+ * This exception is thrown by a bucket operation if the key no longer
+ * belongs to the bucket, because the bucket has been split while the
+ * operation was waiting for the lock. The hash directory catches it and
+ * routes the operation again.
+ */
+class CloudStorageBucketMovedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    CloudStorageBucketMovedException(int key){
+        super("Key " + key + " has been moved to another bucket.", null, false, false);
+    }
+}
@@ -0,0 +1,693 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import com.fasterxml.jackson.core.*;
+import org.springframework.http.*;
+import org.springframework.http.client.*;
+import org.springframework.web.client.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/**
+ * class CloudStorageClusterEngine
+ *
+ * This class is the CloudStorageEngine of a node in cluster mode. The keys are
+ * assigned to the nodes by a CloudStorageHashRing. Every key is stored on the
+ * first N distinct nodes clockwise from its hash, its preference list. Each of
+ * them keeps a versioned copy in a CloudStorageReplica, copies of other nodes
+ * are read and written over HTTP through the internal endpoints (see
+ * ClusterController). A forwarded request carries the X-CloudStorage-Forwarded
+ * header and is always served by the replica of the receiving node, so a
+ * request is forwarded at most once even if two nodes disagree about the ring.
+ * A read asks R replicas, the node itself first if it is one of them, and
+ * returns the copy with the highest version. Replicas that answered with an
+ * older copy are repaired in the background. A write is sent to all N
+ * replicas and acknowledged as soon as W of them stored it. With R + W > N a
+ * read always sees the last acknowledged write, with R = 1 every replica can
+ * serve reads on its own.
+ * Range queries and scans fan out to all nodes. The keys of a range are
+ * fetched in pages from every node, the first pages in parallel, and merged
+ * into one ascending sequence without duplicates. A scan visits every key on
+ * the first node of its preference list which can be reached, so the keys of
+ * an unreachable node are taken from their next replica.
+ * Every forwarded request also carries the shared secret of the cluster in
+ * the X-CloudStorage-Secret header, the internal endpoints reject requests
+ * without it. A copy whose version is more than MAX_VERSION_AHEAD
+ * milliseconds ahead of the clock of this node is rejected, it would win
+ * against every later write. Tombstones are removed once they are older
+ * than the grace period. A replica which has missed the delete and is not
+ * repaired within the grace period can bring the value back.
+ */
+public class CloudStorageClusterEngine implements CloudStorageEngine {
+
+    public static final String FORWARDED_HEADER = "X-CloudStorage-Forwarded";
+    public static final String SECRET_HEADER = "X-CloudStorage-Secret";
+
+    private final static Logger logger = Logger.getLogger(CloudStorageClusterEngine.class.getName());
+    private static final int KEY_PAGE_SIZE = 1000;
+    private static final long MAX_VERSION_AHEAD = TimeUnit.MINUTES.toMillis(1);
+    private static final long TOMBSTONE_COLLECTION_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private final CloudStorageReplica replica;
+    private final CloudStorageHashRing ring;
+    private final String self;
+    private final String secret;
+    private final long tombstoneGrace;
+    private final int replicas;
+    private final int readQuorum;
+    private final int writeQuorum;
+    private final RestTemplate rest;
+    private final ExecutorService fanOut;
+    private final ScheduledExecutorService collector;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    /**
+     * @param local - engine of the copies this node holds
+     * @param ring - assignment of the keys to the nodes
+     * @param self - base URL of this node as it appears in the ring
+     * @param secret - shared secret of the nodes of the cluster
+     * @param tombstoneGrace - milliseconds a tombstone is kept
+     * @param timeout - connect and read timeout of forwarded requests in milliseconds
+     * @param replicas - number N of nodes which hold a key
+     * @param readQuorum - number R of replicas which have to answer a read
+     * @param writeQuorum - number W of replicas which have to store a write
+     */
+    CloudStorageClusterEngine(CloudStorageEngine local, CloudStorageHashRing ring, String self, String secret,
+                              long tombstoneGrace, int timeout, int replicas, int readQuorum, int writeQuorum) {
+        this(local, ring, self, secret, tombstoneGrace, requestFactory(timeout), replicas, readQuorum, writeQuorum);
+    }
+
+    /**
+     * @param requestFactory - connections to the other nodes
+     */
+    CloudStorageClusterEngine(CloudStorageEngine local, CloudStorageHashRing ring, String self, String secret,
+                              long tombstoneGrace, ClientHttpRequestFactory requestFactory, int replicas,
+                              int readQuorum, int writeQuorum) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("The cluster secret must not be empty.");
+        }
+        this.replica = new CloudStorageReplica(local);
+        this.ring = ring;
+        this.self = self;
+        this.secret = secret;
+        this.tombstoneGrace = tombstoneGrace;
+        this.replicas = Math.max(1, replicas);
+        this.readQuorum = Math.max(1, Math.min(readQuorum, this.replicas));
+        this.writeQuorum = Math.max(1, Math.min(writeQuorum, this.replicas));
+        this.rest = new RestTemplate(requestFactory);
+        this.fanOut = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.collector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-tombstones");
+            thread.setDaemon(true);
+            return thread;
+        });
+        collector.scheduleWithFixedDelay(this::collectTombstones,
+                TOMBSTONE_COLLECTION_INTERVAL, TOMBSTONE_COLLECTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * boolean insert (int key, String value)
+     *
+     * Fails if a quorum read finds the key. Two nodes inserting the same key
+     * at the same time may both succeed, the later version wins.
+     */
+    @Override
+    public boolean insert(int key, String value) {
+        CloudStorageVersioned latest = readQuorum(key);
+
+        if (latest != null && latest.getValue() != null) {
+            return false;
+        }
+        writeQuorum(key, new CloudStorageVersioned(nextVersion(latest), value));
+        return true;
+    }
+
+    /**
+     * boolean delete (int key)
+     *
+     * Writes a copy without value, so replicas which still hold the key lose
+     * it at their next repair.
+     */
+    @Override
+    public boolean delete(int key) {
+        CloudStorageVersioned latest = readQuorum(key);
+
+        if (latest == null || latest.getValue() == null) {
+            return false;
+        }
+        writeQuorum(key, new CloudStorageVersioned(nextVersion(latest), null));
+        return true;
+    }
+
+    @Override
+    public String get(int key) {
+        CloudStorageVersioned latest = readQuorum(key);
+
+        return latest != null ? latest.getValue() : null;
+    }
+
+    /**
+     * int getBucketNumber (int key)
+     *
+     * Asks the replicas in the order of the preference list, the first one
+     * which answers wins.
+     */
+    @Override
+    public int getBucketNumber(int key) {
+        RuntimeException failure = null;
+
+        for (String node : ring.getNodes(key, replicas)) {
+            if (isSelf(node)) {
+                return replica.getBucketNumber(key);
+            }
+            try {
+                return forward(node, HttpMethod.GET, "/internal/replica/" + key + "/bucket", null, Integer.class);
+            } catch (RestClientException e) {
+                failure = e;
+            }
+        }
+        throw failure != null ? failure : new IllegalStateException("No replica for key " + key + ".");
+    }
+
+    /**
+     * Iterable<Integer> range (int fromKey, int toKey)
+     *
+     * Merges the keys of all nodes. Every iteration fetches the first page of
+     * every remote node in parallel, further pages are fetched when needed.
+     * A key held by several replicas is returned once. Up to N - 1 nodes which
+     * cannot be reached for the first page are skipped.
+     */
+    @Override
+    public Iterable<Integer> range(int fromKey, int toKey) {
+        return () -> {
+            List<Iterator<Integer>> sources = new ArrayList<>();
+            Map<Iterator<Integer>, Future<?>> prefetches = new LinkedHashMap<>();
+            int unreachable = 0;
+
+            for (String node : ring.getNodes()) {
+                if (isSelf(node)) {
+                    sources.add(replica.range(fromKey, toKey).iterator());
+                } else {
+                    RemoteKeyIterator remote = new RemoteKeyIterator(node, fromKey, toKey);
+
+                    prefetches.put(remote, fanOut.submit(remote::hasNext));
+                }
+            }
+            for (Map.Entry<Iterator<Integer>, Future<?>> prefetch : prefetches.entrySet()) {
+                try {
+                    await(prefetch.getValue());
+                    sources.add(prefetch.getKey());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } catch (RestClientException e) {
+                    if (++unreachable >= replicas) {
+                        throw e;
+                    }
+                    logger.warning("Range skips an unreachable node, its keys are read from other replicas: "
+                            + e.getMessage());
+                }
+            }
+            return new MergeIterator(sources);
+        };
+    }
+
+    /**
+     * void scan (EntryVisitor visitor)
+     *
+     * Checks which nodes can be reached, all in parallel. Then it visits the
+     * pairs this node is the first reachable replica of, and streams those of
+     * every other reachable node. Up to N - 1 unreachable nodes are skipped.
+     */
+    @Override
+    public void scan(EntryVisitor visitor) throws IOException {
+        Map<String, Future<?>> pings = new LinkedHashMap<>();
+        Set<String> down = new LinkedHashSet<>();
+
+        for (String node : ring.getNodes()) {
+            if (!isSelf(node)) {
+                pings.put(node, fanOut.submit(() -> forward(node, HttpMethod.GET, "/internal/ping", null, Boolean.class)));
+            }
+        }
+        for (Map.Entry<String, Future<?>> ping : pings.entrySet()) {
+            try {
+                await(ping.getValue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Scan interrupted.");
+            } catch (RestClientException e) {
+                down.add(ping.getKey());
+                if (down.size() >= replicas) {
+                    throw e;
+                }
+                logger.warning("Scan skips an unreachable node, its keys are read from other replicas: "
+                        + e.getMessage());
+            }
+        }
+
+        String skipped = String.join(",", down);
+        for (String node : ring.getNodes()) {
+            if (isSelf(node)) {
+                scanReplica(down, visitor);
+            } else if (!down.contains(node)) {
+                rest.execute(node + "/internal/entries?down={down}", HttpMethod.GET,
+                        request -> {
+                            request.getHeaders().set(FORWARDED_HEADER, self);
+                            request.getHeaders().set(SECRET_HEADER, secret);
+                        },
+                        response -> {
+                            readEntries(response.getBody(), visitor);
+                            return null;
+                        }, skipped);
+            }
+        }
+    }
+
+    /**
+     * Map<String, Number> getMetrics ()
+     *
+     * @return the counters of the local engine of this node
+     */
+    @Override
+    public Map<String, Number> getMetrics() {
+        return replica.getMetrics();
+    }
+
+    @Override
+    public void close() {
+        collector.shutdownNow();
+        fanOut.shutdownNow();
+        replica.close();
+    }
+
+    /**
+     * CloudStorageVersioned readReplica (int key)
+     *
+     * @return the copy this node holds, null if it has never seen the key
+     */
+    public CloudStorageVersioned readReplica(int key) {
+        return replica.read(key);
+    }
+
+    /**
+     * boolean writeReplica (int key, CloudStorageVersioned copy)
+     *
+     * @return a boolean true, if the copy was newer than the one of this node
+     *
+     * @throws IllegalArgumentException - if the version is more than
+     *      MAX_VERSION_AHEAD milliseconds ahead of the clock of this node
+     */
+    public boolean writeReplica(int key, CloudStorageVersioned copy) {
+        long limit = (System.currentTimeMillis() + MAX_VERSION_AHEAD) << 16;
+
+        if (copy.getVersion() > limit) {
+            throw new IllegalArgumentException("Version " + copy.getVersion() + " of key " + key
+                    + " is ahead of the clock of this node.");
+        }
+        return replica.write(key, copy);
+    }
+
+    /**
+     * boolean isTrusted (String secret)
+     *
+     * Compares in constant time, so the secret cannot be guessed from the
+     * time the comparison takes.
+     *
+     * @param secret - secret sent with a forwarded request, may be null
+     *
+     * @return a boolean true, if it is the secret of the cluster
+     */
+    public boolean isTrusted(String secret) {
+        return secret != null && MessageDigest.isEqual(this.secret.getBytes(StandardCharsets.UTF_8),
+                secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * int collectTombstones ()
+     *
+     * Removes the tombstones of this node which are older than the grace
+     * period. Runs every TOMBSTONE_COLLECTION_INTERVAL milliseconds.
+     *
+     * @return the number of removed tombstones
+     */
+    int collectTombstones() {
+        try {
+            int collected = replica.collect((System.currentTimeMillis() - tombstoneGrace) << 16);
+
+            if (collected > 0) {
+                logger.info("Collected " + collected + " tombstones.");
+            }
+            return collected;
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Collection of tombstones failed: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Iterable<Integer> rangeReplica (int fromKey, int toKey)
+     *
+     * @return the keys of the range this node holds, in ascending order
+     */
+    public Iterable<Integer> rangeReplica(int fromKey, int toKey) {
+        return replica.range(fromKey, toKey);
+    }
+
+    /**
+     * int getReplicaBucketNumber (int key)
+     *
+     * @return the number of the bucket of the key on this node
+     */
+    public int getReplicaBucketNumber(int key) {
+        return replica.getBucketNumber(key);
+    }
+
+    /**
+     * void scanReplica (Collection<String> down, EntryVisitor visitor)
+     *
+     * Visits the pairs this node holds as the first replica which is not
+     * down.
+     *
+     * @param down - nodes the scan cannot reach
+     * @param visitor - called for every pair
+     */
+    public void scanReplica(Collection<String> down, EntryVisitor visitor) throws IOException {
+        replica.scan((bucketNumber, key, value) -> {
+            for (String node : ring.getNodes(key, replicas)) {
+                if (!down.contains(node)) {
+                    if (isSelf(node)) {
+                        visitor.visit(bucketNumber, key, value);
+                    }
+                    return;
+                }
+            }
+        });
+    }
+
+    private static ClientHttpRequestFactory requestFactory(int timeout) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+
+        requestFactory.setConnectTimeout(timeout);
+        requestFactory.setReadTimeout(timeout);
+        return requestFactory;
+    }
+
+    private boolean isSelf(String node) {
+        return node == null || node.equals(self);
+    }
+
+    /**
+     * long nextVersion (CloudStorageVersioned latest)
+     *
+     * @return a version above the latest one and above every version this node
+     *      handed out before, the milliseconds in the upper bits keep versions
+     *      of different nodes roughly in the order of time
+     */
+    private long nextVersion(CloudStorageVersioned latest) {
+        long base = latest != null ? latest.getVersion() : 0;
+
+        return lastVersion.updateAndGet(last ->
+                Math.max(System.currentTimeMillis() << 16, Math.max(last, base) + 1));
+    }
+
+    /**
+     * CloudStorageVersioned readQuorum (int key)
+     *
+     * Reads the copies of R replicas in parallel. A replica which fails is
+     * replaced by the next one of the preference list. Replicas with an older
+     * copy than the newest one are repaired in the background.
+     *
+     * @return the newest copy, null if none of the replicas holds the key
+     *
+     * @throws IllegalStateException - if fewer than R replicas answered
+     */
+    private CloudStorageVersioned readQuorum(int key) {
+        List<String> nodes = readOrder(ring.getNodes(key, replicas));
+
+        if (readQuorum == 1 && !nodes.isEmpty() && isSelf(nodes.get(0))) {
+            return replica.read(key);
+        }
+        CompletionService<Map.Entry<String, CloudStorageVersioned>> reads = new ExecutorCompletionService<>(fanOut);
+        Map<String, CloudStorageVersioned> answers = new HashMap<>();
+        CloudStorageVersioned latest = null;
+        int next = 0;
+        int pending = 0;
+
+        while (answers.size() < readQuorum) {
+            while (answers.size() + pending < readQuorum && next < nodes.size()) {
+                String node = nodes.get(next++);
+
+                reads.submit(() -> new AbstractMap.SimpleImmutableEntry<>(node, readCopy(node, key)));
+                pending++;
+            }
+            if (pending == 0) {
+                throw new IllegalStateException("Read quorum of " + readQuorum + " not reached for key " + key
+                        + ", " + answers.size() + " replicas answered.");
+            }
+            try {
+                Map.Entry<String, CloudStorageVersioned> answer = await(reads.take());
+
+                answers.put(answer.getKey(), answer.getValue());
+                if (answer.getValue() != null && answer.getValue().isNewerThan(latest)) {
+                    latest = answer.getValue();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (RuntimeException e) {
+                logger.warning("Read of key " + key + " failed on a replica: " + e.getMessage());
+            }
+            pending--;
+        }
+
+        if (latest != null) {
+            repair(key, latest, answers);
+        }
+        return latest;
+    }
+
+    private List<String> readOrder(List<String> nodes) {
+        List<String> order = new ArrayList<>(nodes);
+
+        if (order.remove(self)) {
+            order.add(0, self);
+        } else if (!order.isEmpty()) {
+            Collections.rotate(order, Math.floorMod(nextReplica.getAndIncrement(), order.size()));
+        }
+        return order;
+    }
+
+    private void repair(int key, CloudStorageVersioned latest, Map<String, CloudStorageVersioned> answers) {
+        answers.forEach((node, copy) -> {
+            if (latest.isNewerThan(copy)) {
+                fanOut.submit(() -> {
+                    try {
+                        writeCopy(node, key, latest);
+                        logger.fine("Repaired key " + key + " on " + node);
+                    } catch (RuntimeException e) {
+                        logger.warning("Repair of key " + key + " on " + node + " failed: " + e.getMessage());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * void writeQuorum (int key, CloudStorageVersioned copy)
+     *
+     * Sends the copy to all N replicas in parallel and returns as soon as W of
+     * them stored it. The other writes go on in the background.
+     *
+     * @throws IllegalStateException - if fewer than W replicas stored the copy
+     */
+    private void writeQuorum(int key, CloudStorageVersioned copy) {
+        List<String> nodes = ring.getNodes(key, replicas);
+        CompletionService<Boolean> writes = new ExecutorCompletionService<>(fanOut);
+        int acknowledged = 0;
+        int failed = 0;
+
+        for (String node : nodes) {
+            writes.submit(() -> writeCopy(node, key, copy));
+        }
+        while (acknowledged < writeQuorum) {
+            if (nodes.size() - failed < writeQuorum) {
+                throw new IllegalStateException("Write quorum of " + writeQuorum + " not reached for key " + key
+                        + ", " + acknowledged + " replicas stored the write.");
+            }
+            try {
+                await(writes.take());
+                acknowledged++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (RuntimeException e) {
+                logger.warning("Write of key " + key + " failed on a replica: " + e.getMessage());
+                failed++;
+            }
+        }
+    }
+
+    private CloudStorageVersioned readCopy(String node, int key) {
+        if (isSelf(node)) {
+            return replica.read(key);
+        }
+        try {
+            return forward(node, HttpMethod.GET, "/internal/replica/" + key, null, CloudStorageVersioned.class);
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private boolean writeCopy(String node, int key, CloudStorageVersioned copy) {
+        if (isSelf(node)) {
+            return replica.write(key, copy);
+        }
+        String path = "/internal/replica/" + key + "?version=" + copy.getVersion();
+
+        return copy.getValue() != null
+                ? forward(node, HttpMethod.PUT, path, copy.getValue(), Boolean.class)
+                : forward(node, HttpMethod.DELETE, path, null, Boolean.class);
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private <T> T forward(String node, HttpMethod method, String path, String body, Class<T> type) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(FORWARDED_HEADER, self);
+        headers.set(SECRET_HEADER, secret);
+        headers.setContentType(MediaType.TEXT_PLAIN);
+
+        logger.fine(method + " " + path + " forwarded to " + node);
+        return rest.exchange(node + path, method, new HttpEntity<>(body, headers), type).getBody();
+    }
+
+    private void readEntries(InputStream in, EntryVisitor visitor) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                int bucketNumber = 0;
+                int key = 0;
+                String value = null;
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+
+                    parser.nextToken();
+                    if ("bucket".equals(field)) {
+                        bucketNumber = parser.getIntValue();
+                    } else if ("key".equals(field)) {
+                        key = parser.getIntValue();
+                    } else if ("value".equals(field)) {
+                        value = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                visitor.visit(bucketNumber, key, value);
+            }
+        }
+    }
+
+
+    /**
+     * class RemoteKeyIterator
+     *
+     * Iterates over the keys of a range on another node, KEY_PAGE_SIZE keys
+     * per request.
+     */
+    private class RemoteKeyIterator implements Iterator<Integer> {
+
+        private final String node;
+        private final int toKey;
+        private long nextFrom;
+        private int[] page = new int[0];
+        private int position = 0;
+
+        RemoteKeyIterator(String node, int fromKey, int toKey) {
+            this.node = node;
+            this.toKey = toKey;
+            this.nextFrom = fromKey;
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            if (position == page.length && nextFrom <= toKey) {
+                page = forward(node, HttpMethod.GET, "/internal/keys?from=" + nextFrom + "&to=" + toKey
+                        + "&limit=" + KEY_PAGE_SIZE, null, int[].class);
+                position = 0;
+                nextFrom = page.length == KEY_PAGE_SIZE ? (long) page[page.length - 1] + 1 : (long) toKey + 1;
+            }
+            return position < page.length;
+        }
+
+        @Override
+        public synchronized Integer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page[position++];
+        }
+    }
+
+
+    /**
+     * class MergeIterator
+     *
+     * k-way merge of ascending key sequences. A heap holds the next key of
+     * every sequence. Keys found in several sequences are returned once.
+     */
+    private static class MergeIterator implements Iterator<Integer> {
+
+        private final PriorityQueue<Map.Entry<Integer, Iterator<Integer>>> heap =
+                new PriorityQueue<>(Map.Entry.comparingByKey());
+
+        MergeIterator(List<Iterator<Integer>> sources) {
+            sources.forEach(this::advance);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Integer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, Iterator<Integer>> head = heap.poll();
+
+            advance(head.getValue());
+            while (!heap.isEmpty() && heap.peek().getKey().equals(head.getKey())) {
+                advance(heap.poll().getValue());
+            }
+            return head.getKey();
+        }
+
+        private void advance(Iterator<Integer> source) {
+            if (source.hasNext()) {
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(source.next(), source));
+            }
+        }
+    }
+}
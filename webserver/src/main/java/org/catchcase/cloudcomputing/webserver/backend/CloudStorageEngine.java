@@ -0,0 +1,161 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * interface CloudStorageEngine
+ *
+ * This interface is implemented by the storage engines the CloudStorageManager
+ * can run on. The engine in use is selected with the property
+ * cloudstorage.engine, see CloudStorageEngineFactory.
+ */
+public interface CloudStorageEngine {
+
+    /**
+     * boolean insert (int key, String value)
+     *
+     * @param key - key for the value
+     * @param value - value which will be stored
+     *
+     * @return a boolean true, if the pair was stored, false if the key already exists
+     */
+    boolean insert(int key, String value);
+
+    /**
+     * boolean put (int key, String value)
+     *
+     * Stores the value whether the key exists or not. The default deletes
+     * and inserts the pair, so a reader or a crash may see the key missing
+     * in between; engines which can replace a value atomically override it.
+     *
+     * @param key - key for the value
+     * @param value - value which will be stored
+     *
+     * @return a boolean true, if the pair was stored
+     */
+    default boolean put(int key, String value) {
+        delete(key);
+        return insert(key, value);
+    }
+
+    /**
+     * boolean delete (int key)
+     *
+     * @param key - key of the value
+     *
+     * @return a boolean true, if the pair was deleted, false if the key does not exist
+     */
+    boolean delete(int key);
+
+    /**
+     * String get (int key)
+     *
+     * @param key - key of the wanted value
+     *
+     * @return the value or null if the key does not exist
+     */
+    String get(int key);
+
+    /**
+     * Iterable<Integer> range (int fromKey, int toKey)
+     *
+     * @param fromKey - lowest key, inclusive
+     * @param toKey - highest key, inclusive
+     *
+     * @return the existing keys of the range in ascending order
+     */
+    Iterable<Integer> range(int fromKey, int toKey);
+
+    /**
+     * void scan (EntryVisitor visitor)
+     *
+     * Hands every key/value pair to the visitor without building a list of
+     * the whole store.
+     *
+     * @param visitor - called for every key/value pair
+     *
+     * @throws IOException if the visitor fails, the remaining pairs are skipped
+     */
+    void scan(EntryVisitor visitor) throws IOException;
+
+    /**
+     * void scan (int bucketNumber, EntryVisitor visitor)
+     *
+     * Hands the key/value pairs of one bucket to the visitor. The default
+     * scans the whole store and skips the pairs of the other buckets; engines
+     * which can reach a bucket directly override it.
+     *
+     * @param bucketNumber - number of the bucket
+     * @param visitor - called for every key/value pair of the bucket
+     *
+     * @throws IOException if the visitor fails, the remaining pairs are skipped
+     */
+    default void scan(int bucketNumber, EntryVisitor visitor) throws IOException {
+        scan((number, key, value) -> {
+            if (number == bucketNumber) {
+                visitor.visit(number, key, value);
+            }
+        });
+    }
+
+    /**
+     * int getBucketNumber (int key)
+     *
+     * @param key - key of a value
+     *
+     * @return the number of the bucket which holds the key
+     */
+    int getBucketNumber(int key);
+
+    /**
+     * void apply (List<CloudStorageOperation> operations)
+     *
+     * Applies the operations of a batch in the given order. Engines which
+     * can group the operations override this method.
+     *
+     * @param operations - operations with a key and a known kind
+     */
+    default void apply(List<CloudStorageOperation> operations) {
+        for (CloudStorageOperation operation : operations) {
+            switch (operation.getOp()) {
+                case CloudStorageOperation.INSERT:
+                    operation.complete(insert(operation.getKey(), operation.getValue()), null);
+                    break;
+                case CloudStorageOperation.DELETE:
+                    operation.complete(delete(operation.getKey()), null);
+                    break;
+                default:
+                    String value = get(operation.getKey());
+
+                    operation.complete(value != null, value);
+            }
+        }
+    }
+
+    /**
+     * Map<String, Number> getMetrics ()
+     *
+     * @return counters of the engine by name, empty if it has none
+     */
+    default Map<String, Number> getMetrics() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * void close ()
+     *
+     * Persists all pending changes. It is called on shutdown.
+     */
+    void close();
+
+
+    /**
+     * interface EntryVisitor
+     *
+     * Receives the key/value pairs of scan.
+     */
+    interface EntryVisitor {
+        void visit(int bucketNumber, int key, String value) throws IOException;
+    }
+}
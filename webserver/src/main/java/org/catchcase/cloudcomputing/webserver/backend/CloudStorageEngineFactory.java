@@ -0,0 +1,102 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.catchcase.cloudcomputing.webserver.robert.HashFS.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+ * class CloudStorageEngineFactory
+ *
+ * This class creates the CloudStorageEngine which is configured in the
+ * application.properties. If cloudstorage.cluster.nodes lists the nodes of a
+ * cluster, the configured engine only holds the keys of this node and is
+ * wrapped into a CloudStorageClusterEngine, which replicates every key to
+ * cloudstorage.cluster.replicas nodes.
+ */
+public class CloudStorageEngineFactory {
+
+    private final static Logger logger = Logger.getLogger(CloudStorageEngineFactory.class.getName());
+    private static CloudStorageEngine engineInstance = null;
+    private static CloudStorageEngine localEngineInstance = null;
+
+    private CloudStorageEngineFactory(){
+    }
+
+    /**
+     * CloudStorageEngine getEngineInstance ()
+     *
+     * Instantiate the configured CloudStorageEngine, if not already existing.
+     *
+     * @return new CloudStorageEngine or the existing CloudStorageEngine
+     */
+    public static synchronized CloudStorageEngine getEngineInstance(){
+        if(engineInstance == null){
+            CloudStorageProperties properties = CloudStorageProperties.getPropertiesInstance();
+            String nodes = properties.getString("cloudstorage.cluster.nodes", "");
+
+            if (nodes.isEmpty()) {
+                engineInstance = getLocalEngineInstance();
+            } else {
+                CloudStorageHashRing ring = new CloudStorageHashRing(Arrays.asList(nodes.split("\\s*,\\s*")),
+                        properties.getInt("cloudstorage.cluster.virtual-nodes", 128));
+                String self = properties.getString("cloudstorage.cluster.self", "http://localhost:8080");
+
+                int replicas = properties.getInt("cloudstorage.cluster.replicas", 1);
+
+                engineInstance = new CloudStorageClusterEngine(getLocalEngineInstance(), ring, self,
+                        properties.getString("cloudstorage.cluster.secret", ""),
+                        properties.getLong("cloudstorage.cluster.tombstone-grace-ms", TimeUnit.DAYS.toMillis(7)),
+                        properties.getInt("cloudstorage.cluster.timeout-ms", 5000), replicas,
+                        properties.getInt("cloudstorage.cluster.read-quorum", replicas / 2 + 1),
+                        properties.getInt("cloudstorage.cluster.write-quorum", replicas / 2 + 1));
+                logger.info("Cluster mode as " + self + " with nodes " + ring.getNodes() + " and "
+                        + replicas + " replicas per key.");
+            }
+        }
+        return engineInstance;
+    }
+
+    /**
+     * CloudStorageClusterEngine getClusterEngineInstance ()
+     *
+     * @return the CloudStorageClusterEngine, null if not in cluster mode
+     */
+    public static synchronized CloudStorageClusterEngine getClusterEngineInstance(){
+        CloudStorageEngine engine = getEngineInstance();
+
+        return engine instanceof CloudStorageClusterEngine ? (CloudStorageClusterEngine) engine : null;
+    }
+
+    /**
+     * CloudStorageEngine getLocalEngineInstance ()
+     *
+     * Instantiate the configured CloudStorageEngine of this node, if not
+     * already existing. In cluster mode it holds the copies of this node.
+     *
+     * @return new CloudStorageEngine or the existing CloudStorageEngine
+     */
+    public static synchronized CloudStorageEngine getLocalEngineInstance(){
+        if(localEngineInstance == null){
+            CloudStorageProperties properties = CloudStorageProperties.getPropertiesInstance();
+            CloudStorageEngineType type = properties.getEnum("cloudstorage.engine", CloudStorageEngineType.class,
+                    CloudStorageEngineType.BUCKETS);
+
+            switch (type) {
+                case HASHFS:
+                    localEngineInstance = new CloudStorageHashFSEngine(
+                            properties.getString("cloudstorage.hashfs.path", "hashfs"),
+                            properties.getInt("cloudstorage.hashfs.buckets", 16),
+                            properties.getLong("cloudstorage.hashfs.segment-size", 64L * 1024 * 1024),
+                            properties.getLong("cloudstorage.hashfs.cache-size", 16L * 1024 * 1024),
+                            properties.getEnum("cloudstorage.hashfs.durability", HashFSDurability.class, HashFSDurability.NONE));
+                    break;
+                default:
+                    localEngineInstance = new CloudStorageBucketEngine(CloudStorageHashDirectory.getDirectoryInstance());
+            }
+            logger.info("Using " + type + " storage engine.");
+        }
+        return localEngineInstance;
+    }
+}
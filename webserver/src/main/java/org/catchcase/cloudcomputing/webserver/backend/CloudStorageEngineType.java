@@ -0,0 +1,21 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * enum CloudStorageEngineType
+ *
+ * This enum lists the available CloudStorageEngine implementations. The one
+ * in use is selected with the property cloudstorage.engine.
+ */
+public enum CloudStorageEngineType {
+
+    /**
+     * Extendible hash directory of buckets persisted in the blob store, see
+     * CloudStorageBucketEngine.
+     */
+    BUCKETS,
+
+    /**
+     * HashFS on the local file system, see CloudStorageHashFSEngine.
+     */
+    HASHFS
+}
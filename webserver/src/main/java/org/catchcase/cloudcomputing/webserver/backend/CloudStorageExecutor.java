@@ -0,0 +1,61 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/**
+ * class CloudStorageExecutor
+ *
+ * This class is defined as Singleton and provides the bounded thread pool on
+ * which storage operations and their blob I/O run, so the servlet threads are
+ * released while the blob store is busy. The number of threads and the
+ * length of the queue are read from the properties cloudstorage.io.threads
+ * and cloudstorage.io.queue-capacity. Tasks beyond the queue are rejected
+ * with a RejectedExecutionException.
+ */
+public class CloudStorageExecutor {
+
+    private final static Logger logger = Logger.getLogger(CloudStorageExecutor.class.getName());
+    private static CloudStorageExecutor executorInstance = null;
+    private ThreadPoolExecutor executor;
+
+    private CloudStorageExecutor(){
+        CloudStorageProperties properties = CloudStorageProperties.getPropertiesInstance();
+        int threads = properties.getInt("cloudstorage.io.threads", 16);
+        int queueCapacity = properties.getInt("cloudstorage.io.queue-capacity", 1000);
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "storage-io-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        logger.info("Storage executor with " + threads + " threads and a queue of " + queueCapacity + " tasks.");
+    }
+
+    /**
+     * CloudStorageExecutor getExecutorInstance ()
+     *
+     * Instantiate a new CloudStorageExecutor class, if not already existing.
+     *
+     * @return new CloudStorageExecutor or the existing CloudStorageExecutor
+     */
+    public static synchronized CloudStorageExecutor getExecutorInstance(){
+        if(executorInstance == null){
+            executorInstance = new CloudStorageExecutor();
+        }
+        return executorInstance;
+    }
+
+    /**
+     * Executor getExecutor ()
+     *
+     * @return the bounded executor for storage operations
+     */
+    public Executor getExecutor(){
+        return executor;
+    }
+}
@@ -1,23 +1,96 @@
 package org.catchcase.cloudcomputing.webserver.backend;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
 
 /**
  * class CloudStorageHashDirectory
  *
- * This class is defined as a Singleton and implements a hash directory.
- * The size of this hash directory is static but modifiable.
+ * This class is defined as a Singleton and implements an extendible hash
+ * directory. The directory has 2^globalDepth slots, each slot points to the
+ * bucket which holds the keys whose lowest globalDepth hash bits equal the
+ * slot index. The keys are mixed before, so sequential or strided keys are
+ * spread over all buckets. Several slots may share a bucket with a smaller
+ * local depth.
+ * A bucket which grows beyond the configured capacity is split online, only
+ * operations on that bucket wait for the split. A split which cannot divide
+ * the keys of a bucket is retried when the bucket has doubled. The layout is
+ * persisted in the blob store, so a restart continues with the same buckets.
+ * Stores from before the mixing keep using the raw key bits.
  */
 public class CloudStorageHashDirectory {
 
-    private static final int DIRECTORY_SIZE = 4;
+    private final static Logger logger = Logger.getLogger(CloudStorageHashDirectory.class.getName());
+    private static final int INITIAL_GLOBAL_DEPTH = 2;
+    private static final int MAX_GLOBAL_DEPTH = 24;
+    private static final int META_MAGIC = 0x43534844;
+    private static final int MIXED_META_MAGIC = 0x43534845;
+    private static final String META_FILE_NAME = "directory.meta";
     private static CloudStorageHashDirectory directoryInstance = null;
-    private List<CloudStorageBucket> hashTable;
+    private volatile CloudStorageBucket[] hashTable;
+    private ConcurrentSkipListMap<Integer, CloudStorageBucket> buckets;
+    private CloudStorageKeyIndex keyIndex = new CloudStorageKeyIndex();
+    private int nextBucketNumber;
+    private boolean mixKeys;
+    private Map<Integer, Integer> deferredSplits = new HashMap<>();
+    private final Object splitLock = new Object();
+    private CloudStorageWriteMode writeMode;
+    private int checkpointInterval;
+    private CloudStorageValueStorage valueStorage;
+    private int bucketCapacity;
+    private File localDirectory;
+    private File metaFile;
+    private String layoutVersion;
+    private BlobStore blobStore;
+    private ScheduledExecutorService flushScheduler;
 
-    private CloudStorageHashDirectory(){
-        hashTable = new ArrayList<>();
-        for(int i = 0; i < DIRECTORY_SIZE; i++) {
-            hashTable.add(new CloudStorageBucket(i));
+    private CloudStorageHashDirectory(CloudStorageProperties properties){
+        this(properties.getEnum("cloudstorage.bucket.write-mode", CloudStorageWriteMode.class,
+                        CloudStorageWriteMode.WRITE_THROUGH),
+                properties.getInt("cloudstorage.bucket.checkpoint-interval", 1000),
+                properties.getEnum("cloudstorage.bucket.value-storage", CloudStorageValueStorage.class,
+                        CloudStorageValueStorage.HEAP),
+                properties.getInt("cloudstorage.directory.bucket-capacity", 10000),
+                new File(properties.getString("cloudstorage.bucket.local.path", ".")),
+                BlobStoreFactory.getBlobStoreInstance(),
+                properties.getLong("cloudstorage.bucket.flush-interval-ms", 1000));
+    }
+
+    CloudStorageHashDirectory(CloudStorageWriteMode writeMode, int checkpointInterval,
+                              CloudStorageValueStorage valueStorage, int bucketCapacity, File localDirectory,
+                              BlobStore blobStore, long flushInterval){
+        this.writeMode = writeMode;
+        this.checkpointInterval = checkpointInterval;
+        this.valueStorage = valueStorage;
+        this.bucketCapacity = bucketCapacity;
+        this.localDirectory = localDirectory;
+        this.blobStore = blobStore;
+        metaFile = new File(localDirectory, META_FILE_NAME);
+        buckets = new ConcurrentSkipListMap<>();
+
+        if (!readLayout()) {
+            //Buckets of the former fixed directory with key % 4 keep the raw key bits
+            mixKeys = !hasLegacyBuckets();
+            for (int i = 0; i < (1 << INITIAL_GLOBAL_DEPTH); i++) {
+                buckets.put(i, newBucket(i, INITIAL_GLOBAL_DEPTH, i));
+            }
+            nextBucketNumber = 1 << INITIAL_GLOBAL_DEPTH;
+            hashTable = buildTable(INITIAL_GLOBAL_DEPTH);
+            //Persisted right away, otherwise a restart before the first split takes the buckets for legacy ones
+            writeLayout(INITIAL_GLOBAL_DEPTH);
+        }
+        logger.info("Hash directory with global depth " + getGlobalDepth() + " and " + buckets.size() + " buckets.");
+
+        if (writeMode == CloudStorageWriteMode.WRITE_BACK) {
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bucket-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flushScheduler.scheduleWithFixedDelay(this::flushAll,
+                    flushInterval, flushInterval, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -28,53 +101,144 @@ public class CloudStorageHashDirectory {
      *
      * @return new CloudStorageHashDirectory or the existing CloudStorageHashDirectory
      */
-    public static CloudStorageHashDirectory getDirectoryInstance(){
+    public static synchronized CloudStorageHashDirectory getDirectoryInstance(){
         if(directoryInstance == null){
-            directoryInstance = new CloudStorageHashDirectory();
+            directoryInstance = new CloudStorageHashDirectory(CloudStorageProperties.getPropertiesInstance());
         }
         return directoryInstance;
     }
 
     /**
-     * boolean add (int bucketNumber, MyKeyValue keyValue)
+     * boolean add (MyKeyValue keyValue)
      *
-     * Gets the bucket and calls the add method of the bucket.
+     * Gets the bucket of the key and calls the add method of the bucket.
+     * Splits the bucket afterwards if it has grown beyond its capacity.
      *
-     * @param bucketNumber - index of the bucket
      * @param keyValue - key/value pair
      *
      * @return a boolean true, if add operation was successful else return false
      */
-    protected boolean add(int bucketNumber, MyKeyValue keyValue){
-        return hashTable.get(bucketNumber).add(keyValue);
+    protected boolean add(MyKeyValue keyValue){
+        while (true) {
+            CloudStorageBucket bucket = getBucket(keyValue.getKey());
+
+            try {
+                boolean added = bucket.add(keyValue);
+
+                if (added && needsSplit(bucket)) {
+                    split(bucket);
+                }
+                return added;
+            } catch (CloudStorageBucketMovedException e) {
+                //The bucket has been split meanwhile, route again
+            }
+        }
+    }
+
+    /**
+     * boolean put (MyKeyValue keyValue)
+     *
+     * Gets the bucket of the key and calls the put method of the bucket.
+     * Splits the bucket afterwards if it has grown beyond its capacity.
+     *
+     * @param keyValue - key/value pair
+     *
+     * @return a boolean true, if the pair was stored
+     */
+    protected boolean put(MyKeyValue keyValue){
+        while (true) {
+            CloudStorageBucket bucket = getBucket(keyValue.getKey());
+
+            try {
+                boolean stored = bucket.put(keyValue);
+
+                if (stored && needsSplit(bucket)) {
+                    split(bucket);
+                }
+                return stored;
+            } catch (CloudStorageBucketMovedException e) {
+                //The bucket has been split meanwhile, route again
+            }
+        }
     }
 
     /**
-     * boolean remove (int bucketNumber, int key)
+     * boolean remove (int key)
      *
-     * Gets the bucket and calls the delete method of the bucket.
+     * Gets the bucket of the key and calls the delete method of the bucket.
      *
-     * @param bucketNumber - index of the bucket
      * @param key - key of the wanted value
      *
      * @return a boolean true, if delete operation was successful else return false
      */
-    protected boolean remove(int bucketNumber, int key){
-        return hashTable.get(bucketNumber).delete(key);
+    protected boolean remove(int key){
+        while (true) {
+            try {
+                return getBucket(key).delete(key);
+            } catch (CloudStorageBucketMovedException e) {
+                //The bucket has been split meanwhile, route again
+            }
+        }
     }
 
     /**
-     * MyKeyValue getKeyValuePair (int bucketNumber, int key)
+     * MyKeyValue getKeyValuePair (int key)
      *
-     * Gets the bucket and calls the getKeyValue method of the bucket.
+     * Gets the bucket of the key and calls the getKeyValue method of the bucket.
      *
-     * @param bucketNumber - index of the bucket
      * @param key - key of the wanted value
      *
      * @return the key/value pair as MyKeyValue object
      */
-    protected MyKeyValue getKeyValuePair(int bucketNumber, int key){
-        return hashTable.get(bucketNumber).getKeyValue(key);
+    protected MyKeyValue getKeyValuePair(int key){
+        while (true) {
+            try {
+                return getBucket(key).getKeyValue(key);
+            } catch (CloudStorageBucketMovedException e) {
+                //The bucket has been split meanwhile, route again
+            }
+        }
+    }
+
+    /**
+     * void apply (List<CloudStorageOperation> operations)
+     *
+     * Groups the operations by their bucket and lets every bucket apply its
+     * group at once. Operations which hit a bucket while it was split are
+     * grouped and applied again. Buckets which have grown beyond their
+     * capacity are split afterwards.
+     *
+     * @param operations - operations with a key and a known kind
+     */
+    protected void apply(List<CloudStorageOperation> operations){
+        Set<CloudStorageBucket> changed = new HashSet<>();
+        List<CloudStorageOperation> pending = operations;
+
+        while (!pending.isEmpty()) {
+            Map<CloudStorageBucket, List<CloudStorageOperation>> groups = new LinkedHashMap<>();
+
+            for (CloudStorageOperation operation : pending) {
+                groups.computeIfAbsent(getBucket(operation.getKey()), bucket -> new ArrayList<>()).add(operation);
+            }
+            groups.forEach((bucket, group) -> {
+                bucket.apply(group);
+                changed.add(bucket);
+            });
+
+            List<CloudStorageOperation> unapplied = new ArrayList<>();
+            for (CloudStorageOperation operation : pending) {
+                if (!operation.isApplied()) {
+                    unapplied.add(operation);
+                }
+            }
+            pending = unapplied;
+        }
+
+        for (CloudStorageBucket bucket : changed) {
+            if (needsSplit(bucket)) {
+                split(bucket);
+            }
+        }
     }
 
     /**
@@ -82,12 +246,15 @@ public class CloudStorageHashDirectory {
      *
      * Gets the bucket and calls the getEntries method of the bucket.
      *
-     * @param bucketNumber - index of the bucket
+     * @param bucketNumber - number of the bucket
      *
-     * @return a List of the key/value pairs of the bucket
+     * @return a List of the key/value pairs of the bucket, empty if the
+     *      bucket does not exist
      */
     protected List<String> getEntries(int bucketNumber){
-        return hashTable.get(bucketNumber).getEntries();
+        CloudStorageBucket bucket = buckets.get(bucketNumber);
+
+        return bucket == null ? new ArrayList<>() : bucket.getEntries();
     }
 
     /**
@@ -100,20 +267,364 @@ public class CloudStorageHashDirectory {
     protected List<String> getAllEntries(){
         List<String> temp = new ArrayList<>();
 
-        hashTable.forEach(bucket -> {
-            temp.add("Bucket " + hashTable.indexOf(bucket));
+        buckets.forEach((bucketNumber, bucket) -> {
+            temp.add("Bucket " + bucketNumber);
             bucket.getEntries().forEach(enty -> temp.add(enty));
         });
 
         return temp;
     }
 
+    /**
+     * void forEachBucket (BucketVisitor visitor)
+     *
+     * Visits the buckets one after another in the order of their numbers.
+     * Each bucket is handed over as a snapshot, so only one bucket at a time
+     * is held in memory and no lock is held while the visitor runs.
+     *
+     * @param visitor - called with the number and the snapshot of every bucket
+     *
+     * @throws IOException if the visitor fails, the remaining buckets are skipped
+     */
+    protected void forEachBucket(BucketVisitor visitor) throws IOException {
+        for (CloudStorageBucket bucket : buckets.values()) {
+            visitor.visit(bucket.getBucketNumber(), bucket.getSnapshot());
+        }
+    }
+
+    /**
+     * void visitBucket (int bucketNumber, BucketVisitor visitor)
+     *
+     * Hands the snapshot of one bucket to the visitor, like forEachBucket
+     * does for all of them.
+     *
+     * @param bucketNumber - number of the bucket
+     * @param visitor - called with the number and the snapshot of the bucket,
+     *      not at all if the bucket does not exist
+     *
+     * @throws IOException if the visitor fails
+     */
+    protected void visitBucket(int bucketNumber, BucketVisitor visitor) throws IOException {
+        CloudStorageBucket bucket = buckets.get(bucketNumber);
+
+        if (bucket != null) {
+            visitor.visit(bucketNumber, bucket.getSnapshot());
+        }
+    }
+
+    /**
+     * NavigableSet<Integer> getKeys (int fromKey, int toKey)
+     *
+     * Returns the existing keys of the range from the ordered key index. The
+     * index is built from all buckets on first use.
+     *
+     * @param fromKey - lowest key, inclusive
+     * @param toKey - highest key, inclusive
+     *
+     * @return the keys in ascending order
+     */
+    protected NavigableSet<Integer> getKeys(int fromKey, int toKey){
+        if (!keyIndex.isComplete()) {
+            synchronized (splitLock) {
+                if (!keyIndex.isComplete()) {
+                    buckets.values().forEach(bucket -> bucket.indexKeys(keyIndex));
+                    keyIndex.setComplete();
+                    logger.info("Key index built with " + keyIndex.size() + " keys.");
+                }
+            }
+        }
+        return keyIndex.range(fromKey, toKey);
+    }
+
+    /**
+     * void flushAll ()
+     *
+     * Uploads every bucket which has changes that are not persisted yet.
+     */
+    protected void flushAll(){
+        buckets.values().forEach(CloudStorageBucket::flush);
+    }
+
+    /**
+     * Map<String, Number> getFilterMetrics ()
+     *
+     * Sums the Bloom filter counters of all buckets. The false positive rate
+     * is the share of lookups and deletes of missing keys which the filters
+     * did not answer alone; the expected rate is the mean estimate of the
+     * filters of the opened buckets.
+     *
+     * @return the counters by name
+     */
+    protected Map<String, Number> getFilterMetrics(){
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        long negatives = 0;
+        long falsePositives = 0;
+        long bytes = 0;
+        double expected = 0;
+        int opened = 0;
+
+        for (CloudStorageBucket bucket : buckets.values()) {
+            double rate = bucket.getFilterExpectedFalsePositiveRate();
+
+            negatives += bucket.getFilterNegatives();
+            falsePositives += bucket.getFilterFalsePositives();
+            bytes += bucket.getFilterBytes();
+            if (rate >= 0) {
+                expected += rate;
+                opened++;
+            }
+        }
+        metrics.put("bucket.filter.negatives", negatives);
+        metrics.put("bucket.filter.false-positives", falsePositives);
+        metrics.put("bucket.filter.false-positive-rate",
+                negatives + falsePositives == 0 ? 0.0 : (double) falsePositives / (negatives + falsePositives));
+        metrics.put("bucket.filter.expected-false-positive-rate", opened == 0 ? 0.0 : expected / opened);
+        metrics.put("bucket.filter.bytes", bytes);
+        return metrics;
+    }
+
+    /**
+     * int getBucketNumber (int key)
+     *
+     * @param key - key of a value
+     *
+     * @return the number of the bucket which currently holds the key
+     */
+    protected int getBucketNumber(int key){
+        return getBucket(key).getBucketNumber();
+    }
+
     /**
      * int getSize ()
      *
-     * @return the size of the hash directory
+     * @return the number of buckets in the hash directory
      */
     protected int getSize(){
-        return hashTable.size();
+        return buckets.size();
+    }
+
+    /**
+     * int getGlobalDepth ()
+     *
+     * @return the number of key bits which are used to find the slot of a key
+     */
+    protected int getGlobalDepth(){
+        return Integer.numberOfTrailingZeros(hashTable.length);
+    }
+
+    /**
+     * CloudStorageBucket getBucket (int key)
+     *
+     * @param key - key of a value
+     *
+     * @return the bucket the slot of the key points to
+     */
+    private CloudStorageBucket getBucket(int key){
+        CloudStorageBucket[] table = hashTable;
+
+        return table[(mixKeys ? CloudStorageBucket.mix(key) : key) & (table.length - 1)];
+    }
+
+    /**
+     * boolean needsSplit (CloudStorageBucket bucket)
+     *
+     * @param bucket - bucket which has been changed
+     *
+     * @return a boolean true, if the bucket has grown beyond the capacity and
+     *      beyond the size at which its last split was given up
+     */
+    private boolean needsSplit(CloudStorageBucket bucket){
+        int size = bucket.size();
+
+        if (size <= bucketCapacity) {
+            return false;
+        }
+        synchronized (splitLock) {
+            Integer deferred = deferredSplits.get(bucket.getBucketNumber());
+            return deferred == null || size >= deferred;
+        }
+    }
+
+    /**
+     * void split (CloudStorageBucket bucket)
+     *
+     * Splits the given bucket into two. The directory is doubled first if
+     * the local depth of the bucket already equals the global depth.
+     * Only one split runs at a time. If the split moves no key or fails, the
+     * bucket is not split again before it has doubled its size.
+     *
+     * @param bucket - bucket which has grown beyond its capacity
+     */
+    private void split(CloudStorageBucket bucket){
+        synchronized (splitLock) {
+            int size = bucket.size();
+
+            if (buckets.get(bucket.getBucketNumber()) != bucket || size <= bucketCapacity) {
+                return;
+            }
+            if (bucket.getLocalDepth() >= MAX_GLOBAL_DEPTH) {
+                logger.warning("Bucket " + bucket.getBucketNumber() + " cannot be split any further.");
+                deferredSplits.put(bucket.getBucketNumber(), Integer.MAX_VALUE);
+                return;
+            }
+
+            CloudStorageBucket split;
+            try {
+                split = bucket.split(nextBucketNumber, sibling -> {
+                    nextBucketNumber++;
+                    buckets.put(sibling.getBucketNumber(), sibling);
+                    int globalDepth = Math.max(getGlobalDepth(), sibling.getLocalDepth());
+
+                    try {
+                        writeLayout(globalDepth);
+                    } catch (UncheckedIOException e) {
+                        //Without the layout a restart would not know the sibling, the bucket rolls the split back
+                        buckets.remove(sibling.getBucketNumber());
+                        nextBucketNumber--;
+                        throw e;
+                    }
+                    hashTable = buildTable(globalDepth);
+                });
+            } catch (UncheckedIOException e) {
+                logger.warning("Split of bucket " + bucket.getBucketNumber() + " failed: " + e.getMessage());
+                split = null;
+            }
+            if (split == null) {
+                deferredSplits.put(bucket.getBucketNumber(), size > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : size * 2);
+                return;
+            }
+            deferredSplits.remove(bucket.getBucketNumber());
+            logger.info("Hash directory has global depth " + getGlobalDepth() + " and " + buckets.size() + " buckets.");
+        }
+    }
+
+    /**
+     * CloudStorageBucket[] buildTable (int globalDepth)
+     *
+     * @param globalDepth - global depth of the new table
+     *
+     * @return a new slot table which points every slot to its bucket
+     */
+    private CloudStorageBucket[] buildTable(int globalDepth){
+        CloudStorageBucket[] table = new CloudStorageBucket[1 << globalDepth];
+
+        for (CloudStorageBucket bucket : buckets.values()) {
+            int step = 1 << bucket.getLocalDepth();
+
+            for (int slot = bucket.getPattern(); slot < table.length; slot += step) {
+                table[slot] = bucket;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * CloudStorageBucket newBucket (int bucketNumber, int localDepth, int pattern)
+     *
+     * @return a new bucket with the settings of the directory
+     */
+    private CloudStorageBucket newBucket(int bucketNumber, int localDepth, int pattern){
+        return new CloudStorageBucket(bucketNumber, writeMode, checkpointInterval, localDirectory, localDepth, pattern,
+                valueStorage, mixKeys, blobStore);
+    }
+
+    /**
+     * boolean hasLegacyBuckets ()
+     *
+     * @return a boolean true, if the blob store holds buckets of the former
+     *      fixed directory, which were filled by the raw key bits
+     */
+    private boolean hasLegacyBuckets(){
+        for (int i = 0; i < (1 << INITIAL_GLOBAL_DEPTH); i++) {
+            if (blobStore.exists("bucket" + i + ".txt") || blobStore.exists("bucket" + i + ".log")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * void writeLayout (int globalDepth)
+     *
+     * Uploads the global depth and the number, local depth and pattern of
+     * every bucket. The upload is conditional on the version which was read
+     * or written last, so the layout of another instance is not overwritten.
+     *
+     * @param globalDepth - global depth to persist
+     *
+     * @throws UncheckedIOException if the layout could not be stored
+     */
+    private void writeLayout(int globalDepth){
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(metaFile)))) {
+            out.writeInt(mixKeys ? MIXED_META_MAGIC : META_MAGIC);
+            out.writeInt(globalDepth);
+            out.writeInt(nextBucketNumber);
+            out.writeInt(buckets.size());
+            for (CloudStorageBucket bucket : buckets.values()) {
+                out.writeInt(bucket.getBucketNumber());
+                out.writeInt(bucket.getLocalDepth());
+                out.writeInt(bucket.getPattern());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        String written;
+        try {
+            written = blobStore.upload(metaFile, layoutVersion);
+        } catch (BlobStoreConflictException e) {
+            throw new UncheckedIOException(new IOException(META_FILE_NAME + " has been changed by another instance.", e));
+        }
+        if (written == null) {
+            throw new UncheckedIOException(new IOException(META_FILE_NAME + " could not be uploaded."));
+        }
+        layoutVersion = written;
+    }
+
+    /**
+     * boolean readLayout ()
+     *
+     * Downloads and restores the persisted layout.
+     *
+     * @return a boolean true, if a layout existed and was restored
+     */
+    private boolean readLayout(){
+        layoutVersion = blobStore.download(metaFile, null);
+        if (layoutVersion == null) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(metaFile)))) {
+            int magic = in.readInt();
+
+            if (magic != META_MAGIC && magic != MIXED_META_MAGIC) {
+                throw new IOException(META_FILE_NAME + " has an unknown format.");
+            }
+            mixKeys = magic == MIXED_META_MAGIC;
+            int globalDepth = in.readInt();
+            nextBucketNumber = in.readInt();
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                int bucketNumber = in.readInt();
+                buckets.put(bucketNumber, newBucket(bucketNumber, in.readInt(), in.readInt()));
+            }
+            hashTable = buildTable(globalDepth);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            buckets.clear();
+            layoutVersion = null;
+            return false;
+        }
+    }
+
+    /**
+     * interface BucketVisitor
+     *
+     * Receives the buckets of forEachBucket.
+     */
+    protected interface BucketVisitor {
+        void visit(int bucketNumber, CloudStorageIntMap<String> entries) throws IOException;
     }
 }
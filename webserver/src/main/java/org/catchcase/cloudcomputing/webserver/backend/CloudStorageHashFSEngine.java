@@ -0,0 +1,162 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.catchcase.cloudcomputing.webserver.robert.HashFS.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * class CloudStorageHashFSEngine
+ *
+ * This class is the CloudStorageEngine on top of HashFS, which keeps the
+ * values in segment files on the local file system. HashFS has String keys,
+ * an int key is stored as 8 hex digits of the key with the sign bit flipped.
+ * So the lexicographical order of the stored keys is the numeric order of the
+ * int keys and range queries of HashFS can be used directly.
+ */
+public class CloudStorageHashFSEngine implements CloudStorageEngine {
+
+    private final HashFS hashFS;
+
+    /**
+     * @param path - directory of the segment files
+     * @param buckets - number of HashFS buckets
+     * @param segmentSize - size at which a segment file is sealed
+     * @param cacheSize - bytes of the value cache, 0 disables it
+     * @param durability - when writes are forced to disk
+     */
+    CloudStorageHashFSEngine(String path, int buckets, long segmentSize, long cacheSize, HashFSDurability durability) {
+        this(new HashFS(buckets, path, segmentSize, cacheSize, durability));
+    }
+
+    CloudStorageHashFSEngine(HashFS hashFS) {
+        this.hashFS = hashFS;
+    }
+
+    @Override
+    public boolean insert(int key, String value) {
+        return hashFS.insert(encode(key), value);
+    }
+
+    @Override
+    public boolean put(int key, String value) {
+        return hashFS.update(encode(key), value);
+    }
+
+    @Override
+    public boolean delete(int key) {
+        return hashFS.delete(encode(key));
+    }
+
+    @Override
+    public String get(int key) {
+        return hashFS.search(encode(key));
+    }
+
+    /**
+     * Iterable<Integer> range (int fromKey, int toKey)
+     *
+     * The keys are streamed from the k-way merge of the HashFS buckets.
+     */
+    @Override
+    public Iterable<Integer> range(int fromKey, int toKey) {
+        return () -> {
+            Iterator<String> keys = hashFS.rangeIterator(encode(fromKey), encode(toKey), 0);
+
+            return new Iterator<Integer>() {
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public Integer next() {
+                    return decode(keys.next());
+                }
+            };
+        };
+    }
+
+    /**
+     * void scan (EntryVisitor visitor)
+     *
+     * Visits the pairs in ascending key order. Pairs deleted while scanning
+     * are skipped.
+     */
+    @Override
+    public void scan(EntryVisitor visitor) throws IOException {
+        for (int key : range(Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            String value = get(key);
+
+            if (value != null) {
+                visitor.visit(getBucketNumber(key), key, value);
+            }
+        }
+    }
+
+    /**
+     * void scan (int bucketNumber, EntryVisitor visitor)
+     *
+     * Only the values of keys in the given bucket are read.
+     */
+    @Override
+    public void scan(int bucketNumber, EntryVisitor visitor) throws IOException {
+        for (int key : range(Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            if (getBucketNumber(key) == bucketNumber) {
+                String value = get(key);
+
+                if (value != null) {
+                    visitor.visit(bucketNumber, key, value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getBucketNumber(int key) {
+        return hashFS.getBucket(encode(key));
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+
+        metrics.put("hashfs.cache.hits", hashFS.getCacheHits());
+        metrics.put("hashfs.cache.misses", hashFS.getCacheMisses());
+        metrics.put("hashfs.cache.evictions", hashFS.getCacheEvictions());
+        return metrics;
+    }
+
+    /**
+     * void close ()
+     *
+     * Closes HashFS, so its indexes are marked clean and the next start does
+     * not have to replay the segments.
+     */
+    @Override
+    public void close() {
+        hashFS.close();
+    }
+
+    /**
+     * String encode (int key)
+     *
+     * @param key - int key
+     *
+     * @return the HashFS key, ordered like the int keys
+     */
+    static String encode(int key) {
+        return String.format("%08x", key ^ Integer.MIN_VALUE);
+    }
+
+    /**
+     * int decode (String key)
+     *
+     * @param key - a HashFS key created by encode
+     *
+     * @return the int key
+     */
+    static int decode(String key) {
+        return Integer.parseUnsignedInt(key, 16) ^ Integer.MIN_VALUE;
+    }
+}
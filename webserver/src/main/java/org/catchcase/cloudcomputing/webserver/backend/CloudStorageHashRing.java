@@ -0,0 +1,141 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * class CloudStorageHashRing
+ *
+ * This class assigns the keys to the nodes of a cluster by consistent hashing.
+ * Every node is placed on a ring of 64 bit hash values at a number of virtual
+ * positions, a key belongs to the first node found clockwise from the hash of
+ * the key. Adding or removing a node only moves the keys between the new or
+ * removed positions and their neighbours, that is about 1/N of all keys. The
+ * virtual nodes spread the keys of a node evenly around the ring.
+ * The ring is copied on every change, so lookups are not synchronized.
+ */
+public class CloudStorageHashRing {
+
+    private final int virtualNodes;
+    private volatile NavigableMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param nodes - names of the nodes, e.g. their base URLs
+     * @param virtualNodes - number of positions of every node on the ring
+     */
+    public CloudStorageHashRing(Collection<String> nodes, int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+        nodes.forEach(this::addNode);
+    }
+
+    /**
+     * String getNode (int key)
+     *
+     * @param key - key of a value
+     *
+     * @return the node which owns the key, null if the ring is empty
+     */
+    public String getNode(int key) {
+        NavigableMap<Long, String> current = ring;
+
+        if (current.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = current.ceilingEntry(hash(ByteBuffer.allocate(4).putInt(key).array()));
+
+        return entry != null ? entry.getValue() : current.firstEntry().getValue();
+    }
+
+    /**
+     * List<String> getNodes (int key, int count)
+     *
+     * Walks clockwise from the hash of the key and collects the distinct nodes
+     * it passes. The first one is the node returned by getNode(key), the others
+     * hold the replicas of the key.
+     *
+     * @param key - key of a value
+     * @param count - number of nodes, at most the number of nodes on the ring
+     *
+     * @return the preference list of the key, empty if the ring is empty
+     */
+    public List<String> getNodes(int key, int count) {
+        NavigableMap<Long, String> current = ring;
+        Set<String> nodes = new LinkedHashSet<>();
+
+        if (current.isEmpty()) {
+            return new ArrayList<>(nodes);
+        }
+        long position = hash(ByteBuffer.allocate(4).putInt(key).array());
+
+        for (String node : current.tailMap(position, true).values()) {
+            if (nodes.size() == count) {
+                break;
+            }
+            nodes.add(node);
+        }
+        for (String node : current.headMap(position, false).values()) {
+            if (nodes.size() == count) {
+                break;
+            }
+            nodes.add(node);
+        }
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * void addNode (String node)
+     *
+     * @param node - name of the new node
+     */
+    public synchronized void addNode(String node) {
+        NavigableMap<Long, String> changed = new TreeMap<>(ring);
+
+        for (int i = 0; i < virtualNodes; i++) {
+            changed.put(position(node, i), node);
+        }
+        ring = changed;
+    }
+
+    /**
+     * void removeNode (String node)
+     *
+     * @param node - name of the node which leaves the cluster
+     */
+    public synchronized void removeNode(String node) {
+        NavigableMap<Long, String> changed = new TreeMap<>(ring);
+
+        for (int i = 0; i < virtualNodes; i++) {
+            changed.remove(position(node, i), node);
+        }
+        ring = changed;
+    }
+
+    /**
+     * Set<String> getNodes ()
+     *
+     * @return the names of all nodes on the ring
+     */
+    public Set<String> getNodes() {
+        return new TreeSet<>(ring.values());
+    }
+
+    private static long position(String node, int virtualNode) {
+        return hash((node + "#" + virtualNode).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * long hash (byte[] bytes)
+     *
+     * @return the first 8 bytes of the MD5 digest, so the positions do not
+     *      depend on the JVM and are the same on every node
+     */
+    private static long hash(byte[] bytes) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("MD5").digest(bytes)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
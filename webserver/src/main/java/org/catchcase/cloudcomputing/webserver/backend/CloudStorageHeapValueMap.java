@@ -0,0 +1,66 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.nio.charset.*;
+import java.util.function.*;
+
+/**
+ * class CloudStorageHeapValueMap
+ *
+ * This class keeps the values of a bucket as String objects in a
+ * CloudStorageIntMap on the heap.
+ */
+public class CloudStorageHeapValueMap implements CloudStorageValueMap {
+
+    private final CloudStorageIntMap<String> entries;
+
+    public CloudStorageHeapValueMap(int expectedSize) {
+        entries = new CloudStorageIntMap<>(expectedSize);
+    }
+
+    @Override
+    public String get(int key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public byte[] getBytes(int key) {
+        String value = entries.get(key);
+
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public void put(int key, String value) {
+        entries.put(key, value);
+    }
+
+    @Override
+    public boolean remove(int key) {
+        return entries.remove(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void forEachKey(IntConsumer action) {
+        entries.forEachEntry((key, value) -> action.accept(key));
+    }
+
+    @Override
+    public CloudStorageIntMap<String> copy() {
+        return entries.copy();
+    }
+
+    @Override
+    public void release() {
+        entries.clear();
+    }
+}
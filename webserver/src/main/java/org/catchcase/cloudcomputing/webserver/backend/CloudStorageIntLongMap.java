@@ -0,0 +1,205 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.util.*;
+
+/**
+ * class CloudStorageIntLongMap
+ *
+ * This class is a hash map from primitive int keys to primitive long values
+ * with the same open addressing scheme as CloudStorageIntMap. A slot is free
+ * if its value is NO_VALUE, therefore NO_VALUE can not be stored.
+ */
+public class CloudStorageIntLongMap {
+
+    public static final long NO_VALUE = -1L;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.7F;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public CloudStorageIntLongMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize - number of entries which fit without resizing
+     */
+    public CloudStorageIntLongMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * interface EntryVisitor
+     *
+     * Receives the entries of forEachEntry.
+     */
+    public interface EntryVisitor<E extends Exception> {
+        void visit(int key, long value) throws E;
+    }
+
+    /**
+     * long get (int key)
+     *
+     * @param key - key of the wanted value
+     *
+     * @return the value or NO_VALUE if the key does not exist
+     */
+    public long get(int key) {
+        for (int i = slot(key); values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * long put (int key, long value)
+     *
+     * @param key - key of the value
+     * @param value - value, must not be NO_VALUE
+     *
+     * @return the previous value or NO_VALUE if the key was new
+     */
+    public long put(int key, long value) {
+        if (value == NO_VALUE) {
+            throw new IllegalArgumentException("NO_VALUE can not be stored");
+        }
+
+        int i = slot(key);
+        for (; values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                long previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) {
+            resize(values.length << 1);
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * long remove (int key)
+     *
+     * @param key - key which should be removed
+     *
+     * @return the removed value or NO_VALUE if the key did not exist
+     */
+    public long remove(int key) {
+        for (int i = slot(key); values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                long previous = values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * void forEachEntry (EntryVisitor visitor)
+     *
+     * Visits every entry in slot order. The map must not be changed by the
+     * visitor.
+     *
+     * @param visitor - called for every key/value pair
+     */
+    public <E extends Exception> void forEachEntry(EntryVisitor<E> visitor) throws E {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != NO_VALUE) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * int size ()
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * void clear ()
+     *
+     * Removes every entry.
+     */
+    public void clear() {
+        Arrays.fill(values, NO_VALUE);
+        size = 0;
+    }
+
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * void shiftBack (int free)
+     *
+     * Closes the gap at the given slot, see CloudStorageIntMap.
+     *
+     * @param free - slot of the removed entry
+     */
+    private void shiftBack(int free) {
+        int i = free;
+
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == NO_VALUE) {
+                break;
+            }
+            int home = slot(keys[i]);
+            boolean movable = i > free ? (home <= free || home > i) : (home <= free && home > i);
+
+            if (movable) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = NO_VALUE;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                int slot = slot(oldKeys[i]);
+                while (values[slot] != NO_VALUE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
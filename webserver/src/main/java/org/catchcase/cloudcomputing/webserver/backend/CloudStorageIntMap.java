@@ -0,0 +1,300 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.util.*;
+
+/**
+ * class CloudStorageIntMap
+ *
+ * This class is a hash map with primitive int keys based on open addressing
+ * with linear probing. Keys and values are kept in two parallel arrays, so
+ * no key is boxed and no node object is created per entry. A slot is free if
+ * its value is null, therefore null values are not allowed. Removing a key
+ * shifts the following entries of its probe sequence back, so no tombstones
+ * are left behind.
+ * The methods taking an int do not box. The Map methods are implemented on
+ * top of them for snapshots and tests, they box the keys.
+ */
+public class CloudStorageIntMap<V> extends AbstractMap<Integer, V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.7F;
+
+    private int[] keys;
+    private V[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public CloudStorageIntMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize - number of entries which fit without resizing
+     */
+    public CloudStorageIntMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * interface EntryVisitor
+     *
+     * Receives the entries of forEachEntry.
+     */
+    public interface EntryVisitor<V, E extends Exception> {
+        void visit(int key, V value) throws E;
+    }
+
+    /**
+     * V get (int key)
+     *
+     * @param key - key of the wanted value
+     *
+     * @return the value or null if the key does not exist
+     */
+    public V get(int key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * boolean containsKey (int key)
+     *
+     * @param key - key to look for
+     *
+     * @return a boolean true, if the key exists
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * V put (int key, V value)
+     *
+     * @param key - key of the value
+     * @param value - value, must not be null
+     *
+     * @return the previous value or null if the key was new
+     */
+    public V put(int key, V value) {
+        Objects.requireNonNull(value, "value");
+
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * V remove (int key)
+     *
+     * @param key - key which should be removed
+     *
+     * @return the removed value or null if the key did not exist
+     */
+    public V remove(int key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * CloudStorageIntMap<V> copy ()
+     *
+     * @return a new map with the same entries, the values are not copied
+     */
+    public CloudStorageIntMap<V> copy() {
+        CloudStorageIntMap<V> copy = new CloudStorageIntMap<>();
+
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        copy.mask = mask;
+        copy.threshold = threshold;
+        return copy;
+    }
+
+    /**
+     * void forEachEntry (EntryVisitor visitor)
+     *
+     * Visits every entry in slot order without boxing the keys. The map must
+     * not be changed by the visitor.
+     *
+     * @param visitor - called for every key/value pair
+     */
+    public <E extends Exception> void forEachEntry(EntryVisitor<? super V, E> visitor) throws E {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(Integer key, V value) {
+        return put(key.intValue(), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Entry<Integer, V>>() {
+            @Override
+            public Iterator<Entry<Integer, V>> iterator() {
+                return new Iterator<Entry<Integer, V>>() {
+                    private int next = advance(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Entry<Integer, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Integer, V> entry = new SimpleImmutableEntry<>(keys[next], values[next]);
+                        next = advance(next + 1);
+                        return entry;
+                    }
+
+                    private int advance(int i) {
+                        while (i < values.length && values[i] == null) {
+                            i++;
+                        }
+                        return i;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * int slot (int key)
+     *
+     * Spreads the bits of the key with the golden ratio, so sequential keys
+     * do not form long runs.
+     *
+     * @param key - key of an entry
+     *
+     * @return the first slot of the probe sequence of the key
+     */
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * void shiftBack (int free)
+     *
+     * Closes the gap at the given slot by moving back every following entry
+     * of the run whose first slot is not between the gap and its position.
+     *
+     * @param free - slot of the removed entry
+     */
+    private void shiftBack(int free) {
+        int i = free;
+
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i]);
+            boolean movable = i > free ? (home <= free || home > i) : (home <= free && home > i);
+
+            if (movable) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = null;
+    }
+
+    /**
+     * void resize (int capacity)
+     *
+     * @param capacity - new number of slots, a power of two
+     */
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        V[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slot(oldKeys[i]);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
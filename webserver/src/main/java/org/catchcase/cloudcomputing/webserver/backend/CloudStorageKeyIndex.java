@@ -0,0 +1,74 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * class CloudStorageKeyIndex
+ *
+ * This class keeps the keys of all buckets in order, so range queries only
+ * visit keys which exist. It is based on a concurrent skip list and is
+ * updated by the buckets while they hold their lock.
+ */
+public class CloudStorageKeyIndex {
+
+    private final ConcurrentSkipListSet<Integer> keys = new ConcurrentSkipListSet<>();
+    private volatile boolean complete = false;
+
+    /**
+     * void add (int key)
+     *
+     * @param key - key which has been inserted
+     */
+    public void add(int key){
+        keys.add(key);
+    }
+
+    /**
+     * void remove (int key)
+     *
+     * @param key - key which has been deleted
+     */
+    public void remove(int key){
+        keys.remove(key);
+    }
+
+    /**
+     * NavigableSet<Integer> range (int fromKey, int toKey)
+     *
+     * @param fromKey - lowest key, inclusive
+     * @param toKey - highest key, inclusive
+     *
+     * @return a live view of the keys between fromKey and toKey in ascending order
+     */
+    public NavigableSet<Integer> range(int fromKey, int toKey){
+        return keys.subSet(fromKey, true, toKey, true);
+    }
+
+    /**
+     * int size ()
+     *
+     * @return the number of indexed keys
+     */
+    public int size(){
+        return keys.size();
+    }
+
+    /**
+     * boolean isComplete ()
+     *
+     * @return a boolean true, if the keys of every bucket have been added
+     */
+    public boolean isComplete(){
+        return complete;
+    }
+
+    /**
+     * void setComplete ()
+     *
+     * Marks that the keys of every bucket have been added.
+     */
+    public void setComplete(){
+        complete = true;
+    }
+}
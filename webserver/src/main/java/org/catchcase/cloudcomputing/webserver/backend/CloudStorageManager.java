@@ -2,15 +2,20 @@ package org.catchcase.cloudcomputing.webserver.backend;
 
 import org.springframework.stereotype.*;
 
+import javax.annotation.*;
+import java.io.*;
+import java.nio.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.logging.*;
 
 /**
  * class CloudStorageManager
  *
  * This class is defined as a Singleton, which manage the distributed file
- * storage system.
+ * storage system. The pairs are kept by the CloudStorageEngine selected with
+ * cloudstorage.engine.
  */
 @Component
 public class CloudStorageManager {
@@ -18,12 +23,23 @@ public class CloudStorageManager {
     private final static Logger logger = Logger.getLogger(CloudStorageManager.class.getName());
     private static CloudStorageManager managerInstance = null;
     private static Semaphore lock = new Semaphore(1);
-    private CloudStorageHashDirectory hashDirectory;
-    private CloudStorageLogger cloudLogger;
+    private CloudStorageEngine engine;
+    private int maxBatchSize;
+    private int defaultPageLimit;
+    private int maxPageLimit;
 
     private CloudStorageManager() {
-        hashDirectory = CloudStorageHashDirectory.getDirectoryInstance();
-        cloudLogger = new CloudStorageLogger();
+        this(CloudStorageEngineFactory.getEngineInstance(),
+                CloudStorageProperties.getPropertiesInstance().getInt("cloudstorage.batch.max-operations", 10000),
+                CloudStorageProperties.getPropertiesInstance().getInt("cloudstorage.page.default-limit", 1000),
+                CloudStorageProperties.getPropertiesInstance().getInt("cloudstorage.page.max-limit", 10000));
+    }
+
+    CloudStorageManager(CloudStorageEngine engine, int maxBatchSize, int defaultPageLimit, int maxPageLimit) {
+        this.engine = engine;
+        this.maxBatchSize = maxBatchSize;
+        this.maxPageLimit = maxPageLimit;
+        this.defaultPageLimit = Math.min(defaultPageLimit, maxPageLimit);
     }
 
     /**
@@ -52,9 +68,7 @@ public class CloudStorageManager {
      * CloudStorageLogger insert (int key, String value)
      *
      * Calculates the hash value of the given key, to know in which bucket it
-     * should be stored.
-     * Creates a MyKeyValue object with the given parameters and pass it to
-     * the hashDirectory.
+     * should be stored, and passes the pair to the storage engine.
      *
      * @param key   - key for the value
      * @param value - value which will be stored
@@ -63,13 +77,10 @@ public class CloudStorageManager {
      *      as boolean and a Message as String
      */
     public CloudStorageLogger insert(int key, String value) {
-        int bucketNumber = hashFunctionDecideBucket(key);
+        CloudStorageLogger cloudLogger = new CloudStorageLogger();
 
-        MyKeyValue myKeyValue = new MyKeyValue();
-        myKeyValue.setKey(key);
-        myKeyValue.setValue(value);
-
-        cloudLogger.setStatus(hashDirectory.add(bucketNumber, myKeyValue));
+        cloudLogger.setStatus(engine.insert(key, value));
+        int bucketNumber = hashFunctionDecideBucket(key);
 
         if (cloudLogger.isStatus()) {
             cloudLogger.setMsg("Key: " + key + " with value: " + value + " will be stored in bucket " + bucketNumber);
@@ -93,9 +104,10 @@ public class CloudStorageManager {
      *      the Status of operation as boolean and a Message as String
      */
     public CloudStorageLogger delete(int key) {
+        CloudStorageLogger cloudLogger = new CloudStorageLogger();
         int bucketNumber = hashFunctionDecideBucket(key);
 
-        cloudLogger.setStatus(hashDirectory.remove(bucketNumber, key));
+        cloudLogger.setStatus(engine.delete(key));
 
         if (cloudLogger.isStatus()) {
             cloudLogger.setMsg("Data with key: " + key + " deleted from bucket " + bucketNumber);
@@ -119,13 +131,14 @@ public class CloudStorageManager {
      *      the Status of operation as boolean and a Message as String
      */
     public CloudStorageLogger search(int key) {
+        CloudStorageLogger cloudLogger = new CloudStorageLogger();
         int bucketNumber = hashFunctionDecideBucket(key);
 
-        if (hashDirectory.getKeyValuePair(bucketNumber, key) != null) {
-            MyKeyValue myKeyValue = hashDirectory.getKeyValuePair(bucketNumber, key);
+        String value = engine.get(key);
 
+        if (value != null) {
             cloudLogger.setStatus(true);
-            cloudLogger.setMsg("Data: " + myKeyValue.getValue() + " with key: " + key + " found in bucket " + bucketNumber);
+            cloudLogger.setMsg("Data: " + value + " with key: " + key + " found in bucket " + bucketNumber);
             logger.info("Data with key: " + key + " found in bucket " + bucketNumber);
 
             return cloudLogger;
@@ -137,46 +150,178 @@ public class CloudStorageManager {
         }
     }
 
+    /**
+     * List<CloudStorageLogger> batch (List<CloudStorageOperation> operations)
+     *
+     * Applies many insert, delete and search operations at once. The bucket
+     * engine groups the operations by bucket, so every bucket is loaded and
+     * persisted only once per batch. Operations on the same key are applied
+     * in the given order.
+     *
+     * @param operations - the operations of the batch
+     *
+     * @return a CloudStorageLogger for every operation, in the same order
+     *
+     * @throws IllegalArgumentException if the batch has more operations than allowed
+     */
+    public List<CloudStorageLogger> batch(List<CloudStorageOperation> operations) {
+        if (operations.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch must not contain more than " + maxBatchSize + " operations.");
+        }
+
+        CloudStorageLogger[] results = new CloudStorageLogger[operations.size()];
+        List<CloudStorageOperation> valid = new ArrayList<>();
+
+        for (int i = 0; i < operations.size(); i++) {
+            CloudStorageOperation operation = operations.get(i);
+
+            if (operation.getRawKey() == null) {
+                results[i] = result(false, "Missing key parameter");
+            } else if (operation.getKey() == null) {
+                results[i] = result(false, "Invalid key parameter: " + operation.getRawKey() + "; must be integer");
+            } else if (CloudStorageOperation.INSERT.equals(operation.getOp())) {
+                if (operation.getValue() == null) {
+                    results[i] = result(false, "Missing value for key: " + operation.getKey());
+                } else {
+                    valid.add(operation);
+                }
+            } else if (CloudStorageOperation.DELETE.equals(operation.getOp())
+                    || CloudStorageOperation.SEARCH.equals(operation.getOp())) {
+                valid.add(operation);
+            } else {
+                results[i] = result(false, "Unknown operation: " + operation.getOp());
+            }
+        }
+
+        engine.apply(valid);
+
+        for (int i = 0; i < operations.size(); i++) {
+            if (results[i] == null) {
+                results[i] = describe(operations.get(i));
+            }
+        }
+        logger.info("Batch with " + operations.size() + " operations applied.");
+        return Arrays.asList(results);
+    }
+
     /**
      * List<String> rangeQuery(int key1, int key2)
      *
-     * It searches for every value between the two keys.
+     * It searches for every value between the two keys. Only keys which
+     * exist are visited, they are taken from the ordered key index.
      *
      * @param key1 - first key to determine the beginning of the range
      * @param key2 - second key to determine the end of the range
      *
-     * @return a List of String containing the key and the value
+     * @return a List of String containing the key and the value, ordered by key
      */
     public List<String> rangeQuery(int key1, int key2) {
-        int temp = 0;
         List<String> result = new ArrayList<>();
 
-        if (key1 > key2) {
-            temp = key1;
-            key1 = key2;
-            key2 = temp;
-        }
+        for (int key : engine.range(Math.min(key1, key2), Math.max(key1, key2))) {
+            CloudStorageLogger found = search(key);
 
-        for (int i = key1; i <= key2; i++) {
-            if (search(i) != null) {
-                result.add(search(i).getMsg());
+            if (found.isStatus()) {
+                result.add(found.getMsg());
             }
         }
         logger.info(result.size() + " Entry/ies found.");
         return result;
     }
 
+    /**
+     * CloudStoragePage<String> rangeQuery (int key1, int key2, String cursor, Integer limit)
+     *
+     * Returns one page of the range query. The page starts at the key encoded
+     * in the cursor and is read from the ordered key index, so a following
+     * page does not visit the keys of the pages before it.
+     *
+     * @param key1 - first key to determine the beginning of the range
+     * @param key2 - second key to determine the end of the range
+     * @param cursor - cursor of a previous page, null for the first page
+     * @param limit - maximum number of keys of the page, null for the default;
+     *      it is capped at cloudstorage.page.max-limit
+     *
+     * @return a CloudStoragePage with the key and the value of the found
+     *      entries and the cursor of the next page
+     *
+     * @throws IllegalArgumentException if the cursor or the limit is invalid
+     */
+    public CloudStoragePage<String> rangeQuery(int key1, int key2, String cursor, Integer limit) {
+        List<String> result = new ArrayList<>();
+        Integer nextKey = pageKeys(Math.min(key1, key2), Math.max(key1, key2), cursor, limit, key -> {
+            CloudStorageLogger found = search(key);
+
+            if (found.isStatus()) {
+                result.add(found.getMsg());
+            }
+        });
+
+        logger.info(result.size() + " Entry/ies found.");
+        return new CloudStoragePage<>(result, encodeCursor(nextKey));
+    }
+
+    /**
+     * CloudStoragePage<MyKeyValue> listPage (String cursor, Integer limit)
+     *
+     * Returns one page of all entries in ascending key order.
+     *
+     * @param cursor - cursor of a previous page, null for the first page
+     * @param limit - maximum number of keys of the page, null for the default;
+     *      it is capped at cloudstorage.page.max-limit
+     *
+     * @return a CloudStoragePage with the entries and the cursor of the next page
+     *
+     * @throws IllegalArgumentException if the cursor or the limit is invalid
+     */
+    public CloudStoragePage<MyKeyValue> listPage(String cursor, Integer limit) {
+        List<MyKeyValue> result = new ArrayList<>();
+        Integer nextKey = pageKeys(Integer.MIN_VALUE, Integer.MAX_VALUE, cursor, limit, key -> {
+            String value = engine.get(key);
+
+            if (value != null) {
+                MyKeyValue found = new MyKeyValue();
+                found.setKey(key);
+                found.setValue(value);
+                result.add(found);
+            }
+        });
+
+        return new CloudStoragePage<>(result, encodeCursor(nextKey));
+    }
+
+    /**
+     * int getBucketNumber (int key)
+     *
+     * @param key - key of the value
+     *
+     * @return the number of the bucket which holds the key
+     */
+    public int getBucketNumber(int key) {
+        return hashFunctionDecideBucket(key);
+    }
+
     /**
      * List<String> listEntries (int bucketNumber)
      *
-     * This method will get the whole bucket as a list.
+     * This method will get the whole bucket as a list. Only the given bucket
+     * is read from the storage engine.
      *
      * @param bucketNumber - the number of the bucket which should be displayed
      *
      * @return a List of String containing the key and the value of the wanted bucket
+     *
+     * @throws UncheckedIOException if the bucket could not be read
      */
     public List<String> listEntries(int bucketNumber) {
-        return hashDirectory.getEntries(bucketNumber);
+        List<String> result = new ArrayList<>();
+
+        try {
+            engine.scan(bucketNumber, (number, key, value) -> result.add(entry(key, value)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
     }
 
     /**
@@ -185,22 +330,219 @@ public class CloudStorageManager {
      * It will get all buckets as a list.
      *
      * @return a List of String containing the key and the value of the wanted bucket
+     *
+     * @throws UncheckedIOException if a bucket could not be read
      */
     public List<String> listAllEntries() {
-        return hashDirectory.getAllEntries();
+        Map<Integer, List<String>> buckets = new TreeMap<>();
+        List<String> temp = new ArrayList<>();
+
+        try {
+            engine.scan((number, key, value) ->
+                    buckets.computeIfAbsent(number, n -> new ArrayList<>()).add(entry(key, value)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buckets.forEach((bucketNumber, entries) -> {
+            temp.add("Bucket " + bucketNumber);
+            temp.addAll(entries);
+        });
+        return temp;
+    }
+
+    /**
+     * void visitAllEntries (EntryVisitor visitor)
+     *
+     * Hands every key/value pair to the visitor, bucket by bucket. Unlike
+     * listAllEntries no list of the whole store is built, only the bucket
+     * being visited is held in memory.
+     *
+     * @param visitor - called for every key/value pair
+     *
+     * @throws IOException if the visitor fails, the remaining pairs are skipped
+     */
+    public void visitAllEntries(EntryVisitor visitor) throws IOException {
+        engine.scan(visitor::visit);
+    }
+
+    /**
+     * Map<String, Number> getMetrics ()
+     *
+     * @return the counters of the storage engine by name
+     */
+    public Map<String, Number> getMetrics() {
+        return engine.getMetrics();
+    }
+
+    /**
+     * void flush ()
+     *
+     * Persists all pending changes of the engine. It is called on shutdown so
+     * no write-back change gets lost.
+     */
+    @PreDestroy
+    public void flush() {
+        engine.close();
+    }
+
+    /**
+     * String entry (int key, String value)
+     *
+     * @return the key/value pair as String, in the format of MyKeyValue
+     */
+    private String entry(int key, String value) {
+        MyKeyValue temp = new MyKeyValue();
+
+        temp.setKey(key);
+        temp.setValue(value);
+        return temp.toString();
+    }
+
+    /**
+     * CloudStorageLogger describe (CloudStorageOperation operation)
+     *
+     * @param operation - an applied operation of a batch
+     *
+     * @return a CloudStorageLogger with the same message as the single operation
+     */
+    private CloudStorageLogger describe(CloudStorageOperation operation) {
+        int key = operation.getKey();
+        boolean status = operation.isSucceeded();
+
+        if (operation.getError() != null) {
+            return result(false, operation.getError());
+        }
+        switch (operation.getOp()) {
+            case CloudStorageOperation.INSERT:
+                return result(status, status
+                        ? "Key: " + key + " with value: " + operation.getValue() + " will be stored in bucket " + hashFunctionDecideBucket(key)
+                        : "Key already exist.");
+            case CloudStorageOperation.DELETE:
+                return result(status, status
+                        ? "Data with key: " + key + " deleted from bucket " + hashFunctionDecideBucket(key)
+                        : "Key not existing.");
+            default:
+                return result(status, status
+                        ? "Data: " + operation.getResult() + " with key: " + key + " found in bucket " + hashFunctionDecideBucket(key)
+                        : "Data with key: " + key + " not found.");
+        }
+    }
+
+    /**
+     * CloudStorageLogger result (boolean status, String msg)
+     *
+     * @return a new CloudStorageLogger with the given status and message
+     */
+    private CloudStorageLogger result(boolean status, String msg) {
+        CloudStorageLogger cloudLogger = new CloudStorageLogger();
+
+        cloudLogger.setStatus(status);
+        cloudLogger.setMsg(msg);
+        return cloudLogger;
+    }
+
+    /**
+     * Integer pageKeys (int fromKey, int toKey, String cursor, Integer limit, IntConsumer action)
+     *
+     * Hands the keys of one page to the action, taken from the ordered key
+     * index starting at the cursor.
+     *
+     * @param fromKey - lowest key of the range, inclusive
+     * @param toKey - highest key of the range, inclusive
+     * @param cursor - cursor of a previous page, null for the first page
+     * @param limit - maximum number of keys, null for the default
+     * @param action - called for every key of the page
+     *
+     * @return the first key of the next page, null if there is none
+     */
+    private Integer pageKeys(int fromKey, int toKey, String cursor, Integer limit, IntConsumer action) {
+        int pageLimit = limit == null ? defaultPageLimit : limit;
+
+        if (pageLimit < 1) {
+            throw new IllegalArgumentException("Invalid limit parameter; must be positive");
+        }
+        pageLimit = Math.min(pageLimit, maxPageLimit);
+
+        if (cursor != null) {
+            int cursorKey = decodeCursor(cursor);
+
+            if (cursorKey > toKey) {
+                return null;
+            }
+            fromKey = Math.max(fromKey, cursorKey);
+        }
+
+        int count = 0;
+
+        for (int key : engine.range(fromKey, toKey)) {
+            if (count == pageLimit) {
+                return key;
+            }
+            action.accept(key);
+            count++;
+        }
+        return null;
+    }
+
+    /**
+     * String encodeCursor (Integer key)
+     *
+     * @param key - first key of the next page, may be null
+     *
+     * @return the opaque cursor of the key, null if the key is null
+     */
+    static String encodeCursor(Integer key) {
+        if (key == null) {
+            return null;
+        }
+        byte[] bytes = ByteBuffer.allocate(4).putInt(key).array();
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * int decodeCursor (String cursor)
+     *
+     * @param cursor - a cursor created by encodeCursor
+     *
+     * @return the first key of the page the cursor points to
+     *
+     * @throws IllegalArgumentException if the cursor is not valid
+     */
+    static int decodeCursor(String cursor) {
+        byte[] bytes;
+
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            bytes = new byte[0];
+        }
+        if (bytes.length != 4) {
+            throw new IllegalArgumentException("Invalid cursor parameter");
+        }
+        return ByteBuffer.wrap(bytes).getInt();
     }
 
     /**
      * int hashFunctionDecideBucket (int key)
      *
-     * Calculates the hash value of the given key with the modulo operator.
+     * Looks up the bucket of the given key in the storage engine.
      *
      * @param key - key of the value
      *
-     * @return a hash value
+     * @return the number of the bucket
      */
     private int hashFunctionDecideBucket(int key) {
-        return key % hashDirectory.getSize();
+        return engine.getBucketNumber(key);
     }
 
+
+    /**
+     * interface EntryVisitor
+     *
+     * Receives the key/value pairs of visitAllEntries.
+     */
+    public interface EntryVisitor {
+        void visit(int bucketNumber, int key, String value) throws IOException;
+    }
 }
@@ -0,0 +1,85 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.util.function.*;
+
+/**
+ * class CloudStorageOffHeapValueMap
+ *
+ * This class keeps the values of a bucket in the CloudStorageValueArena. The
+ * heap only holds a CloudStorageIntLongMap from every key to the handle of
+ * its value, so the size of the heap does not grow with the size of the
+ * values. Replaced and removed values are freed in the arena right away.
+ */
+public class CloudStorageOffHeapValueMap implements CloudStorageValueMap {
+
+    private final CloudStorageValueArena arena;
+    private final CloudStorageIntLongMap handles;
+
+    public CloudStorageOffHeapValueMap(CloudStorageValueArena arena, int expectedSize) {
+        this.arena = arena;
+        handles = new CloudStorageIntLongMap(expectedSize);
+    }
+
+    @Override
+    public String get(int key) {
+        long handle = handles.get(key);
+
+        return handle == CloudStorageIntLongMap.NO_VALUE ? null : arena.read(handle);
+    }
+
+    @Override
+    public byte[] getBytes(int key) {
+        long handle = handles.get(key);
+
+        return handle == CloudStorageIntLongMap.NO_VALUE ? null : arena.readBytes(handle);
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return handles.get(key) != CloudStorageIntLongMap.NO_VALUE;
+    }
+
+    @Override
+    public void put(int key, String value) {
+        long previous = handles.put(key, arena.allocate(value));
+
+        if (previous != CloudStorageIntLongMap.NO_VALUE) {
+            arena.free(previous);
+        }
+    }
+
+    @Override
+    public boolean remove(int key) {
+        long handle = handles.remove(key);
+
+        if (handle == CloudStorageIntLongMap.NO_VALUE) {
+            return false;
+        }
+        arena.free(handle);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return handles.size();
+    }
+
+    @Override
+    public void forEachKey(IntConsumer action) {
+        handles.forEachEntry((key, handle) -> action.accept(key));
+    }
+
+    @Override
+    public CloudStorageIntMap<String> copy() {
+        CloudStorageIntMap<String> copy = new CloudStorageIntMap<>(handles.size());
+
+        handles.forEachEntry((key, handle) -> copy.put(key, arena.read(handle)));
+        return copy;
+    }
+
+    @Override
+    public void release() {
+        handles.forEachEntry((key, handle) -> arena.free(handle));
+        handles.clear();
+    }
+}
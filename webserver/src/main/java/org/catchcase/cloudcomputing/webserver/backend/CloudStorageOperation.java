@@ -0,0 +1,159 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * class CloudStorageOperation
+ *
+ * This class describes one operation of a batch request. The operation is
+ * one of insert, delete or search. After the batch has been applied, the
+ * outcome is kept in the operation until the manager turns it into a
+ * CloudStorageLogger.
+ * The key is bound as String, so a key which is not an integer only fails
+ * its own operation instead of the whole batch.
+ */
+public class CloudStorageOperation {
+
+    public static final String INSERT = "insert";
+    public static final String DELETE = "delete";
+    public static final String SEARCH = "search";
+
+    private String op;
+    private String key;
+    private Integer intKey;
+    private String value;
+    private boolean applied;
+    private boolean status;
+    private String result;
+    private String error;
+
+    /**
+     * String getOp ()
+     *
+     * @return the kind of operation: insert, delete or search
+     */
+    public String getOp() {
+        return op;
+    }
+
+    /**
+     * void setOp (String op)
+     *
+     * @param op - kind of operation
+     */
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    /**
+     * Integer getKey ()
+     *
+     * @return the key of the operation, null if it is missing or not an integer
+     */
+    public Integer getKey() {
+        return intKey;
+    }
+
+    /**
+     * String getRawKey ()
+     *
+     * @return the key as given by the client
+     */
+    public String getRawKey() {
+        return key;
+    }
+
+    /**
+     * void setKey (String key)
+     *
+     * @param key - key, must be an integer to be applied
+     */
+    public void setKey(String key) {
+        this.key = key;
+        try {
+            intKey = key == null ? null : Integer.valueOf(key.trim());
+        } catch (NumberFormatException nfe) {
+            intKey = null;
+        }
+    }
+
+    /**
+     * String getValue ()
+     *
+     * @return the value to insert, unused by delete and search
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * void setValue (String value)
+     *
+     * @param value - value
+     */
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    /**
+     * void complete (boolean status, String result)
+     *
+     * Stores the outcome of the operation.
+     *
+     * @param status - a boolean true, if the operation was successful
+     * @param result - the value found by a search
+     */
+    void complete(boolean status, String result) {
+        this.applied = true;
+        this.status = status;
+        this.result = result;
+    }
+
+    /**
+     * void fail (String error)
+     *
+     * Marks the operation as failed, e.g. because its change could not be
+     * persisted.
+     *
+     * @param error - message for the client
+     */
+    void fail(String error) {
+        complete(false, null);
+        this.error = error;
+    }
+
+    /**
+     * boolean isApplied ()
+     *
+     * @return a boolean true, if a bucket has applied the operation
+     */
+    boolean isApplied() {
+        return applied;
+    }
+
+    /**
+     * boolean isSucceeded ()
+     *
+     * @return a boolean true, if the operation was successful
+     */
+    boolean isSucceeded() {
+        return status;
+    }
+
+    /**
+     * String getResult ()
+     *
+     * @return the value found by a search
+     */
+    String getResult() {
+        return result;
+    }
+
+    /**
+     * String getError ()
+     *
+     * @return the message of a failed operation, null if it has been applied
+     *      normally
+     */
+    String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,39 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.util.*;
+
+/**
+ * class CloudStoragePage
+ *
+ * This class holds one page of a listing or a range query, ordered by key,
+ * together with the cursor which continues the listing after the page.
+ * The cursor is opaque to the client and null on the last page.
+ */
+public class CloudStoragePage<T> {
+
+    private final List<T> entries;
+    private final String cursor;
+
+    CloudStoragePage(List<T> entries, String cursor) {
+        this.entries = entries;
+        this.cursor = cursor;
+    }
+
+    /**
+     * List<T> getEntries ()
+     *
+     * @return the entries of the page in ascending key order
+     */
+    public List<T> getEntries() {
+        return entries;
+    }
+
+    /**
+     * String getCursor ()
+     *
+     * @return the cursor of the next page, null if this is the last page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,139 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.springframework.core.env.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * class CloudStorageProperties
+ *
+ * This class is defined as Singleton and provides the settings of the storage
+ * backend. Once the application runs, they are read from the Spring
+ * Environment, so command line arguments, profiles and every other property
+ * source of Spring apply. Until then, e.g. in unit tests without Spring, they
+ * are read from the application.properties on the classpath and can be
+ * overridden by system properties.
+ */
+public class CloudStorageProperties {
+
+    private final static Logger logger = Logger.getLogger(CloudStorageProperties.class.getName());
+    private static final String PROPERTIES_FILE = "application.properties";
+    private static CloudStorageProperties propertiesInstance = null;
+    private Properties properties;
+    private volatile Environment environment;
+
+    private CloudStorageProperties(){
+        properties = new Properties();
+
+        try (InputStream in = CloudStorageProperties.class.getClassLoader().getResourceAsStream(PROPERTIES_FILE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            logger.warning("Could not read " + PROPERTIES_FILE + ": " + e.getMessage());
+        }
+        properties.putAll(System.getProperties());
+    }
+
+    /**
+     * CloudStorageProperties getPropertiesInstance ()
+     *
+     * Instantiate a new CloudStorageProperties class, if not already existing.
+     *
+     * @return new CloudStorageProperties or the existing CloudStorageProperties
+     */
+    public static synchronized CloudStorageProperties getPropertiesInstance(){
+        if(propertiesInstance == null){
+            propertiesInstance = new CloudStorageProperties();
+        }
+        return propertiesInstance;
+    }
+
+    /**
+     * void setEnvironment (Environment environment)
+     *
+     * Reads every following property from the given Environment.
+     *
+     * @param environment - Environment of the Spring application
+     */
+    public void setEnvironment(Environment environment){
+        this.environment = environment;
+    }
+
+    /**
+     * String getString (String name, String defaultValue)
+     *
+     * @param name - name of the property
+     * @param defaultValue - value if the property is not set
+     *
+     * @return the value of the property as String
+     */
+    public String getString(String name, String defaultValue){
+        Environment source = environment;
+        String value = source != null ? source.getProperty(name) : properties.getProperty(name);
+
+        return value == null ? defaultValue : value.trim();
+    }
+
+    /**
+     * int getInt (String name, int defaultValue)
+     *
+     * @param name - name of the property
+     * @param defaultValue - value if the property is not set or not a number
+     *
+     * @return the value of the property as int
+     */
+    public int getInt(String name, int defaultValue){
+        return (int) getLong(name, defaultValue);
+    }
+
+    /**
+     * long getLong (String name, long defaultValue)
+     *
+     * @param name - name of the property
+     * @param defaultValue - value if the property is not set or not a number
+     *
+     * @return the value of the property as long
+     */
+    public long getLong(String name, long defaultValue){
+        String value = getString(name, null);
+
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            logger.warning("Invalid number for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * <E extends Enum<E>> E getEnum (String name, Class<E> type, E defaultValue)
+     *
+     * Reads an enum property. The value is matched case insensitive and
+     * dashes may be used instead of underscores, e.g. write-back.
+     *
+     * @param name - name of the property
+     * @param type - class of the enum
+     * @param defaultValue - value if the property is not set or unknown
+     *
+     * @return the value of the property as enum constant
+     */
+    public <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue){
+        String value = getString(name, null);
+
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException iae) {
+            logger.warning("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
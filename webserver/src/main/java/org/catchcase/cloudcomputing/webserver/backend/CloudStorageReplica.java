@@ -0,0 +1,198 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * class CloudStorageReplica
+ *
+ * This class keeps the versioned copies of a node in cluster mode in its local
+ * CloudStorageEngine. A copy is stored as the hex version, '+' and the value,
+ * or as the hex version and '-' for a delete. A write is only applied if its
+ * version is newer than the stored one, so replicas which receive the same
+ * writes in a different order end up with the same copy.
+ * Deleted keys are kept as tombstones, range and scan skip them. collect
+ * removes the tombstones which are older than the grace period of the
+ * cluster.
+ */
+class CloudStorageReplica {
+
+    private static final int LOCKS = 64;
+
+    private final CloudStorageEngine engine;
+    private final Object[] locks = new Object[LOCKS];
+
+    /**
+     * @param engine - local engine of the node
+     */
+    CloudStorageReplica(CloudStorageEngine engine) {
+        this.engine = engine;
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * CloudStorageVersioned read (int key)
+     *
+     * @param key - key
+     *
+     * @return the stored copy, null if the key has never been written here
+     */
+    CloudStorageVersioned read(int key) {
+        synchronized (locks[Math.floorMod(key, LOCKS)]) {
+            return decode(engine.get(key));
+        }
+    }
+
+    /**
+     * boolean write (int key, CloudStorageVersioned copy)
+     *
+     * Replaces the stored copy if the given one is newer. The copy is put in
+     * one step, and reads take the same lock, so a reader never sees the
+     * key missing while it is replaced.
+     *
+     * @param key - key
+     * @param copy - copy of the write, without value for a delete
+     *
+     * @return a boolean true, if the copy has been stored
+     */
+    boolean write(int key, CloudStorageVersioned copy) {
+        synchronized (locks[Math.floorMod(key, LOCKS)]) {
+            CloudStorageVersioned stored = read(key);
+
+            if (!copy.isNewerThan(stored)) {
+                return false;
+            }
+            return engine.put(key, encode(copy));
+        }
+    }
+
+    /**
+     * Iterable<Integer> range (int fromKey, int toKey)
+     *
+     * @return the keys of the range which are not deleted, in ascending order
+     */
+    Iterable<Integer> range(int fromKey, int toKey) {
+        return () -> new Iterator<Integer>() {
+            private final Iterator<Integer> keys = engine.range(fromKey, toKey).iterator();
+            private Integer next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Integer key = next;
+                next = advance();
+                return key;
+            }
+
+            private Integer advance() {
+                while (keys.hasNext()) {
+                    int key = keys.next();
+                    CloudStorageVersioned copy = read(key);
+
+                    if (copy != null && copy.getValue() != null) {
+                        return key;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * void scan (CloudStorageEngine.EntryVisitor visitor)
+     *
+     * Hands the values of all keys which are not deleted to the visitor.
+     */
+    void scan(CloudStorageEngine.EntryVisitor visitor) throws IOException {
+        engine.scan((bucketNumber, key, stored) -> {
+            CloudStorageVersioned copy = decode(stored);
+
+            if (copy != null && copy.getValue() != null) {
+                visitor.visit(bucketNumber, key, copy.getValue());
+            }
+        });
+    }
+
+    /**
+     * int collect (long before)
+     *
+     * Removes the tombstones with a version below the given one. The keys are
+     * gathered in a scan first and removed afterwards, each under its lock
+     * and only if it has not been written again in between.
+     *
+     * @param before - lowest version of a tombstone which is kept
+     *
+     * @return the number of removed tombstones
+     */
+    int collect(long before) throws IOException {
+        List<Integer> expired = new ArrayList<>();
+        int collected = 0;
+
+        engine.scan((bucketNumber, key, stored) -> {
+            if (isExpired(decode(stored), before)) {
+                expired.add(key);
+            }
+        });
+        for (int key : expired) {
+            synchronized (locks[Math.floorMod(key, LOCKS)]) {
+                if (isExpired(read(key), before) && engine.delete(key)) {
+                    collected++;
+                }
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * int getBucketNumber (int key)
+     *
+     * @return the number of the local bucket of the key
+     */
+    int getBucketNumber(int key) {
+        return engine.getBucketNumber(key);
+    }
+
+    Map<String, Number> getMetrics() {
+        return engine.getMetrics();
+    }
+
+    void close() {
+        engine.close();
+    }
+
+    private static boolean isExpired(CloudStorageVersioned copy, long before) {
+        return copy != null && copy.getValue() == null && copy.getVersion() < before;
+    }
+
+    private static String encode(CloudStorageVersioned copy) {
+        String version = Long.toHexString(copy.getVersion());
+
+        return copy.getValue() == null ? version + "-" : version + "+" + copy.getValue();
+    }
+
+    private static CloudStorageVersioned decode(String stored) {
+        if (stored == null) {
+            return null;
+        }
+        int i = 0;
+
+        while (i < stored.length() && Character.digit(stored.charAt(i), 16) >= 0) {
+            i++;
+        }
+        if (i == 0 || i == stored.length()) {
+            return null;
+        }
+        long version = Long.parseUnsignedLong(stored.substring(0, i), 16);
+
+        return new CloudStorageVersioned(version, stored.charAt(i) == '+' ? stored.substring(i + 1) : null);
+    }
+}
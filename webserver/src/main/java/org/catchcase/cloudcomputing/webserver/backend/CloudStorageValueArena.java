@@ -0,0 +1,254 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * class CloudStorageValueArena
+ *
+ * This class is defined as Singleton and stores values as UTF-8 bytes outside
+ * of the heap. The memory is taken from direct ByteBuffer slabs of
+ * cloudstorage.arena.slab-size bytes. Every value occupies a slot of a power
+ * of two size class which holds the length and the bytes of the value. Freed
+ * slots are kept in one free list per size class and reused before new space
+ * is taken from a slab. A value which does not fit into a slab gets a slab
+ * of its own, which is dropped when the value is freed. The number of a
+ * dropped slab is reused by the next slab.
+ * A value is addressed by a handle which contains the number of the slab and
+ * the offset of the slot. Reading a handle is not synchronized, the caller
+ * has to make sure the handle is not freed meanwhile (buckets free their
+ * handles only under the write lock).
+ */
+public class CloudStorageValueArena {
+
+    private final static Logger logger = Logger.getLogger(CloudStorageValueArena.class.getName());
+    private static final int MIN_SLOT_SHIFT = 4;
+    private static CloudStorageValueArena arenaInstance = null;
+
+    private final int slabSize;
+    private final int slabShift;
+    private volatile ByteBuffer[] slabs = new ByteBuffer[16];
+    private int slabCount = 0;
+    private int[] freeSlabs = new int[16];
+    private int freeSlabCount = 0;
+    private int currentSlab = -1;
+    private int slabPosition;
+    private final long[][] freeLists;
+    private final int[] freeCounts;
+    private long allocatedBytes = 0;
+    private long usedBytes = 0;
+
+    CloudStorageValueArena(int slabSize) {
+        this.slabShift = 32 - Integer.numberOfLeadingZeros(Math.max(slabSize, 1 << MIN_SLOT_SHIFT) - 1);
+        this.slabSize = 1 << slabShift;
+        this.slabPosition = this.slabSize;
+        freeLists = new long[slabShift - MIN_SLOT_SHIFT + 1][];
+        freeCounts = new int[freeLists.length];
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new long[16];
+        }
+    }
+
+    /**
+     * CloudStorageValueArena getArenaInstance ()
+     *
+     * Instantiate a new CloudStorageValueArena class, if not already existing.
+     * The size of the slabs is read from cloudstorage.arena.slab-size and
+     * rounded up to a power of two.
+     *
+     * @return new CloudStorageValueArena or the existing CloudStorageValueArena
+     */
+    public static synchronized CloudStorageValueArena getArenaInstance(){
+        if(arenaInstance == null){
+            int slabSize = CloudStorageProperties.getPropertiesInstance().getInt("cloudstorage.arena.slab-size", 1 << 20);
+
+            arenaInstance = new CloudStorageValueArena(slabSize);
+            logger.info("Off-heap value arena with slabs of " + arenaInstance.slabSize + " bytes.");
+        }
+        return arenaInstance;
+    }
+
+    /**
+     * long allocate (String value)
+     *
+     * Copies the UTF-8 bytes of the value into a free slot.
+     *
+     * @param value - value which should be stored
+     *
+     * @return the handle of the slot
+     */
+    public long allocate(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long handle;
+
+        synchronized (this) {
+            handle = allocateSlot(4 + bytes.length);
+            usedBytes += 4 + bytes.length;
+        }
+
+        ByteBuffer slot = slot(handle);
+        slot.putInt(bytes.length);
+        slot.put(bytes);
+        return handle;
+    }
+
+    /**
+     * String read (long handle)
+     *
+     * @param handle - handle of an allocated slot
+     *
+     * @return the value stored in the slot
+     */
+    public String read(long handle) {
+        return new String(readBytes(handle), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * byte[] readBytes (long handle)
+     *
+     * @param handle - handle of an allocated slot
+     *
+     * @return a copy of the UTF-8 bytes stored in the slot
+     */
+    public byte[] readBytes(long handle) {
+        ByteBuffer slot = slot(handle);
+        byte[] bytes = new byte[slot.getInt()];
+
+        slot.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * void free (long handle)
+     *
+     * Returns the slot to the free list of its size class. The handle must
+     * not be used afterwards.
+     *
+     * @param handle - handle of an allocated slot
+     */
+    public void free(long handle) {
+        int length = slot(handle).getInt();
+
+        synchronized (this) {
+            int size = 4 + length;
+            usedBytes -= size;
+
+            if (size > slabSize) {
+                dropSlab((int) (handle >>> 32));
+                allocatedBytes -= size;
+            } else {
+                push(sizeClass(size), handle);
+            }
+        }
+    }
+
+    /**
+     * long getAllocatedBytes ()
+     *
+     * @return the number of bytes taken from direct memory
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * long getUsedBytes ()
+     *
+     * @return the number of bytes of the stored values including their length
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private long allocateSlot(int size) {
+        if (size > slabSize) {
+            return handle(addSlab(size), 0);
+        }
+
+        int sizeClass = sizeClass(size);
+        if (freeCounts[sizeClass] > 0) {
+            return freeLists[sizeClass][--freeCounts[sizeClass]];
+        }
+
+        int slotSize = 1 << (sizeClass + MIN_SLOT_SHIFT);
+        if (slabSize - slabPosition < slotSize) {
+            recycleRemainder();
+            currentSlab = addSlab(slabSize);
+            slabPosition = 0;
+        }
+        long handle = handle(currentSlab, slabPosition);
+        slabPosition += slotSize;
+        return handle;
+    }
+
+    /**
+     * void recycleRemainder ()
+     *
+     * Cuts the unused end of the current slab into slots of the largest
+     * fitting size classes, so no space is lost when a new slab is started.
+     */
+    private void recycleRemainder() {
+        int remaining = slabSize - slabPosition;
+
+        while (currentSlab >= 0 && remaining >= 1 << MIN_SLOT_SHIFT) {
+            int slotShift = 31 - Integer.numberOfLeadingZeros(remaining);
+
+            push(slotShift - MIN_SLOT_SHIFT, handle(currentSlab, slabPosition));
+            slabPosition += 1 << slotShift;
+            remaining -= 1 << slotShift;
+        }
+    }
+
+    private int addSlab(int size) {
+        if (freeSlabCount > 0) {
+            int slab = freeSlabs[--freeSlabCount];
+
+            slabs[slab] = ByteBuffer.allocateDirect(size);
+            allocatedBytes += size;
+            return slab;
+        }
+        if (slabCount == slabs.length) {
+            ByteBuffer[] grown = new ByteBuffer[slabs.length * 2];
+            System.arraycopy(slabs, 0, grown, 0, slabs.length);
+            slabs = grown;
+        }
+        slabs[slabCount] = ByteBuffer.allocateDirect(size);
+        allocatedBytes += size;
+        return slabCount++;
+    }
+
+    private void dropSlab(int slab) {
+        slabs[slab] = null;
+        if (freeSlabCount == freeSlabs.length) {
+            freeSlabs = Arrays.copyOf(freeSlabs, freeSlabCount * 2);
+        }
+        freeSlabs[freeSlabCount++] = slab;
+    }
+
+    private void push(int sizeClass, long handle) {
+        if (freeCounts[sizeClass] == freeLists[sizeClass].length) {
+            long[] grown = new long[freeCounts[sizeClass] * 2];
+            System.arraycopy(freeLists[sizeClass], 0, grown, 0, freeCounts[sizeClass]);
+            freeLists[sizeClass] = grown;
+        }
+        freeLists[sizeClass][freeCounts[sizeClass]++] = handle;
+    }
+
+    private int sizeClass(int size) {
+        int slotShift = Math.max(MIN_SLOT_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+        return slotShift - MIN_SLOT_SHIFT;
+    }
+
+    private ByteBuffer slot(long handle) {
+        ByteBuffer slot = slabs[(int) (handle >>> 32)].duplicate();
+
+        slot.position((int) handle);
+        return slot;
+    }
+
+    private static long handle(int slab, int offset) {
+        return ((long) slab << 32) | offset;
+    }
+}
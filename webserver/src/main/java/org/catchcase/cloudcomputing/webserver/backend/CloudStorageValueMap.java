@@ -0,0 +1,103 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.util.function.*;
+
+/**
+ * interface CloudStorageValueMap
+ *
+ * This interface describes the resident key/value pairs of a bucket. The
+ * implementations differ in where the values are kept, see
+ * CloudStorageValueStorage. A map is not thread safe, the bucket guards it
+ * with its lock.
+ */
+public interface CloudStorageValueMap {
+
+    /**
+     * CloudStorageValueMap create (CloudStorageValueStorage storage, int expectedSize)
+     *
+     * @param storage - where the values should be kept
+     * @param expectedSize - number of entries which fit without resizing
+     *
+     * @return a new, empty map
+     */
+    static CloudStorageValueMap create(CloudStorageValueStorage storage, int expectedSize) {
+        if (storage == CloudStorageValueStorage.OFFHEAP) {
+            return new CloudStorageOffHeapValueMap(CloudStorageValueArena.getArenaInstance(), expectedSize);
+        }
+        return new CloudStorageHeapValueMap(expectedSize);
+    }
+
+    /**
+     * String get (int key)
+     *
+     * @param key - key of the wanted value
+     *
+     * @return the value or null if the key does not exist
+     */
+    String get(int key);
+
+    /**
+     * byte[] getBytes (int key)
+     *
+     * @param key - key of the wanted value
+     *
+     * @return the UTF-8 bytes of the value or null if the key does not exist
+     */
+    byte[] getBytes(int key);
+
+    /**
+     * boolean containsKey (int key)
+     *
+     * @param key - key to look for
+     *
+     * @return a boolean true, if the key exists
+     */
+    boolean containsKey(int key);
+
+    /**
+     * void put (int key, String value)
+     *
+     * Stores the value, an existing value of the key is replaced.
+     *
+     * @param key - key of the value
+     * @param value - value, must not be null
+     */
+    void put(int key, String value);
+
+    /**
+     * boolean remove (int key)
+     *
+     * @param key - key which should be removed
+     *
+     * @return a boolean true, if the key existed
+     */
+    boolean remove(int key);
+
+    /**
+     * int size ()
+     *
+     * @return the number of key/value pairs
+     */
+    int size();
+
+    /**
+     * void forEachKey (IntConsumer action)
+     *
+     * @param action - called for every key, the map must not be changed by it
+     */
+    void forEachKey(IntConsumer action);
+
+    /**
+     * CloudStorageIntMap<String> copy ()
+     *
+     * @return a copy of the key/value pairs on the heap
+     */
+    CloudStorageIntMap<String> copy();
+
+    /**
+     * void release ()
+     *
+     * Frees the memory of the values. The map must not be used afterwards.
+     */
+    void release();
+}
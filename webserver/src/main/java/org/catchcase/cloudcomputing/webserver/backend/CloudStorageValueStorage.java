@@ -0,0 +1,20 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * enum CloudStorageValueStorage
+ *
+ * This enum defines where a resident CloudStorageBucket keeps its values.
+ */
+public enum CloudStorageValueStorage {
+
+    /**
+     * Values are kept as String objects on the heap.
+     */
+    HEAP,
+
+    /**
+     * Values are kept as UTF-8 bytes in the off-heap CloudStorageValueArena,
+     * the heap only holds the key and the position of every value.
+     */
+    OFFHEAP
+}
@@ -0,0 +1,74 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * class CloudStorageVersioned
+ *
+ * This class is the copy of a key a replica holds in cluster mode: the value
+ * and the version of the write which stored it. A delete is kept as a copy
+ * without value, so a replica which missed the delete cannot bring the old
+ * value back. Of two copies the one with the higher version wins.
+ */
+public class CloudStorageVersioned {
+
+    private long version;
+    private String value;
+
+    public CloudStorageVersioned() {
+    }
+
+    /**
+     * @param version - version of the write
+     * @param value - stored value, null for a delete
+     */
+    public CloudStorageVersioned(long version, String value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    /**
+     * long getVersion ()
+     *
+     * @return the version of the write
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * void setVersion (long version)
+     *
+     * @param version - version
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * String getValue ()
+     *
+     * @return the value, null if the key has been deleted
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * void setValue (String value)
+     *
+     * @param value - value
+     */
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    /**
+     * boolean isNewerThan (CloudStorageVersioned other)
+     *
+     * @param other - another copy of the same key, may be null
+     *
+     * @return a boolean true, if this copy replaces the other one
+     */
+    public boolean isNewerThan(CloudStorageVersioned other) {
+        return other == null || version > other.version;
+    }
+}
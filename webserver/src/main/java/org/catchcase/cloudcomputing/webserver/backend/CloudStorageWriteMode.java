@@ -0,0 +1,21 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+/**
+ * enum CloudStorageWriteMode
+ *
+ * This enum defines when a CloudStorageBucket persists its resident hash map
+ * to the blob store.
+ */
+public enum CloudStorageWriteMode {
+
+    /**
+     * Every successful mutation is uploaded before the operation returns.
+     */
+    WRITE_THROUGH,
+
+    /**
+     * Mutations only mark the bucket as dirty. The bucket is uploaded when it
+     * is flushed, either periodically or on shutdown.
+     */
+    WRITE_BACK
+}
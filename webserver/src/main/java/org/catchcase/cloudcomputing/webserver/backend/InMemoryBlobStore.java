@@ -0,0 +1,148 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * class InMemoryBlobStore
+ *
+ * This class implements a BlobStore which keeps every blob as byte array on
+ * the heap. Nothing survives a restart, so it is meant for tests and
+ * benchmarks. The conditional writes compare and replace the blob atomically.
+ */
+public class InMemoryBlobStore implements BlobStore {
+
+    private final ConcurrentMap<String, Blob> blobs = new ConcurrentHashMap<>();
+    private final AtomicLong versionCounter = new AtomicLong();
+
+    @Override
+    public void upload(File reference) {
+        try {
+            blobs.put(reference.getName(), new Blob(Files.readAllBytes(reference.toPath()), versionCounter.incrementAndGet()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String upload(File reference, String version) {
+        byte[] content;
+
+        try {
+            content = Files.readAllBytes(reference.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return versionOf(blobs.compute(reference.getName(), (key, blob) -> {
+            checkVersion(key, blob, version);
+            return new Blob(content, versionCounter.incrementAndGet());
+        }));
+    }
+
+    @Override
+    public void append(String name, byte[] data) {
+        blobs.compute(name, (key, blob) -> appended(blob, data));
+    }
+
+    @Override
+    public String append(String name, byte[] data, String version) {
+        return versionOf(blobs.compute(name, (key, blob) -> {
+            checkVersion(key, blob, version);
+            return appended(blob, data);
+        }));
+    }
+
+    @Override
+    public boolean download(File reference) {
+        return download(reference, null) != null;
+    }
+
+    @Override
+    public String download(File reference, String version) {
+        Blob blob = blobs.get(reference.getName());
+
+        if (blob == null) {
+            return null;
+        }
+        if (versionOf(blob).equals(version) && reference.exists()) {
+            return version;
+        }
+        try {
+            Files.write(reference.toPath(), blob.content);
+            return versionOf(blob);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return blobs.containsKey(name);
+    }
+
+    @Override
+    public String version(String name) {
+        return versionOf(blobs.get(name));
+    }
+
+    @Override
+    public boolean delete(String name) {
+        return blobs.remove(name) != null;
+    }
+
+    @Override
+    public boolean delete(String name, String version) {
+        boolean[] deleted = new boolean[1];
+
+        blobs.computeIfPresent(name, (key, blob) -> {
+            checkVersion(key, blob, version);
+            deleted[0] = true;
+            return null;
+        });
+        if (!deleted[0] && version != null) {
+            throw new BlobStoreConflictException(name, version, null);
+        }
+        return deleted[0];
+    }
+
+    private Blob appended(Blob blob, byte[] data) {
+        if (blob == null) {
+            return new Blob(data.clone(), versionCounter.incrementAndGet());
+        }
+        byte[] content = Arrays.copyOf(blob.content, blob.content.length + data.length);
+        System.arraycopy(data, 0, content, blob.content.length, data.length);
+        return new Blob(content, versionCounter.incrementAndGet());
+    }
+
+    private static void checkVersion(String name, Blob blob, String version) {
+        String actual = versionOf(blob);
+
+        if (!Objects.equals(actual, version)) {
+            throw new BlobStoreConflictException(name, version, actual);
+        }
+    }
+
+    private static String versionOf(Blob blob) {
+        return blob == null ? null : Long.toString(blob.version);
+    }
+
+    /**
+     * class Blob
+     *
+     * Immutable content of a blob together with its version.
+     */
+    private static class Blob {
+        private final byte[] content;
+        private final long version;
+
+        private Blob(byte[] content, long version) {
+            this.content = content;
+            this.version = version;
+        }
+    }
+}
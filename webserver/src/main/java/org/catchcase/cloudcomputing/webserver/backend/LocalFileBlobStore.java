@@ -0,0 +1,289 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * class LocalFileBlobStore
+ *
+ * This class implements a BlobStore on a directory of the local file system.
+ * Files are copied with NIO FileChannels and an upload replaces the blob
+ * atomically, so a concurrent download never sees a half written blob.
+ * The version of a blob is made of its modification time, size and file key.
+ * Every write sets the modification time above the previous one, so two
+ * writes within the resolution of the file system clock still get different
+ * versions.
+ * Writes and downloads of a blob hold the lock of its stripe: a monitor in
+ * this process and a lock on one byte of the lock file against other
+ * processes sharing the directory. So the conditional writes are exact
+ * compare-and-set operations.
+ */
+public class LocalFileBlobStore implements BlobStore {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final String LOCK_FILE_NAME = ".lock";
+
+    private final Path directory;
+    private final Object[] stripes = new Object[LOCK_STRIPES];
+    private FileChannel lockChannel;
+
+    public LocalFileBlobStore(String directory) {
+        this.directory = Paths.get(directory).toAbsolutePath();
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        try {
+            Files.createDirectories(this.directory);
+            lockChannel = FileChannel.open(this.directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void upload(File reference) {
+        try {
+            upload(reference, null, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String upload(File reference, String version) {
+        try {
+            return upload(reference, version, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public void append(String name, byte[] data) {
+        try {
+            append(name, data, null, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String append(String name, byte[] data, String version) {
+        try {
+            return append(name, data, version, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean download(File reference) {
+        return download(reference, null) != null;
+    }
+
+    @Override
+    public String download(File reference, String version) {
+        Path source = directory.resolve(reference.getName());
+
+        try {
+            return locked(reference.getName(), () -> {
+                String current = version(reference.getName());
+
+                if (current == null || (current.equals(version) && reference.exists())) {
+                    return current;
+                }
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(reference.toPath(), StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    transfer(in, out);
+                }
+                return current;
+            });
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return Files.exists(directory.resolve(name));
+    }
+
+    @Override
+    public String version(String name) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(directory.resolve(name), BasicFileAttributes.class);
+            Object fileKey = attributes.fileKey();
+
+            return Long.toHexString(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                    + "-" + Long.toHexString(attributes.size())
+                    + (fileKey == null ? "" : "-" + Integer.toHexString(fileKey.hashCode()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean delete(String name) {
+        try {
+            return locked(name, () -> Files.deleteIfExists(directory.resolve(name)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean delete(String name, String version) {
+        try {
+            return locked(name, () -> {
+                checkVersion(name, version);
+                return Files.deleteIfExists(directory.resolve(name));
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private String upload(File reference, String version, boolean conditional) throws IOException {
+        String name = reference.getName();
+        Path target = directory.resolve(name);
+        Path temp = Files.createTempFile(directory, name, ".upload");
+
+        try {
+            try (FileChannel source = FileChannel.open(reference.toPath(), StandardOpenOption.READ);
+                 FileChannel destination = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                transfer(source, destination);
+            }
+            return locked(name, () -> {
+                if (conditional) {
+                    checkVersion(name, version);
+                }
+                FileTime previous = modified(target);
+
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                touch(target, previous);
+                return version(name);
+            });
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private String append(String name, byte[] data, String version, boolean conditional) throws IOException {
+        Path target = directory.resolve(name);
+
+        return locked(name, () -> {
+            if (conditional) {
+                checkVersion(name, version);
+            }
+            FileTime previous = modified(target);
+
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            touch(target, previous);
+            return version(name);
+        });
+    }
+
+    /**
+     * T locked (String name, BlobAction<T> action)
+     *
+     * Runs the action under the lock of the stripe of the blob.
+     *
+     * @param name - name of the blob
+     * @param action - access to the blob
+     *
+     * @return the result of the action
+     */
+    private <T> T locked(String name, BlobAction<T> action) throws IOException {
+        int stripe = Math.floorMod(name.hashCode(), LOCK_STRIPES);
+
+        synchronized (stripes[stripe]) {
+            if (lockChannel == null) {
+                return action.run();
+            }
+            FileLock lock = lockChannel.lock(stripe, 1, false);
+            try {
+                return action.run();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void checkVersion(String name, String expected) {
+        String actual = version(name);
+
+        if (!Objects.equals(actual, expected)) {
+            throw new BlobStoreConflictException(name, expected, actual);
+        }
+    }
+
+    private static FileTime modified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * void touch (Path path, FileTime previous)
+     *
+     * Sets the modification time of a written blob to now, but at least one
+     * microsecond after its modification time before the write.
+     */
+    private static void touch(Path path, FileTime previous) throws IOException {
+        long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long after = previous == null ? now : previous.to(TimeUnit.MICROSECONDS) + 1;
+
+        Files.setLastModifiedTime(path, FileTime.from(Math.max(now, after), TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * void transfer (FileChannel source, FileChannel destination)
+     *
+     * Copies the whole source channel into the destination channel.
+     *
+     * @param source - channel to read from
+     * @param destination - channel to write to
+     */
+    private static void transfer(FileChannel source, FileChannel destination) throws IOException {
+        long size = source.size();
+        long position = 0;
+
+        while (position < size) {
+            position += source.transferTo(position, size - position, destination);
+        }
+    }
+
+
+    /**
+     * interface BlobAction
+     *
+     * Access to a blob which runs under the lock of its stripe.
+     */
+    private interface BlobAction<T> {
+        T run() throws IOException;
+    }
+}
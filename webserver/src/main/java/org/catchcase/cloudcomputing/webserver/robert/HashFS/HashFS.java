@@ -15,16 +15,26 @@ package org.catchcase.cloudcomputing.webserver.robert.HashFS;
  * instance of this class contemorarily. This class doesn't exploit
  * parallelism. Instead the webserver (Apache,...) should spawn one
  * thread per request.
+ * -------------------------------------------------------------------
+ * The values are appended to large segment files (see
+ * HashFSSegmentStore). The buckets map every key to the location of
+ * its record in a memory-mapped index file (see HashFSIndexFile),
+ * so a restart only maps the indexes. If HashFS has not been closed
+ * cleanly, the indexes are rebuilt by replaying the segments.
+ * A background compactor rewrites the live records of segments
+ * which are mostly garbage and deletes these segments.
+ * When writes are forced to disk is chosen by a HashFSDurability.
  ******************************************************************** */
 
                                        // Import packages
 
 import java.io.*;
 import java.nio.file.*;
-import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 import java.util.logging.*;
+import java.util.stream.*;
 
 
 public final class HashFS {
@@ -38,18 +48,31 @@ public final class HashFS {
   
   private class HashBucket{
   
-    private HashMap<String,String> hm = null;
-              // a hashmap that stores pairs of Strings: the first
-              // String is the key, the second the filename of the
-              // file in which the value is stored
-              // We use a hashmap because a hashmap gives access to
-              // its elements in constant time. (RW)
+    private HashFSIndexFile hm = null;
+              // a persistent hash table that stores the key and the
+              // location of the record in the segment files in which
+              // the value is stored
+              // We use a hash table because it gives access to
+              // its elements in constant time. It is memory-mapped,
+              // so it survives a restart and stays off the heap. (RW)
               
     private Semaphore hmSemaphore = null;
               // A semaphore that locks the access to hm. The 
-              // semaphore is necesarry as hm is read/write. A
-              // concurrent hash map is not sufficient as complex
-              // operations are carried out.
+              // semaphore is necesarry as hm is read/write. It is
+              // only held while hm is read or changed, never while
+              // a record is written or read.
+              
+    private ReentrantReadWriteLock[] keylocks = null;
+              // Striped locks of the keys. An operation on a key
+              // holds the lock of its stripe from the lookup until
+              // the index is updated, so operations on the same key
+              // are ordered while different keys proceed in parallel.
+              // Always taken before hmSemaphore.
+              
+    private volatile ConcurrentSkipListSet<String> sortedkeys = null;
+              // All keys of the bucket in lexicographical order for
+              // range queries. Built by the first range query and
+              // changed together with hm afterwards.
               
     private int bucketnum = -1;   // number of the bucket
     
@@ -57,7 +80,8 @@ public final class HashFS {
     /* ***************************************************************
      * boolean insert( String key, String val )
      * ---------------------------------------------------------------
-     * Insert a key/value pair in the hashmap.
+     * Insert a key/value pair in the hashmap. The record is appended
+     * outside of the semaphore, only the stripe of the key is locked.
      * ---------------------------------------------------------------
      * Parameters:
      *   key ... key
@@ -66,7 +90,7 @@ public final class HashFS {
      *   boolean ... True if value has been stored, false if 
      *     key already exists of storage operation not possible
      * ---------------------------------------------------------------
-     * Thread-safe: fully (semaphores)
+     * Thread-safe: fully (key locks, semaphores)
      * Blocks: waits on disk-io
      * Throws: no exception thrown
      * Exploits parallelism: no
@@ -75,19 +99,28 @@ public final class HashFS {
     boolean insert( String key, String val ){
       boolean ret = false;               // initialize return value
     
-      hmSemaphore.acquireUninterruptibly();
-                       // aquire semaphore
+      Lock keylock = keylock( key ).writeLock();
+      keylock.lock();                // lock the key
       
-      if (!hm.containsKey( key )){      // key already exists ?
+      if (!contains( key )){      // key already exists ?
         ret = true;                     // no -> store
         
-        String filename = fspath+key;   // Create filename
+        HashFSSegmentStore.Location loc = null;
         
         try{
-          byte[] buf = val.getBytes();   // Value to byte-array
-          Files.write(Paths.get(filename), buf);
-                                          // write file
-          hm.put( key, filename );     // add key/filename 
+          loc = store.append( HashFSSegmentStore.PUT, key, val );
+                                          // append record
+          hmSemaphore.acquireUninterruptibly();
+          try{
+            hm.put( key, loc );          // add key/location
+            if (sortedkeys != null){
+              sortedkeys.add( key );
+            }
+          }
+          finally{
+            hmSemaphore.release();
+          }
+          cache.invalidate( key );     // drop a stale cached value
         }
         catch( Exception e ){
           ret = false;              // something went wrong -> return
@@ -95,7 +128,7 @@ public final class HashFS {
         }
         
         hfslog.info( "(" + System.currentTimeMillis() + ") Bucket " + bucketnum + ": <" 
-                  + key + "," + filename +"> has been inserted" );
+                  + key + "," + loc +"> has been inserted" );
                               // output log information
       }
       else {
@@ -104,13 +137,75 @@ public final class HashFS {
                       // if key already exists output log information
       }
       
-      hmSemaphore.release();      // release semaphore
+      keylock.unlock();           // unlock the key
       
       return( ret );
     }  // insert
     
     
     
+    /* ***************************************************************
+     * boolean update( String key, String val )
+     * ---------------------------------------------------------------
+     * Stores a key/value pair whether the key exists or not. The new
+     * record replaces the old one on replay, so the key is never
+     * missing in between.
+     * ---------------------------------------------------------------
+     * Parameters:
+     *   key ... key
+     *   val ... value to be stored
+     * Returns:
+     *   boolean ... True if value has been stored, false if the
+     *     storage operation was not possible
+     * ---------------------------------------------------------------
+     * Thread-safe: fully (key locks, semaphores)
+     * Blocks: waits on disk-io
+     * Throws: no exception thrown
+     * Exploits parallelism: no
+     **************************************************************** */
+    
+    boolean update( String key, String val ){
+      boolean ret = false;               // initialize return value
+    
+      Lock keylock = keylock( key ).writeLock();
+      keylock.lock();                // lock the key
+      
+      try{
+        HashFSSegmentStore.Location loc = store.append( HashFSSegmentStore.PUT, key, val );
+        HashFSSegmentStore.Location old = null;
+                                          // append record
+        hmSemaphore.acquireUninterruptibly();
+        try{
+          old = hm.put( key, loc );      // replace key/location
+          if (sortedkeys != null){
+            sortedkeys.add( key );
+          }
+        }
+        finally{
+          hmSemaphore.release();
+        }
+        cache.invalidate( key );       // drop the old cached value
+        if (old != null){
+          store.release( old );        // old record is garbage now
+        }
+        ret = true;
+        
+        hfslog.info( "(" + System.currentTimeMillis() + ") Bucket " + bucketnum + ": <" 
+                  + key + "," + loc +"> has been updated" );
+      }
+      catch( Exception e ){
+        hfslog.info( "(" + System.currentTimeMillis() + ") Bucket " + bucketnum + ": <" 
+                  + key + "> cannot be updated: " + e );
+      }
+      finally{
+        keylock.unlock();           // unlock the key
+      }
+      
+      return( ret );
+    }  // update
+    
+    
+    
     /* ***************************************************************
      * boolean delete( String key )
      * ---------------------------------------------------------------
@@ -122,7 +217,7 @@ public final class HashFS {
      *   boolean ... True if value has been deleted, false if 
      *     key doesn't exists
      * ---------------------------------------------------------------
-     * Thread-safe: fully (semaphores)
+     * Thread-safe: fully (key locks, semaphores)
      * Blocks: waits on disk-io
      * Throws: no exception thrown
      * Exploits parallelism: no
@@ -131,26 +226,37 @@ public final class HashFS {
     boolean delete( String key ){
       boolean ret = false;     // initialize return value
     
-      hmSemaphore.acquireUninterruptibly();
-                                 // Acquire semaphore
+      Lock keylock = keylock( key ).writeLock();
+      keylock.lock();                // lock the key
       
-      if (hm.containsKey( key )){      // key exists ?
-        ret = true;                  // yes -> return true
-        
-        String filename = hm.get( key );    // get filename
-        
-        hm.remove( key );               // remove the key
+      HashFSSegmentStore.Location loc = lookup( key );
+                                        // get location
+      
+      if (loc != null){                // key exists ?
         
         try{
-                                // Try to delete filename
-          File f = new File( filename );
-          f.delete();
+                          // append a delete record first, so the key
+                          // does not come back on replay
+          store.append( HashFSSegmentStore.DELETE, key, null );
+          hmSemaphore.acquireUninterruptibly();
+          try{
+            hm.remove( key );             // remove the key
+            if (sortedkeys != null){
+              sortedkeys.remove( key );
+            }
+          }
+          finally{
+            hmSemaphore.release();
+          }
+          cache.invalidate( key );      // drop the cached value
+          store.release( loc );         // old record is garbage now
+          ret = true;                  // yes -> return true
         }
         catch( Exception e ){
         }    
         
         hfslog.info( "(" + System.currentTimeMillis() + ") Bucket " + bucketnum + ": <" 
-                          + key + "," + filename +"> has been deleted" );
+                          + key + "," + loc +"> has been deleted" );
                                  // log info
       }
       else {
@@ -159,7 +265,7 @@ public final class HashFS {
                                  // log info if key doesn't exist
       }
       
-      hmSemaphore.release();          // release semaphore
+      keylock.unlock();               // unlock the key
       
       return( ret );
    
@@ -171,7 +277,8 @@ public final class HashFS {
      * String search( String key )
      * ---------------------------------------------------------------
      * Searches a key and returns its associated value or null if key
-     * doesn't exist.
+     * doesn't exist. Values found in the cache are returned without
+     * reading the segments.
      * ---------------------------------------------------------------
      * Parameters:
      *   key ... key
@@ -179,25 +286,34 @@ public final class HashFS {
      *   String ... Value associated, null if key doesn't exist of
      *     file-io reports an error.
      * ---------------------------------------------------------------
-     * Thread-safe: fully (semaphores)
+     * Thread-safe: fully (key locks, semaphores)
      * Blocks: waits on disk-io
      * Throws: no exception thrown
      * Exploits parallelism: no
      **************************************************************** */
        
     String search( String key ){
-      String ret = null;             // Initialize return value
+      String ret = cache.get( key );   // Initialize return value
+                                       // from the cache
+      
+      if (ret != null){
+        hfslog.info( "(" + System.currentTimeMillis() + ") Bucket " + bucketnum + ": <" 
+                  + key + "> found in cache, value = '" + ret + "'" );
+        return( ret );
+      }
     
-      hmSemaphore.acquireUninterruptibly();    // Acquire semaphore
+      Lock keylock = keylock( key ).readLock();
+      keylock.lock();         // lock the key, other readers may pass
       
-      if (hm.containsKey( key )){     // Check if key exists
+      HashFSSegmentStore.Location loc = lookup( key );
+                                          // get location
       
-        String filename = hm.get( key );   // get filename
+      if (loc != null){               // Check if key exists
                 
-                           // Try to read value from file
+                           // Try to read value from segment
         try{
-          byte[] encoded = Files.readAllBytes(Paths.get(filename));
-          ret = new String(encoded);
+          ret = store.read( loc );
+          cache.put( key, ret );   // keep it for the next search
         }
         catch( Exception e ){
           ret = null;     // file-io went wrong
@@ -221,7 +337,7 @@ public final class HashFS {
                            // log info if key not found
       }
       
-      hmSemaphore.release();             // release semaphore
+      keylock.unlock();                  // unlock the key
       
       return( ret );
     } // search
@@ -229,54 +345,271 @@ public final class HashFS {
     
     
      /* ***************************************************************
-     * LinkedList<String> Range( String key1, String key2 )
+     * NavigableSet<String> Range( String key1, String key2 )
      * ---------------------------------------------------------------
      * Performs an alphanumerical range query. Returns all keys that
-     * lexicographically lie between key1 and key2.
+     * lexicographically lie between key1 and key2. The first range
+     * query builds the sorted key set of the bucket.
      * ---------------------------------------------------------------
      * Parameters:
      *   key1 ... first key
      *   key2 ... second key
      * Returns:
-     *   LinkedList<String> ... List of keys that lie 
-     *     lexicographically between key1 and key2.
+     *   NavigableSet<String> ... Sorted view of the keys that lie 
+     *     lexicographically between key1 and key2. The view follows
+     *     later inserts and deletes.
      * ---------------------------------------------------------------
-     * Thread-safe: fully (semaphores)
-     * Blocks: never
+     * Thread-safe: fully (semaphores, concurrent set)
+     * Blocks: waits on disk-io while the sorted key set is built
      * Throws: no exception thrown
      * Exploits parallelism: no
      **************************************************************** */
         
-    LinkedList<String> Range( String key1, String key2 ){
+    NavigableSet<String> Range( String key1, String key2 ){
+    
+      if (key1.compareTo( key2 ) > 0){     // empty range
+        return( Collections.emptyNavigableSet() );
+      }
+      
+      return( sortedKeys().subSet( key1, true, key2, true ) );
+    } // Range
+    
+    
+    
+    /* ***************************************************************
+     * private ConcurrentSkipListSet<String> sortedKeys()
+     * ---------------------------------------------------------------
+     * Returns the sorted key set and builds it from the index if it
+     * doesn't exist yet. The keys are taken from the index.
+     **************************************************************** */
     
-      LinkedList<String> ret = new LinkedList<String>();
-                  // initialize return value
+    private ConcurrentSkipListSet<String> sortedKeys(){
+      ConcurrentSkipListSet<String> ret = sortedkeys;
       
-      hmSemaphore.acquireUninterruptibly(); 
-                     // acquire semaphore
+      if (ret != null){
+        return( ret );
+      }
       
-      Set<String> keys = hm.keySet();
-                     // get a set of keys
+      hmSemaphore.acquireUninterruptibly();    // no insert or delete
+                                               // while building
+      try{
+        if (sortedkeys == null){
+          ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<String>();
+          
+          hm.forEachKey( keys::add );
+          sortedkeys = keys;
+        }
+        ret = sortedkeys;
+      }
+      catch( IOException e ){
+        hfslog.warning( "(" + System.currentTimeMillis() + ") Bucket " + bucketnum
+                        + ": sorted keys cannot be built: " + e );
+        ret = new ConcurrentSkipListSet<String>();   // try again next time
+      }
+      finally{
+        hmSemaphore.release();
+      }
       
-      Iterator<String> itr = keys.iterator();
-                        // create an iterator
+      return( ret );
+    } // sortedKeys
+    
+    
+    /* ***************************************************************
+     * void replay( byte type, String key, HashFSSegmentStore.Location loc )
+     * ---------------------------------------------------------------
+     * Applies a record found in a segment on startup.
+     * ---------------------------------------------------------------
+     * Parameters:
+     *   type ... type of the record
+     *   key ... key
+     *   loc ... location of the record
+     * ---------------------------------------------------------------
+     * Thread-safe: fully (semaphores)
+     * Blocks: never
+     * Throws: no exception thrown
+     * Exploits parallelism: no
+     **************************************************************** */
+    
+    void replay( byte type, String key, HashFSSegmentStore.Location loc ) throws IOException {
+      hmSemaphore.acquireUninterruptibly();
       
-                             // iterate over keys
-      while (itr.hasNext()){
-        String k = itr.next();   // get next key
-
-                          // compare keys
-        if ((k.compareTo( key1 ) >= 0) && (k.compareTo( key2 ) <= 0)){
-                      // add key to linked list
-          ret.add( new String( k ) );
+      try{
+        HashFSSegmentStore.Location old = (type == HashFSSegmentStore.PUT)
+            ? hm.put( key, loc ) : hm.remove( key );
+                                 // newer records replace older ones
+        if (old != null){
+          store.release( old );
+        }
+        if (type == HashFSSegmentStore.PUT){
+          store.countLive( loc );
         }
       }
+      finally{
+        hmSemaphore.release();
+      }
+    } // replay
+    
+    
+    
+    /* ***************************************************************
+     * boolean open()
+     * ---------------------------------------------------------------
+     * Maps the index file of the bucket. If the index was closed
+     * cleanly, the live records of the segments are counted from it.
+     * ---------------------------------------------------------------
+     * Parameters: none
+     * Returns:
+     *   boolean ... true if the index is usable, false if it has to
+     *     be rebuilt from the segments
+     * ---------------------------------------------------------------
+     * Thread-safe: no, called once
+     * Blocks: waits on disk-io
+     * Throws: IOException if the index file cannot be mapped
+     * Exploits parallelism: no
+     **************************************************************** */
+    
+    boolean open() throws IOException {
+      hm = new HashFSIndexFile( new File( store.getDirectory(), String.format( "index-%04d.hfi", bucketnum ) ),
+                                store, anzbuckets, bucketnum );
       
-      hmSemaphore.release();    // release semaphore
+      if (hm.wasClean()){
+        hm.forEach( loc -> store.countLive( loc ) );
+      }
+      return( hm.wasClean() );
+    } // open
+    
+    
+    
+    /* ***************************************************************
+     * void clear()
+     * ---------------------------------------------------------------
+     * Empties the index before it is rebuilt from the segments.
+     **************************************************************** */
+    
+    void clear(){
+      hm.clear();
+    } // clear
+    
+    
+    
+    /* ***************************************************************
+     * void close()
+     * ---------------------------------------------------------------
+     * Writes the index back and marks it as cleanly closed.
+     * ---------------------------------------------------------------
+     * Thread-safe: fully (semaphores)
+     * Blocks: waits on disk-io
+     * Throws: IOException if the index cannot be written
+     * Exploits parallelism: no
+     **************************************************************** */
+    
+    void close() throws IOException {
+      hmSemaphore.acquireUninterruptibly();
       
+      try{
+        hm.close();
+      }
+      finally{
+        hmSemaphore.release();
+      }
+    } // close
+    
+    
+    
+    /* ***************************************************************
+     * private helpers, lookup and contains acquire the semaphore
+     **************************************************************** */
+    
+    private HashFSSegmentStore.Location lookup( String key ){
+      hmSemaphore.acquireUninterruptibly();
+      try{
+        return( hm.get( key ) );
+      }
+      catch( IOException e ){
+        return( null );             // key cannot be verified
+      }
+      finally{
+        hmSemaphore.release();
+      }
+    } // lookup
+    
+    
+    private boolean contains( String key ){
+      hmSemaphore.acquireUninterruptibly();
+      try{
+        return( hm.get( key ) != null );
+      }
+      catch( IOException e ){
+        return( true );             // unknown -> do not overwrite
+      }
+      finally{
+        hmSemaphore.release();
+      }
+    } // contains
+    
+    
+    private ReentrantReadWriteLock keylock( String key ){
+      int h = key.hashCode() * 0x9E3779B9;   // other bits than the
+                                             // bucket number
+      return( keylocks[ (h >>> 16) & (KEYSTRIPES - 1) ] );
+    } // keylock
+    
+    
+    
+    /* ***************************************************************
+     * void relocate( byte type, String key, String val,
+     *                HashFSSegmentStore.Location loc, boolean oldest )
+     * ---------------------------------------------------------------
+     * Called by the compactor for every record of a segment which is
+     * going to be deleted. A put record which is still referenced is
+     * appended again and the key is moved to the new record. A delete
+     * record is appended again while the key is absent, because an
+     * older segment may still hold a put record of the key. Delete
+     * records in the oldest segment are dropped. The key is locked,
+     * so no insert or delete of the key runs meanwhile.
+     * ---------------------------------------------------------------
+     * Parameters:
+     *   type ... type of the record
+     *   key ... key
+     *   val ... value of a put record
+     *   loc ... location of the record
+     *   oldest ... true if no older segment exists
+     * ---------------------------------------------------------------
+     * Thread-safe: fully (key locks, semaphores)
+     * Blocks: waits on disk-io
+     * Throws: IOException if the record cannot be appended
+     * Exploits parallelism: no
+     **************************************************************** */
+    
+    void relocate( byte type, String key, String val, HashFSSegmentStore.Location loc,
+                   boolean oldest ) throws IOException {
+      Lock keylock = keylock( key ).writeLock();
+      keylock.lock();
       
-      return( ret );
-    } // Range
+      try{
+        HashFSSegmentStore.Location current = lookup( key );
+        
+        if (type == HashFSSegmentStore.PUT){
+          if (loc.equals( current )){     // still referenced ?
+            HashFSSegmentStore.Location moved = store.append( HashFSSegmentStore.PUT, key, val );
+            
+            hmSemaphore.acquireUninterruptibly();
+            try{
+              hm.put( key, moved );
+            }
+            finally{
+              hmSemaphore.release();
+            }
+          }
+        }
+        else if (!oldest && (current == null)){
+          store.append( HashFSSegmentStore.DELETE, key, null );
+        }
+      }
+      finally{
+        keylock.unlock();
+      }
+    } // relocate
     
     
     /* ***************************************************************
@@ -295,8 +628,11 @@ public final class HashFS {
    
     HashBucket( int num ){
                                // initialize attributes
-      hm = new HashMap<String,String>();
       hmSemaphore = new Semaphore( 1 );
+      keylocks = new ReentrantReadWriteLock[ KEYSTRIPES ];
+      for( int i = 0; i<KEYSTRIPES; i++ ){
+        keylocks[i] = new ReentrantReadWriteLock();
+      }
       bucketnum = num;
     } // HashBucket
   }  // HashBucket
@@ -312,28 +648,59 @@ public final class HashFS {
 
   private int anzbuckets = -1;    // number of buckets (RO)
   
-  private static final String rndchars = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
-                  // chars that may be used for key generation (RO)
-                  
-  private final SecureRandom rnd = new SecureRandom();
-                       // a random generator (RO)
+  private volatile HashFSKeyGenerator keygen = new HashFSTimeKeyGenerator();
+                  // creates the keys if the client doesn't provide
+                  // a key (RW)
   
   private HashBucket[] HashBucketArray = null;
                          // An array of HashBuckets (RO)            
   
-  private static final int KEYLENGTH = 64;
-                     // Length of a created key (RO)
+  private static final long SEGMENTSIZE = 64L * 1024 * 1024;
+                     // Default size at which a segment is sealed (RO)
+
+  private static final long COMPACTIONINTERVAL = 10000;
+                     // Milliseconds between two compactor runs (RO)
+
+  private static final double MINLIVERATIO = 0.5;
+                     // Segments with less live data are compacted (RO)
+
+  private static final int KEYSTRIPES = 64;
+                     // Number of key locks per bucket, a power of 2 (RO)
+
+  private static final int KEYATTEMPTS = 8;
+                     // Generated keys tried by insert( val ) (RO)
+
+  private HashFSSegmentStore store = null;
+                     // The segment files of all buckets (RO)
+
+  private ScheduledExecutorService compactor = null;
+                     // Background thread of the compactor (RO)
+
+  private static final long CACHESIZE = 16L * 1024 * 1024;
+                     // Default budget of the value cache in bytes (RO)
+
+  private HashFSValueCache cache = null;
+                     // Values of frequently read keys (RO)
+
+  private static final long SYNCINTERVAL = 50000;
+                     // Microseconds between two forces in PERIODIC
+                     // mode (RO)
+
+  private static final long GROUPCOMMITWINDOW = 1000;
+                     // Microseconds a group commit waits for more
+                     // writes (RO)
 
   
   
   /* *****************************************************************
-   * private String createKey()
+   * public void setKeyGenerator( HashFSKeyGenerator generator )
    * -----------------------------------------------------------------
-   * Creates a new random key if the client doesn't provide a key.
+   * Replaces the generator of the keys created by insert( val ).
+   * The default is a HashFSTimeKeyGenerator.
    * -----------------------------------------------------------------
-   * Parameters: none
-   * Returns:
-   *   String ... a key with exacly KEYLENGTH chars.
+   * Parameters: 
+   *   HashFSKeyGenerator generator ... new key generator
+   * Returns: nothing
    * -----------------------------------------------------------------
    * Thread-safe: fully
    * Blocks: never
@@ -341,24 +708,14 @@ public final class HashFS {
    * Exploits parallelism: no
    ****************************************************************** */
   
-  private String createKey(){
-
-   StringBuilder sb = new StringBuilder( KEYLENGTH );
-                 // Create a string builder
-   
-   for( int i = 0; i < KEYLENGTH; i++ ) {
-      sb.append( rndchars.charAt( rnd.nextInt( rndchars.length() ) ) );
-               // Append random chars
-   }                
-   
-   return sb.toString();  // return key
-
-  }  // createKey
+  public void setKeyGenerator( HashFSKeyGenerator generator ){
+    keygen = Objects.requireNonNull( generator );
+  }  // setKeyGenerator
   
   
   
   /* *****************************************************************
-   * private int getBucket( String key )
+   * public int getBucket( String key )
    * -----------------------------------------------------------------
    * Returns a bucket associated with the key. The bucket number
    * is calculated from a modulo operation of the absolute of a
@@ -375,7 +732,7 @@ public final class HashFS {
    * Exploits parallelism: no
    ****************************************************************** */
   
-  private int getBucket( String key ) {
+  public int getBucket( String key ) {
     return (Math.abs(key.hashCode()))%anzbuckets;
             // Calculate and return bucket number
   } // getBucket
@@ -384,34 +741,37 @@ public final class HashFS {
   /* *****************************************************************
    * public String insert( String val )
    * -----------------------------------------------------------------
-   * Inserts a value. Random key will be created. 
+   * Inserts a value. A new key is taken from the key generator. If
+   * the key already exists, e.g. it was generated before a restart,
+   * the next key is tried, up to KEYATTEMPTS keys.
    * -----------------------------------------------------------------
    * Parameters: 
    *   String val ... value
    * Returns:
-   *   String ... key associated with value
+   *   String ... key associated with value, null if the value
+   *     could not be stored
    * -----------------------------------------------------------------
    * Thread-safe: fully
-   * Blocks: never
+   * Blocks: waits on disk-io
    * Throws: no exception thrown
    * Exploits parallelism: no
    ****************************************************************** */
   
   public String insert( String val ){
   
-    String ret = "";                  // initialize return value
-    boolean weiter = false;           // initialize loop variable
-    
-    while (weiter == false){       // repeat until value has been
-                                     // inserted
-      ret = createKey();            // create a key
-      int buc = getBucket( ret );     // get bucket
-      weiter = HashBucketArray[buc].insert( ret, val );
-                      // try to store, if key already exists repeat
-                      // procedure
-    }
+    for( int i = 0; i < KEYATTEMPTS; i++ ){
+      String key = keygen.nextKey();  // create a key
+      HashBucket bucket = HashBucketArray[ getBucket( key ) ];
+
+      if (bucket.insert( key, val )){
+        return( key );                // stored -> return key
+      }
+      if (!bucket.contains( key )){
+        return( null );               // storage operation failed
+      }
+    }                                 // key taken -> try the next
     
-    return( ret );         // return key
+    return( null );        // no free key found
   }  // insert
   
 
@@ -443,6 +803,28 @@ public final class HashFS {
   } // insert
   
   
+  /* *****************************************************************
+   * public boolean update( String key, String val )
+   * -----------------------------------------------------------------
+   * Stores a key/value pair, replacing the value of an existing key.
+   * -----------------------------------------------------------------
+   * Parameters: 
+   *   String key ... key
+   *   String val ... value
+   * Returns:
+   *   Boolean ... false if the pair could not be stored, true else
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   ****************************************************************** */
+
+  public boolean update( String key, String val ){
+    return HashBucketArray[ getBucket( key ) ].update( key, val );
+  } // update
+  
+  
   /* *****************************************************************
    * public boolean delete( String key )
    * -----------------------------------------------------------------
@@ -496,28 +878,248 @@ public final class HashFS {
    *   String key2 ... second key
    * Returns:
    *   String[] ... An array with all keys in all buckets that lie
-   *     lexicographically between key1 and key2.
+   *     lexicographically between key1 and key2, in sorted order.
    * -----------------------------------------------------------------
    * Thread-safe: fully
-   * Blocks: never
+   * Blocks: waits on disk-io while the sorted keys are built
    * Throws: no exception thrown
-   * Exploits parallelism: no
+   * Exploits parallelism: yes, see rangeIterator
    ****************************************************************** */
 
   public String[] Range( String key1, String key2 ){
-    LinkedList<String> ll = new LinkedList<String>();
+    return( Range( key1, key2, 0 ) );
+  } // Range
+
+
+  /* *****************************************************************
+   * public String[] Range( String key1, String key2, int limit )
+   * -----------------------------------------------------------------
+   * Returns at most limit keys of a lexicographical range query.
+   * -----------------------------------------------------------------
+   * Parameters: 
+   *   String key1 ... first key
+   *   String key2 ... second key
+   *   int limit ... maximum number of keys, 0 for all keys
+   * Returns:
+   *   String[] ... The first keys in sorted order that lie
+   *     lexicographically between key1 and key2.
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io while the sorted keys are built
+   * Throws: no exception thrown
+   * Exploits parallelism: yes, see rangeIterator
+   ****************************************************************** */
+
+  public String[] Range( String key1, String key2, int limit ){
+    ArrayList<String> al = new ArrayList<String>();
                 // This list will collect all keys
     
-    for( int i = 0; i<anzbuckets; i++ ){
-      ll.addAll( HashBucketArray[ i ].Range( key1, key2 ) );
-                    // Check in all buckets for relevant keys
+    Iterator<String> itr = rangeIterator( key1, key2, limit );
+    while (itr.hasNext()){
+      al.add( itr.next() );
     }
     
-    return( ll.toArray( new String[0] ) );
-           // Convert linked list to array and return it.
+    return( al.toArray( new String[0] ) );
+           // Convert list to array and return it.
   } // Range
 
+
+  /* *****************************************************************
+   * public Iterator<String> rangeIterator( String key1, String key2,
+   *   int limit )
+   * -----------------------------------------------------------------
+   * Streams the result of a lexicographical range query. The sorted
+   * key sets of the buckets are prepared in parallel, then their
+   * range views are merged by a k-way merge: a heap holds the next
+   * key of every bucket, so each key costs O(log anzbuckets) and
+   * only as many keys are visited as are taken from the iterator.
+   * -----------------------------------------------------------------
+   * Parameters: 
+   *   String key1 ... first key
+   *   String key2 ... second key
+   *   int limit ... maximum number of keys, 0 for all keys
+   * Returns:
+   *   Iterator<String> ... keys between key1 and key2 in sorted
+   *     order. Keys inserted or deleted while iterating may or may
+   *     not be returned.
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io while the sorted keys are built
+   * Throws: no exception thrown
+   * Exploits parallelism: yes, the buckets are prepared in parallel
+   ****************************************************************** */
+
+  public Iterator<String> rangeIterator( String key1, String key2, int limit ){
+    List<NavigableSet<String>> views = Arrays.stream( HashBucketArray ).parallel()
+        .map( b -> b.Range( key1, key2 ) )
+        .collect( Collectors.toList() );
+                  // the first query builds the sorted keys of every
+                  // bucket, this is done in parallel
+    
+    return( new MergeIterator( views, (limit > 0) ? limit : Integer.MAX_VALUE ) );
+  } // rangeIterator
+
+
+  /* *****************************************************************
+   * private static class MergeIterator
+   * -----------------------------------------------------------------
+   * k-way merge of sorted key sets. Every heap entry holds the next
+   * key of one set and the iterator of that set.
+   ****************************************************************** */
+
+  private static final class MergeIterator implements Iterator<String> {
+
+    private final PriorityQueue<Map.Entry<String,Iterator<String>>> heap;
+    private int remaining;          // keys left until the limit
+
+    MergeIterator( List<NavigableSet<String>> sets, int limit ){
+      heap = new PriorityQueue<Map.Entry<String,Iterator<String>>>( Math.max( 1, sets.size() ),
+                                                                   Map.Entry.comparingByKey() );
+      remaining = limit;
+      
+      for( NavigableSet<String> set : sets ){
+        advance( set.iterator() );
+      }
+    }
+
+    @Override
+    public boolean hasNext(){
+      return( (remaining > 0) && !heap.isEmpty() );
+    }
+
+    @Override
+    public String next(){
+      if (!hasNext()){
+        throw new NoSuchElementException();
+      }
+      
+      Map.Entry<String,Iterator<String>> head = heap.poll();
+      advance( head.getValue() );    // next key of the same set
+      remaining--;
+      
+      return( head.getKey() );
+    }
+
+    private void advance( Iterator<String> itr ){
+      if (itr.hasNext()){
+        heap.add( new AbstractMap.SimpleImmutableEntry<String,Iterator<String>>( itr.next(), itr ) );
+      }
+    }
+  } // MergeIterator
+
   
+  /* *****************************************************************
+   * public long getCacheHits() / getCacheMisses() /
+   *   getCacheEvictions()
+   * -----------------------------------------------------------------
+   * Counters of the value cache: searches answered from the cache,
+   * searches which had to read the segments and values dropped
+   * from the cache to stay within its budget.
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   ****************************************************************** */
+
+  public long getCacheHits(){
+    return( cache.getHits() );
+  } // getCacheHits
+
+  public long getCacheMisses(){
+    return( cache.getMisses() );
+  } // getCacheMisses
+
+  public long getCacheEvictions(){
+    return( cache.getEvictions() );
+  } // getCacheEvictions
+
+  
+  /* *****************************************************************
+   * public void compact()
+   * -----------------------------------------------------------------
+   * Compacts every sealed segment whose share of live data is below
+   * MINLIVERATIO. The live records are appended to the active segment
+   * and forced to disk, then the old segment is deleted, whatever the
+   * durability mode. Runs periodically in the background, but may
+   * also be called directly.
+   * -----------------------------------------------------------------
+   * Parameters: none
+   * Returns: nothing
+   * -----------------------------------------------------------------
+   * Thread-safe: fully (one compaction at a time)
+   * Blocks: waits on disk-io
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   ****************************************************************** */
+
+  public synchronized void compact(){
+    List<Integer> segments = store.segments();
+    int active = store.activeSegment();
+    
+    for( int id : segments ){
+      if ((id == active) || (store.liveRatio( id ) >= MINLIVERATIO)){
+        continue;               // active or still mostly live -> keep
+      }
+      
+      boolean oldest = (id == store.segments().get( 0 ));
+      int target = store.activeSegment();
+      
+      try{
+        store.scan( id, (type, key, val, loc) -> {
+          try{
+            HashBucketArray[ getBucket( key ) ].relocate( type, key, val, loc, oldest );
+          }
+          catch( IOException e ){
+            throw new UncheckedIOException( e );
+          }
+        } );
+        store.force( target );  // moved records durable first
+        store.remove( id );     // all live records moved -> delete
+        
+        hfslog.info( "(" + System.currentTimeMillis() + ") Segment " + id + " has been compacted" );
+      }
+      catch( IOException | UncheckedIOException e ){
+        hfslog.warning( "(" + System.currentTimeMillis() + ") Segment " + id
+                        + " could not be compacted: " + e );
+                        // keep the segment, try again next time
+      }
+    }
+  } // compact
+
+
+  /* *****************************************************************
+   * public void close()
+   * -----------------------------------------------------------------
+   * Stops the compactor and closes the segment files.
+   * -----------------------------------------------------------------
+   * Parameters: none
+   * Returns: nothing
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits for a running compaction
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   ****************************************************************** */
+
+  public void close(){
+    compactor.shutdownNow();
+    
+    synchronized (this){           // wait for a running compaction
+      for( int i = 0; i<anzbuckets; i++ ){
+        try{
+          HashBucketArray[i].close();   // mark indexes clean
+        }
+        catch( IOException e ){
+          hfslog.warning( "(" + System.currentTimeMillis() + ") Index of bucket " + i
+                          + " could not be closed: " + e );
+        }
+      }
+      store.close();
+    }
+  } // close
+
+
   /* *****************************************************************
    * constructor HashFS( int num, String fs )
    * -----------------------------------------------------------------
@@ -528,12 +1130,86 @@ public final class HashFS {
    *   String fs ... Path where to store files
    * -----------------------------------------------------------------
    * Thread-safe: fully
-   * Blocks: never
-   * Throws: no exception thrown
+   * Blocks: waits on disk-io
+   * Throws: UncheckedIOException if the segments cannot be opened
    * Exploits parallelism: no
    ****************************************************************** */
   
   public HashFS( int num, String fs ) {
+    this( num, fs, SEGMENTSIZE );
+  } // HashFS
+
+
+  /* *****************************************************************
+   * constructor HashFS( int num, String fs, long segmentsize )
+   * -----------------------------------------------------------------
+   * Initializes a hash based storage with a value cache of
+   * CACHESIZE bytes.
+   * -----------------------------------------------------------------
+   * Parameters:
+   *   int num ... unique number of buckets to be used
+   *   String fs ... Path where to store the segment files
+   *   long segmentsize ... size at which a segment is sealed
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: UncheckedIOException if the segments cannot be opened
+   * Exploits parallelism: no
+   ****************************************************************** */
+  
+  public HashFS( int num, String fs, long segmentsize ) {
+    this( num, fs, segmentsize, CACHESIZE );
+  } // HashFS
+
+
+  /* *****************************************************************
+   * constructor HashFS( int num, String fs, long segmentsize,
+   *   long cachesize )
+   * -----------------------------------------------------------------
+   * Initializes a hash based storage whose writes are not forced
+   * to disk.
+   * -----------------------------------------------------------------
+   * Parameters:
+   *   int num ... unique number of buckets to be used
+   *   String fs ... Path where to store the segment files
+   *   long segmentsize ... size at which a segment is sealed
+   *   long cachesize ... bytes of the value cache, 0 disables it
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: UncheckedIOException if the segments cannot be opened
+   * Exploits parallelism: no
+   ****************************************************************** */
+  
+  public HashFS( int num, String fs, long segmentsize, long cachesize ) {
+    this( num, fs, segmentsize, cachesize, HashFSDurability.NONE );
+  } // HashFS
+
+
+  /* *****************************************************************
+   * constructor HashFS( int num, String fs, long segmentsize,
+   *   long cachesize, HashFSDurability durability )
+   * -----------------------------------------------------------------
+   * Initializes a hash based storage. The data stored before in fs
+   * is available again; the indexes are mapped, or rebuilt from the
+   * segments if HashFS was not closed cleanly.
+   * -----------------------------------------------------------------
+   * Parameters:
+   *   int num ... unique number of buckets to be used
+   *   String fs ... Path where to store the segment files
+   *   long segmentsize ... size at which a segment is sealed
+   *   long cachesize ... bytes of the value cache, 0 disables it
+   *   HashFSDurability durability ... when inserts and deletes are
+   *     forced to disk
+   * -----------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: UncheckedIOException if the segments cannot be opened
+   * Exploits parallelism: no
+   ****************************************************************** */
+  
+  public HashFS( int num, String fs, long segmentsize, long cachesize,
+                 HashFSDurability durability ) {
   
     hfslog.info( "(" + System.currentTimeMillis() + ") HashFS is beeing initialized (" + num + " buckets)" );
                       // log info
@@ -545,11 +1221,55 @@ public final class HashFS {
     
     fspath = new String( fs );             // save copy(!) of path
     
+    cache = new HashFSValueCache( cachesize );   // create the cache
+    
     for( int i = 0; i<anzbuckets; i++ ){
       HashBucketArray[i] = new HashBucket( i );
                                          // initialize every bucket
     }
     
+    try{
+      store = new HashFSSegmentStore( new File( fspath.isEmpty() ? "." : fspath ), segmentsize, durability,
+                                      (durability == HashFSDurability.PERIODIC) ? SYNCINTERVAL : GROUPCOMMITWINDOW );
+                                         // open the segments
+      boolean clean = true;
+      for( int i = 0; i<anzbuckets; i++ ){
+        clean &= HashBucketArray[i].open();   // map the indexes
+      }
+      
+      if (!clean){             // not closed cleanly -> rebuild the
+                               // indexes from the segments
+        hfslog.info( "(" + System.currentTimeMillis() + ") HashFS index is rebuilt from the segments" );
+        
+        for( int i = 0; i<anzbuckets; i++ ){
+          HashBucketArray[i].clear();
+        }
+        store.resetLive();
+        for( int id : store.segments() ){
+          store.scan( id, (type, key, val, loc) -> {
+            try{
+              HashBucketArray[ getBucket( key ) ].replay( type, key, loc );
+            }
+            catch( IOException e ){
+              throw new UncheckedIOException( e );
+            }
+          } );
+        }
+      }
+    }
+    catch( IOException e ){
+      throw new UncheckedIOException( e );
+    }
+    
+    compactor = Executors.newSingleThreadScheduledExecutor( r -> {
+      Thread t = new Thread( r, "HashFS-compactor" );
+      t.setDaemon( true );
+      return( t );
+    } );
+    compactor.scheduleWithFixedDelay( this::compact, COMPACTIONINTERVAL, COMPACTIONINTERVAL,
+                                      TimeUnit.MILLISECONDS );
+                                        // start the compactor
+    
     hfslog.info( "(" +System.currentTimeMillis() + ") HashFS has been initialized" );    
                                         // log info
   } // HashFS
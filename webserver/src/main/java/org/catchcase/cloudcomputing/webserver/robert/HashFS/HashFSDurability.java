@@ -0,0 +1,24 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+/* *******************************************************************
+ * enum HashFSDurability
+ * -------------------------------------------------------------------
+ * When the records appended by insert and delete are forced to disk.
+ * -------------------------------------------------------------------
+ * NONE ......... never, the operating system decides. Fastest, a
+ *                crash of the machine may lose recent writes.
+ * PERIODIC ..... a background thread forces the active segment every
+ *                few milliseconds, only the writes since the last
+ *                force may be lost.
+ * GROUP_COMMIT . insert and delete return only after their record has
+ *                been forced. Writes arriving within a short window
+ *                share one force.
+ * A segment is always forced when it is sealed, unless the mode is
+ * NONE.
+ ******************************************************************** */
+
+public enum HashFSDurability {
+  NONE,
+  PERIODIC,
+  GROUP_COMMIT
+} // HashFSDurability
@@ -0,0 +1,538 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+/* *******************************************************************
+ * class HashFSIndexFile
+ * -------------------------------------------------------------------
+ * Persistent key index of one HashBucket. Maps a key to the location
+ * of its record in the segment files.
+ * -------------------------------------------------------------------
+ * The index is an open addressing hash table with linear probing in
+ * a memory-mapped file, so it is available right after the file has
+ * been mapped and does not occupy the heap. A slot holds a 64-bit
+ * hash of the key, the location of the record and the UTF-8 bytes of
+ * the key, so a lookup compares keys without reading any record.
+ * Only a key longer than KEYBYTES keeps just its first bytes in the
+ * slot; it is read from the record if hash, length and these bytes
+ * match. Removing a key shifts the following slots of
+ * its probe sequence back, so no tombstones are left behind. When
+ * the table is filled to MAXLOAD it is rewritten with twice the
+ * capacity.
+ * File layout:
+ *   int magic, int version, int buckets, int bucketnum,
+ *   int capacity, int size, int clean, int reserved,
+ *   capacity slots of (long hash, int segment, int size, long offset,
+ *   int keylength, KEYBYTES bytes of the key)
+ * The clean flag is cleared when the file is opened and set again by
+ * close(). An index which was not closed cleanly is rebuilt from the
+ * segments by HashFS.
+ ******************************************************************** */
+
+                                       // Import packages
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+
+final class HashFSIndexFile {
+
+  /* *****************************************************************
+   * inner interface LocationVisitor
+   * -----------------------------------------------------------------
+   * Receives the locations of all keys of the index.
+   ****************************************************************** */
+
+  interface LocationVisitor {
+    void visit( HashFSSegmentStore.Location loc ) throws IOException;
+  }
+
+
+  /* *****************************************************************
+   * inner interface KeyVisitor
+   * -----------------------------------------------------------------
+   * Receives all keys of the index.
+   ****************************************************************** */
+
+  interface KeyVisitor {
+    void visit( String key ) throws IOException;
+  }
+
+
+  private static final int MAGIC = 0x48465349;   // "HFSI"
+  private static final int VERSION = 2;
+  private static final int HEADERSIZE = 32;
+  private static final int SLOTSIZE = 64;
+  private static final int KEYPOS = 24;           // position of the key
+                                                  // length in a slot
+  private static final int KEYBYTES = SLOTSIZE - KEYPOS - 4;
+                                                  // key bytes in a slot
+  private static final int MINCAPACITY = 1024;
+  private static final double MAXLOAD = 0.7;
+  private static final int SIZEPOS = 20;          // position of size
+  private static final int CLEANPOS = 24;         // position of clean
+
+  private File file = null;             // the index file (RO)
+  private HashFSSegmentStore store = null;   // to read long keys (RO)
+  private int buckets = 0;              // number of buckets (RO)
+  private int bucketnum = 0;            // number of the bucket (RO)
+
+  private FileChannel channel = null;   // channel of the index file
+  private MappedByteBuffer map = null;  // the mapped index file
+  private int capacity = 0;             // number of slots
+  private int mask = 0;                 // capacity - 1
+  private int size = 0;                 // number of keys
+  private boolean clean = false;        // was closed cleanly
+
+
+
+  /* ***************************************************************
+   * constructor HashFSIndexFile( File file, HashFSSegmentStore store,
+   *                              int buckets, int bucketnum )
+   * ---------------------------------------------------------------
+   * Maps an existing index file or creates an empty one. An existing
+   * file of another bucket layout is replaced by an empty one and
+   * reported as not clean.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   file ... the index file
+   *   store ... segments to read keys longer than KEYBYTES from
+   *   buckets ... number of buckets of HashFS
+   *   bucketnum ... number of the bucket
+   * ---------------------------------------------------------------
+   * Thread-safe: no, called once
+   * Blocks: waits on disk-io
+   * Throws: IOException if the file cannot be mapped
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  HashFSIndexFile( File file, HashFSSegmentStore store, int buckets, int bucketnum ) throws IOException {
+    this.file = file;
+    this.store = store;
+    this.buckets = buckets;
+    this.bucketnum = bucketnum;
+
+    if (file.exists() && (file.length() >= HEADERSIZE)){
+      channel = FileChannel.open( file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE );
+      map = channel.map( FileChannel.MapMode.READ_WRITE, 0, channel.size() );
+
+      boolean valid = (map.getInt( 0 ) == MAGIC) && (map.getInt( 4 ) == VERSION)
+          && (map.getInt( 8 ) == buckets) && (map.getInt( 12 ) == bucketnum)
+          && ((long) HEADERSIZE + (long) map.getInt( 16 ) * SLOTSIZE == channel.size());
+
+      if (valid){
+        capacity = map.getInt( 16 );
+        mask = capacity - 1;
+        size = map.getInt( SIZEPOS );
+        clean = (map.getInt( CLEANPOS ) == 1);
+      }
+      else{
+        channel.close();
+        map = null;
+      }
+    }
+
+    if (map == null){                 // missing or unknown -> create
+      clean = false;
+      create( MINCAPACITY );
+    }
+
+    map.putInt( CLEANPOS, 0 );         // dirty until closed
+    map.force();
+  } // HashFSIndexFile
+
+
+
+  /* ***************************************************************
+   * boolean wasClean()
+   * ---------------------------------------------------------------
+   * Returns:
+   *   boolean ... true if the index was closed cleanly before it
+   *     has been opened
+   **************************************************************** */
+
+  boolean wasClean(){
+    return( clean );
+  } // wasClean
+
+
+
+  /* ***************************************************************
+   * HashFSSegmentStore.Location get( String key )
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   key ... key
+   * Returns:
+   *   Location ... location of the record of the key, null if the
+   *     key doesn't exist
+   * ---------------------------------------------------------------
+   * Thread-safe: no, guarded by the bucket
+   * Blocks: reads the key of a record only if it is longer than
+   *   KEYBYTES and its slot matches
+   * Throws: IOException if a key cannot be read
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  HashFSSegmentStore.Location get( String key ) throws IOException {
+    byte[] kb = key.getBytes( StandardCharsets.UTF_8 );
+    int i = find( key, kb, hash( key ) );
+
+    return( (i < 0) ? null : location( i ) );
+  } // get
+
+
+
+  /* ***************************************************************
+   * HashFSSegmentStore.Location put( String key,
+   *                                  HashFSSegmentStore.Location loc )
+   * ---------------------------------------------------------------
+   * Stores the location of a key, replacing an existing one.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   key ... key
+   *   loc ... location of the record of the key
+   * Returns:
+   *   Location ... the previous location, null if the key is new
+   * ---------------------------------------------------------------
+   * Thread-safe: no, guarded by the bucket
+   * Blocks: waits on disk-io only if the table is grown or a long
+   *   key is read
+   * Throws: IOException if a key cannot be read or the table cannot
+   *   be grown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  HashFSSegmentStore.Location put( String key, HashFSSegmentStore.Location loc ) throws IOException {
+    byte[] kb = key.getBytes( StandardCharsets.UTF_8 );
+    long h = hash( key );
+    int i = find( key, kb, h );
+
+    if (i >= 0){                        // existing key -> replace
+      HashFSSegmentStore.Location old = location( i );
+      writeSlot( i, h, loc );
+      return( old );
+    }
+
+    if (size + 1 > capacity * MAXLOAD){
+      grow();                           // table full -> grow
+    }
+
+    i = slot( h );
+    while (map.getLong( offset( i ) ) != 0){
+      i = (i + 1) & mask;               // find a free slot
+    }
+    writeKey( i, kb );
+    writeSlot( i, h, loc );
+    map.putInt( SIZEPOS, ++size );
+
+    return( null );
+  } // put
+
+
+
+  /* ***************************************************************
+   * HashFSSegmentStore.Location remove( String key )
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   key ... key which should be removed
+   * Returns:
+   *   Location ... the removed location, null if the key doesn't
+   *     exist
+   * ---------------------------------------------------------------
+   * Thread-safe: no, guarded by the bucket
+   * Blocks: reads the key of a record only if it is longer than
+   *   KEYBYTES and its slot matches
+   * Throws: IOException if a key cannot be read
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  HashFSSegmentStore.Location remove( String key ) throws IOException {
+    byte[] kb = key.getBytes( StandardCharsets.UTF_8 );
+    int i = find( key, kb, hash( key ) );
+
+    if (i < 0){
+      return( null );
+    }
+
+    HashFSSegmentStore.Location old = location( i );
+    int free = i;                       // shift the following slots
+                                        // of the run back
+    while (true){
+      i = (i + 1) & mask;
+      long h = map.getLong( offset( i ) );
+      if (h == 0){
+        break;
+      }
+      int home = slot( h );
+      boolean movable = (i > free) ? ((home <= free) || (home > i))
+                                   : ((home <= free) && (home > i));
+      if (movable){
+        copySlot( map, offset( i ), free );
+        free = i;
+      }
+    }
+    map.putLong( offset( free ), 0 );
+    map.putInt( SIZEPOS, --size );
+
+    return( old );
+  } // remove
+
+
+
+  /* ***************************************************************
+   * int size()
+   * ---------------------------------------------------------------
+   * Returns:
+   *   int ... number of keys
+   **************************************************************** */
+
+  int size(){
+    return( size );
+  } // size
+
+
+
+  /* ***************************************************************
+   * void forEach( LocationVisitor visitor )
+   * ---------------------------------------------------------------
+   * Visits the location of every key in slot order.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   visitor ... receives the locations
+   * ---------------------------------------------------------------
+   * Thread-safe: no, guarded by the bucket
+   * Blocks: never
+   * Throws: IOException if the visitor throws it
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void forEach( LocationVisitor visitor ) throws IOException {
+    for( int i = 0; i < capacity; i++ ){
+      if (map.getLong( offset( i ) ) != 0){
+        visitor.visit( location( i ) );
+      }
+    }
+  } // forEach
+
+
+
+  /* ***************************************************************
+   * void forEachKey( KeyVisitor visitor )
+   * ---------------------------------------------------------------
+   * Visits every key in slot order. Only keys longer than KEYBYTES
+   * are read from their records.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   visitor ... receives the keys
+   * ---------------------------------------------------------------
+   * Thread-safe: no, guarded by the bucket
+   * Blocks: reads long keys only
+   * Throws: IOException if a key cannot be read or the visitor
+   *   throws it
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void forEachKey( KeyVisitor visitor ) throws IOException {
+    for( int i = 0; i < capacity; i++ ){
+      if (map.getLong( offset( i ) ) != 0){
+        int length = map.getInt( offset( i ) + KEYPOS );
+        if (length <= KEYBYTES){
+          byte[] kb = new byte[ length ];
+          for( int b = 0; b < length; b++ ){
+            kb[b] = map.get( offset( i ) + KEYPOS + 4 + b );
+          }
+          visitor.visit( new String( kb, StandardCharsets.UTF_8 ) );
+        }
+        else{
+          visitor.visit( store.readKey( location( i ) ) );
+        }
+      }
+    }
+  } // forEachKey
+
+
+
+  /* ***************************************************************
+   * void clear()
+   * ---------------------------------------------------------------
+   * Removes all keys, used before the index is rebuilt.
+   * ---------------------------------------------------------------
+   * Thread-safe: no, guarded by the bucket
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void clear(){
+    for( int i = 0; i < capacity; i++ ){
+      map.putLong( offset( i ), 0 );
+    }
+    size = 0;
+    map.putInt( SIZEPOS, 0 );
+  } // clear
+
+
+
+  /* ***************************************************************
+   * void close()
+   * ---------------------------------------------------------------
+   * Writes the mapped table back and marks it as clean.
+   * ---------------------------------------------------------------
+   * Thread-safe: no, guarded by the bucket
+   * Blocks: waits on disk-io
+   * Throws: IOException if the file cannot be written
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void close() throws IOException {
+    map.force();                        // table first,
+    map.putInt( CLEANPOS, 1 );          // then the clean flag
+    map.force();
+    channel.close();
+  } // close
+
+
+
+  /* ***************************************************************
+   * private helpers
+   **************************************************************** */
+
+  private int find( String key, byte[] kb, long h ) throws IOException {
+    for( int i = slot( h ); ; i = (i + 1) & mask ){
+      long slothash = map.getLong( offset( i ) );
+      if (slothash == 0){
+        return( -1 );                   // free slot -> not found
+      }
+      if ((slothash == h) && matches( i, kb )){
+        if ((kb.length <= KEYBYTES) || key.equals( store.readKey( location( i ) ) )){
+          return( i );                  // only long keys are read
+        }
+      }
+    }
+  } // find
+
+
+  private boolean matches( int i, byte[] kb ){
+    int pos = offset( i ) + KEYPOS;
+    if (map.getInt( pos ) != kb.length){
+      return( false );
+    }
+    for( int b = 0; b < Math.min( kb.length, KEYBYTES ); b++ ){
+      if (map.get( pos + 4 + b ) != kb[b]){
+        return( false );
+      }
+    }
+    return( true );
+  } // matches
+
+
+  private void writeKey( int i, byte[] kb ){
+    int pos = offset( i ) + KEYPOS;
+    map.putInt( pos, kb.length );
+    for( int b = 0; b < Math.min( kb.length, KEYBYTES ); b++ ){
+      map.put( pos + 4 + b, kb[b] );
+    }
+  } // writeKey
+
+
+  private void copySlot( ByteBuffer from, int pos, int i ){
+    int to = offset( i );
+    for( int b = 8; b < SLOTSIZE; b++ ){  // hash last, it marks the
+      map.put( to + b, from.get( pos + b ) );   // slot as used
+    }
+    map.putLong( to, from.getLong( pos ) );
+  } // copySlot
+
+
+  private void grow() throws IOException {
+    MappedByteBuffer old = map;
+    FileChannel oldchannel = channel;
+    int oldcapacity = capacity;
+    File tmp = new File( file.getPath() + ".tmp" );
+
+    channel = FileChannel.open( tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                StandardOpenOption.READ, StandardOpenOption.WRITE );
+    setup( oldcapacity * 2 );
+
+    for( int i = 0; i < oldcapacity; i++ ){   // rehash with the
+      int pos = HEADERSIZE + i * SLOTSIZE;    // stored hashes
+      long h = old.getLong( pos );
+      if (h != 0){
+        int j = slot( h );
+        while (map.getLong( offset( j ) ) != 0){
+          j = (j + 1) & mask;
+        }
+        copySlot( old, pos, j );
+      }
+    }
+    map.putInt( SIZEPOS, size );
+    map.force();
+
+    oldchannel.close();
+    Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+  } // grow
+
+
+  private void create( int cap ) throws IOException {
+    channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                StandardOpenOption.READ, StandardOpenOption.WRITE );
+    setup( cap );
+    size = 0;
+  } // create
+
+
+  private void setup( int cap ) throws IOException {
+    capacity = cap;
+    mask = cap - 1;
+    map = channel.map( FileChannel.MapMode.READ_WRITE, 0, (long) HEADERSIZE + (long) cap * SLOTSIZE );
+    map.putInt( 0, MAGIC );
+    map.putInt( 4, VERSION );
+    map.putInt( 8, buckets );
+    map.putInt( 12, bucketnum );
+    map.putInt( 16, cap );
+    map.putInt( SIZEPOS, 0 );
+    map.putInt( CLEANPOS, 0 );
+  } // setup
+
+
+  private HashFSSegmentStore.Location location( int i ){
+    int pos = offset( i );
+    return( new HashFSSegmentStore.Location( map.getInt( pos + 8 ), map.getLong( pos + 16 ),
+                                             map.getInt( pos + 12 ) ) );
+  } // location
+
+
+  private void writeSlot( int i, long h, HashFSSegmentStore.Location loc ){
+    int pos = offset( i );
+    map.putInt( pos + 8, loc.segment );
+    map.putInt( pos + 12, loc.size );
+    map.putLong( pos + 16, loc.offset );
+    map.putLong( pos, h );
+  } // writeSlot
+
+
+  private int offset( int i ){
+    return( HEADERSIZE + i * SLOTSIZE );
+  } // offset
+
+
+  private int slot( long h ){
+    return( (int) (h ^ (h >>> 32)) & mask );
+  } // slot
+
+
+  private static long hash( String key ){
+    long h = 0xcbf29ce484222325L;          // FNV-1a over the chars
+    for( int i = 0; i < key.length(); i++ ){
+      h ^= key.charAt( i );
+      h *= 0x100000001b3L;
+    }
+    h ^= (h >>> 29);                       // spread the high bits
+    h *= 0xbf58476d1ce4e5b9L;
+    h ^= (h >>> 32);
+    return( (h == 0) ? 1 : h );            // 0 marks a free slot
+  } // hash
+
+} // HashFSIndexFile
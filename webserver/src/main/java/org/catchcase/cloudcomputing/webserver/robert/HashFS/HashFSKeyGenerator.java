@@ -0,0 +1,25 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+/* *******************************************************************
+ * interface HashFSKeyGenerator
+ * -------------------------------------------------------------------
+ * Creates the keys of values inserted without a key (see
+ * HashFS.insert( String val )).
+ * -------------------------------------------------------------------
+ * An implementation must be thread-safe and should rarely return a
+ * key which already exists. HashFS retries a few times with the
+ * next key if it does.
+ ******************************************************************** */
+
+public interface HashFSKeyGenerator {
+
+  /* *****************************************************************
+   * String nextKey()
+   * -----------------------------------------------------------------
+   * Returns:
+   *   String ... a new unique key
+   ****************************************************************** */
+
+  String nextKey();
+
+} // HashFSKeyGenerator
@@ -0,0 +1,860 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+/* *******************************************************************
+ * class HashFSSegmentStore
+ * -------------------------------------------------------------------
+ * Stores the values of HashFS in large append-only segment files
+ * instead of one file per key.
+ * -------------------------------------------------------------------
+ * Every insert and delete appends one record to the active segment.
+ * When the active segment exceeds its maximum size it is sealed and
+ * a new segment is started. A record is addressed by its Location
+ * (segment, offset, size).
+ * Record layout:
+ *   byte type ('P' = put, 'D' = delete), int keylength,
+ *   int valuelength, key bytes, value bytes, int crc32
+ * For every segment the store counts the total and the live bytes.
+ * The compactor of HashFS uses these counters to find segments that
+ * are mostly garbage.
+ * Writers reserve the offset of their record under the monitor and
+ * write it with a positional write outside of it, so appends run in
+ * parallel. Rolling and the snapshots of the forces take the append
+ * lock exclusively, so they see no record which is still being
+ * written.
+ * The records are forced to disk according to a HashFSDurability.
+ * In GROUP_COMMIT mode the first writer waiting for its record
+ * becomes the leader: it waits for the group window, so more writes
+ * can join, forces the active segment once and wakes all writers
+ * whose records are covered by this force.
+ ******************************************************************** */
+
+                                       // Import packages
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.*;
+
+
+final class HashFSSegmentStore {
+
+  /* *****************************************************************
+   * inner class Location
+   * -----------------------------------------------------------------
+   * Position of one record: number of the segment, offset of the
+   * record in the segment and size of the whole record.
+   ****************************************************************** */
+
+  static final class Location {
+
+    final int segment;        // number of the segment
+    final long offset;        // offset of the record
+    final int size;           // size of the record in bytes
+
+    Location( int segment, long offset, int size ){
+      this.segment = segment;
+      this.offset = offset;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals( Object o ){
+      if (!(o instanceof Location)){
+        return( false );
+      }
+      Location l = (Location) o;
+      return( (l.segment == segment) && (l.offset == offset) && (l.size == size) );
+    }
+
+    @Override
+    public int hashCode(){
+      return( (int) (segment * 31 + offset) );
+    }
+  } // Location
+
+
+  /* *****************************************************************
+   * inner interface RecordVisitor
+   * -----------------------------------------------------------------
+   * Receives the records of a segment in the order they were written.
+   ****************************************************************** */
+
+  interface RecordVisitor {
+    void visit( byte type, String key, String val, Location loc );
+  }
+
+
+  static final byte PUT = 'P';            // type of a put record
+  static final byte DELETE = 'D';         // type of a delete record
+  private static final int HEADERSIZE = 9;  // type, key- and valuelength
+  private static final int TRAILERSIZE = 4; // crc32
+
+  private File dir = null;        // directory of the segments (RO)
+  private long maxsegmentsize = 0;   // size at which a segment is
+                                     // sealed (RO)
+
+  private final ConcurrentHashMap<Integer,FileChannel> channels = new ConcurrentHashMap<Integer,FileChannel>();
+                  // open channels of all segments
+  private final ConcurrentHashMap<Integer,AtomicLong> totalbytes = new ConcurrentHashMap<Integer,AtomicLong>();
+                  // bytes written per segment
+  private final ConcurrentHashMap<Integer,AtomicLong> livebytes = new ConcurrentHashMap<Integer,AtomicLong>();
+                  // bytes of records still referenced per segment
+
+  private int activeid = 0;       // number of the active segment
+  private FileChannel active = null;    // channel of the active segment
+  private long activesize = 0;    // size of the active segment
+
+  private HashFSDurability durability = HashFSDurability.NONE;  // (RO)
+  private long groupwindow = 0;   // nanoseconds a group commit leader
+                                  // waits for more writes (RO)
+  private long written = 0;       // number of records reserved
+  private final ReentrantReadWriteLock appendlock = new ReentrantReadWriteLock();
+                  // shared by writers, exclusive to roll and to
+                  // the snapshots of the forces
+  private final Object synclock = new Object();
+                  // guards durable and syncing
+  private long durable = 0;       // number of records forced to disk
+  private boolean syncing = false;   // a leader is forcing
+  private ScheduledExecutorService syncer = null;
+                  // background thread of PERIODIC (RO)
+
+
+
+  /* ***************************************************************
+   * constructor HashFSSegmentStore( File dir, long maxsegmentsize )
+   * ---------------------------------------------------------------
+   * Opens the segments without forcing writes to disk.
+   **************************************************************** */
+
+  HashFSSegmentStore( File dir, long maxsegmentsize ) throws IOException {
+    this( dir, maxsegmentsize, HashFSDurability.NONE, 0 );
+  } // HashFSSegmentStore
+
+
+
+  /* ***************************************************************
+   * constructor HashFSSegmentStore( File dir, long maxsegmentsize,
+   *   HashFSDurability durability, long interval )
+   * ---------------------------------------------------------------
+   * Opens all existing segments of the directory and starts a new
+   * active segment behind them.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   dir ... directory of the segment files
+   *   maxsegmentsize ... size at which a segment is sealed
+   *   durability ... when records are forced to disk
+   *   interval ... microseconds between two forces for PERIODIC,
+   *     group window for GROUP_COMMIT
+   * ---------------------------------------------------------------
+   * Thread-safe: no, called once
+   * Blocks: waits on disk-io
+   * Throws: IOException if a segment cannot be opened
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  HashFSSegmentStore( File dir, long maxsegmentsize, HashFSDurability durability,
+                      long interval ) throws IOException {
+    this.dir = dir;
+    this.maxsegmentsize = maxsegmentsize;
+    this.durability = durability;
+    this.groupwindow = TimeUnit.MICROSECONDS.toNanos( interval );
+
+    dir.mkdirs();
+
+    for( int id : listSegments() ){      // open existing segments
+      FileChannel ch = FileChannel.open( segmentPath( id ), StandardOpenOption.READ );
+      channels.put( id, ch );
+      totalbytes.put( id, new AtomicLong( ch.size() ) );
+      livebytes.put( id, new AtomicLong( 0 ) );
+                        // live bytes are counted from the index
+                        // or on replay
+      activeid = Math.max( activeid, id );
+    }
+
+    roll();                              // start a new segment
+
+    if (durability == HashFSDurability.PERIODIC){
+      syncer = Executors.newSingleThreadScheduledExecutor( r -> {
+        Thread t = new Thread( r, "HashFS-sync" );
+        t.setDaemon( true );
+        return( t );
+      } );
+      syncer.scheduleWithFixedDelay( this::sync, interval, interval, TimeUnit.MICROSECONDS );
+    }
+  } // HashFSSegmentStore
+
+
+
+  /* ***************************************************************
+   * Location append( byte type, String key, String val )
+   * ---------------------------------------------------------------
+   * Appends a record to the active segment. The offset is reserved
+   * under the monitor, the record is written outside of it. In
+   * GROUP_COMMIT mode the call returns when the record has been
+   * forced to disk.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   type ... PUT or DELETE
+   *   key ... key
+   *   val ... value, ignored for DELETE
+   * Returns:
+   *   Location ... position of the new record
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (reserved offsets, group commit)
+   * Blocks: waits on disk-io, on a roll and on the group commit
+   * Throws: IOException if the record cannot be written or forced
+   * Exploits parallelism: yes, writes run concurrently
+   **************************************************************** */
+
+  Location append( byte type, String key, String val ) throws IOException {
+    ByteBuffer buf = encode( type, key, val );   // build the record
+    int size = buf.remaining();
+    FileChannel ch = null;
+    Location loc = null;
+    long seq = 0;
+
+    while (loc == null){
+      appendlock.readLock().lock();
+      try{
+        synchronized (this){               // reserve the offset
+          if ((activesize == 0) || (activesize + size <= maxsegmentsize)){
+            ch = active;
+            loc = new Location( activeid, activesize, size );
+            activesize += size;
+            totalbytes.get( activeid ).addAndGet( size );
+            if (type == PUT){
+              livebytes.get( activeid ).addAndGet( size );
+            }
+            seq = ++written;           // number of this record
+          }
+        }
+        if (loc != null){
+          write( ch, buf, loc, type );   // positional write
+        }
+      }
+      finally{
+        appendlock.readLock().unlock();
+      }
+
+      if (loc == null){                  // segment full -> roll it
+        appendlock.writeLock().lock();   // when its writes are done
+        try{
+          synchronized (this){
+            if ((activesize > 0) && (activesize + size > maxsegmentsize)){
+              roll();
+            }
+          }
+        }
+        finally{
+          appendlock.writeLock().unlock();
+        }
+      }
+    }
+
+    if (durability == HashFSDurability.GROUP_COMMIT){
+      try{
+        awaitDurable( seq );
+      }
+      catch( IOException e ){
+        if (type == PUT){
+          release( loc );        // the caller will not reference it
+        }
+        throw e;
+      }
+    }
+
+    return( loc );
+  } // append
+
+
+
+  /* ***************************************************************
+   * void sync()
+   * ---------------------------------------------------------------
+   * Forces all records written so far to disk. Called periodically
+   * in PERIODIC mode.
+   * ---------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void sync(){
+    FileChannel ch = null;
+    long seq = 0;
+
+    appendlock.writeLock().lock();     // all reserved records are
+    try{                               // written now
+      synchronized (this){
+        ch = active;
+        seq = written;
+      }
+    }
+    finally{
+      appendlock.writeLock().unlock();
+    }
+
+    try{
+      ch.force( false );
+      synchronized (synclock){
+        durable = Math.max( durable, seq );
+      }
+    }
+    catch( IOException e ){
+                       // segment closed meanwhile, next run forces
+                       // the new one
+    }
+  } // sync
+
+
+
+  /* ***************************************************************
+   * void force( int from )
+   * ---------------------------------------------------------------
+   * Forces the segment from and all later segments to disk, whatever
+   * the durability mode. Used before a compacted segment is deleted,
+   * so its moved records can never be lost.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   from ... number of the first segment to force
+   * ---------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: IOException if a segment cannot be forced
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void force( int from ) throws IOException {
+    long seq = 0;
+
+    appendlock.writeLock().lock();     // all reserved records are
+    try{                               // written now
+      synchronized (this){
+        seq = written;
+      }
+    }
+    finally{
+      appendlock.writeLock().unlock();
+    }
+    for( Map.Entry<Integer,FileChannel> e : channels.entrySet() ){
+      if (e.getKey() >= from){
+        e.getValue().force( false );
+      }
+    }
+    synchronized (synclock){
+      durable = Math.max( durable, seq );
+    }
+  } // force
+
+
+
+  /* ***************************************************************
+   * String read( Location loc )
+   * ---------------------------------------------------------------
+   * Reads the value of a put record.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   loc ... location of the record
+   * Returns:
+   *   String ... value of the record
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (positional read)
+   * Blocks: waits on disk-io
+   * Throws: IOException if the segment is gone or the record is
+   *   corrupt
+   * Exploits parallelism: yes, reads run concurrently
+   **************************************************************** */
+
+  String read( Location loc ) throws IOException {
+    ByteBuffer buf = readRecord( loc );
+    if (buf == null){
+      throw new IOException( "Record in segment " + loc.segment + " is corrupt" );
+    }
+
+    buf.get();                               // skip type
+    int keylen = buf.getInt();
+    int vallen = buf.getInt();
+
+    return( new String( buf.array(), HEADERSIZE + keylen, vallen, StandardCharsets.UTF_8 ) );
+  } // read
+
+
+
+  /* ***************************************************************
+   * String readKey( Location loc )
+   * ---------------------------------------------------------------
+   * Reads only the key of a record.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   loc ... location of the record
+   * Returns:
+   *   String ... key of the record
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (positional read)
+   * Blocks: waits on disk-io
+   * Throws: IOException if the segment is gone
+   * Exploits parallelism: yes, reads run concurrently
+   **************************************************************** */
+
+  String readKey( Location loc ) throws IOException {
+    FileChannel ch = channels.get( loc.segment );
+    if (ch == null){
+      throw new IOException( "Segment " + loc.segment + " does not exist" );
+    }
+
+    ByteBuffer header = ByteBuffer.allocate( HEADERSIZE );
+    readFully( ch, header, loc.offset );
+    header.flip();
+    header.get();                               // skip type
+
+    ByteBuffer key = ByteBuffer.allocate( header.getInt() );
+    readFully( ch, key, loc.offset + HEADERSIZE );
+
+    return( new String( key.array(), StandardCharsets.UTF_8 ) );
+  } // readKey
+
+
+
+  /* ***************************************************************
+   * void release( Location loc )
+   * ---------------------------------------------------------------
+   * Marks a put record as garbage after its key has been deleted or
+   * moved.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   loc ... location of the record
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (atomic counters)
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void release( Location loc ){
+    AtomicLong live = livebytes.get( loc.segment );
+
+    if (live != null){
+      live.addAndGet( -loc.size );
+    }
+  } // release
+
+
+
+  /* ***************************************************************
+   * void scan( int id, RecordVisitor visitor )
+   * ---------------------------------------------------------------
+   * Visits all records of a segment. Reading stops at the first
+   * torn or corrupt record, i.e. at the end of a crashed write.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   id ... number of the segment
+   *   visitor ... receives the records
+   * ---------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: IOException if the segment cannot be read
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void scan( int id, RecordVisitor visitor ) throws IOException {
+    FileChannel ch = channels.get( id );
+    if (ch == null){
+      return;
+    }
+
+    long size = ch.size();
+    long offset = 0;
+    ByteBuffer header = ByteBuffer.allocate( HEADERSIZE );
+
+    while (offset + HEADERSIZE + TRAILERSIZE <= size){
+      header.clear();
+      readFully( ch, header, offset );
+      header.flip();
+
+      byte type = header.get();
+      int keylen = header.getInt();
+      int vallen = header.getInt();
+      long recsize = (long) HEADERSIZE + keylen + vallen + TRAILERSIZE;
+
+      if (((type != PUT) && (type != DELETE)) || (keylen < 0) || (vallen < 0)
+          || (offset + recsize > size)){
+        break;                         // torn record -> stop
+      }
+
+      Location loc = new Location( id, offset, (int) recsize );
+      ByteBuffer buf = readRecord( loc );
+      if (buf == null){
+        break;                         // corrupt record -> stop
+      }
+
+      String key = new String( buf.array(), HEADERSIZE, keylen, StandardCharsets.UTF_8 );
+      String val = new String( buf.array(), HEADERSIZE + keylen, vallen, StandardCharsets.UTF_8 );
+      visitor.visit( type, key, val, loc );
+
+      offset += recsize;
+    }
+  } // scan
+
+
+
+  /* ***************************************************************
+   * void countLive( Location loc )
+   * ---------------------------------------------------------------
+   * Counts a put record found on replay as live.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   loc ... location of the record
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (atomic counters)
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void countLive( Location loc ){
+    AtomicLong live = livebytes.get( loc.segment );
+
+    if (live != null){
+      live.addAndGet( loc.size );
+    }
+  } // countLive
+
+
+
+  /* ***************************************************************
+   * void resetLive()
+   * ---------------------------------------------------------------
+   * Sets the live bytes of all segments to 0 before they are
+   * counted again on replay.
+   **************************************************************** */
+
+  void resetLive(){
+    for( AtomicLong live : livebytes.values() ){
+      live.set( 0 );
+    }
+  } // resetLive
+
+
+
+  /* ***************************************************************
+   * File getDirectory()
+   * ---------------------------------------------------------------
+   * Returns:
+   *   File ... directory of the segment files
+   **************************************************************** */
+
+  File getDirectory(){
+    return( dir );
+  } // getDirectory
+
+
+
+  /* ***************************************************************
+   * List<Integer> segments()
+   * ---------------------------------------------------------------
+   * Returns:
+   *   List<Integer> ... numbers of all segments in ascending order
+   * ---------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  List<Integer> segments(){
+    List<Integer> ret = new ArrayList<Integer>( channels.keySet() );
+    Collections.sort( ret );
+    return( ret );
+  } // segments
+
+
+
+  /* ***************************************************************
+   * synchronized int activeSegment()
+   * ---------------------------------------------------------------
+   * Returns:
+   *   int ... number of the segment new records are appended to
+   **************************************************************** */
+
+  synchronized int activeSegment(){
+    return( activeid );
+  } // activeSegment
+
+
+
+  /* ***************************************************************
+   * double liveRatio( int id )
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   id ... number of a segment
+   * Returns:
+   *   double ... share of live bytes in the segment, 1 if empty
+   **************************************************************** */
+
+  double liveRatio( int id ){
+    AtomicLong total = totalbytes.get( id );
+    AtomicLong live = livebytes.get( id );
+
+    if ((total == null) || (live == null) || (total.get() == 0)){
+      return( 1.0 );
+    }
+    return( (double) live.get() / total.get() );
+  } // liveRatio
+
+
+
+  /* ***************************************************************
+   * void remove( int id )
+   * ---------------------------------------------------------------
+   * Closes and deletes a sealed segment after all of its live
+   * records have been moved.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   id ... number of the segment
+   * ---------------------------------------------------------------
+   * Thread-safe: fully
+   * Blocks: waits on disk-io
+   * Throws: IOException if the segment cannot be deleted
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void remove( int id ) throws IOException {
+    FileChannel ch = channels.remove( id );
+    totalbytes.remove( id );
+    livebytes.remove( id );
+
+    if (ch != null){
+      ch.close();
+    }
+    Files.deleteIfExists( segmentPath( id ) );
+  } // remove
+
+
+
+  /* ***************************************************************
+   * void close()
+   * ---------------------------------------------------------------
+   * Forces the active segment and closes all segments.
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (exclusive append lock, synchronized)
+   * Blocks: waits on disk-io and on writes in progress
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  void close(){
+    appendlock.writeLock().lock();
+    try{
+      synchronized (this){
+        closeSegments();
+      }
+    }
+    finally{
+      appendlock.writeLock().unlock();
+    }
+  } // close
+
+
+
+  /* ***************************************************************
+   * private helpers
+   **************************************************************** */
+
+  private void closeSegments(){
+    if (syncer != null){
+      syncer.shutdownNow();
+    }
+    if (active != null){
+      try{
+        active.force( false );
+      }
+      catch( IOException e ){
+      }
+    }
+    for( FileChannel ch : channels.values() ){
+      try{
+        ch.close();
+      }
+      catch( IOException e ){
+      }
+    }
+    channels.clear();
+  } // closeSegments
+
+
+  private void roll() throws IOException {
+    if ((active != null) && (durability != HashFSDurability.NONE)){
+      active.force( false );       // sealed segments are durable
+    }
+
+    activeid++;                                 // next segment number
+    active = FileChannel.open( segmentPath( activeid ), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE );
+    activesize = active.size();
+    channels.put( activeid, active );
+    totalbytes.put( activeid, new AtomicLong( activesize ) );
+    livebytes.put( activeid, new AtomicLong( 0 ) );
+  } // roll
+
+
+  private void awaitDurable( long seq ) throws IOException {
+    synchronized (synclock){
+      while (durable < seq){
+        if (!syncing){             // no leader -> lead this group
+          syncing = true;
+          break;
+        }
+        try{
+          synclock.wait();         // the leader forces our record
+        }
+        catch( InterruptedException e ){
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException( "Interrupted while waiting for the group commit" );
+        }
+      }
+      if (durable >= seq){
+        return;
+      }
+    }
+
+    try{
+      if (groupwindow > 0){        // let more writers join
+        LockSupport.parkNanos( groupwindow );
+      }
+
+      FileChannel ch = null;
+      long target = 0;
+      appendlock.writeLock().lock();
+      try{
+        synchronized (this){       // everything up to written is in
+          ch = active;             // the active segment or in a
+          target = written;        // sealed and forced one
+        }
+      }
+      finally{
+        appendlock.writeLock().unlock();
+      }
+      ch.force( false );
+
+      synchronized (synclock){
+        durable = Math.max( durable, target );
+      }
+    }
+    finally{
+      synchronized (synclock){     // a failed leader lets the next
+        syncing = false;           // writer try again
+        synclock.notifyAll();
+      }
+    }
+  } // awaitDurable
+
+
+  private void write( FileChannel ch, ByteBuffer buf, Location loc, byte type ) throws IOException {
+    try{
+      long offset = loc.offset;
+      while (buf.hasRemaining()){
+        offset += ch.write( buf, offset );
+      }
+    }
+    catch( IOException e ){
+      if (type == PUT){
+        release( loc );            // the caller will not reference it
+      }
+                                   // later records of the segment may
+                                   // be written already, so the gap is
+                                   // filled with the delete of a dummy
+                                   // key, which scan steps over
+      try{
+        ByteBuffer filler = encode( DELETE, new String( new char[loc.size - HEADERSIZE - TRAILERSIZE] ), null );
+        long offset = loc.offset;
+        while (filler.hasRemaining()){
+          offset += ch.write( filler, offset );
+        }
+      }
+      catch( IOException f ){
+        e.addSuppressed( f );
+      }
+      throw e;
+    }
+  } // write
+
+
+  private ByteBuffer readRecord( Location loc ) throws IOException {
+    FileChannel ch = channels.get( loc.segment );
+    if (ch == null){
+      throw new IOException( "Segment " + loc.segment + " does not exist" );
+    }
+
+    ByteBuffer buf = ByteBuffer.allocate( loc.size );
+    readFully( ch, buf, loc.offset );
+
+    CRC32 crc = new CRC32();                  // verify checksum
+    crc.update( buf.array(), 0, loc.size - TRAILERSIZE );
+    if ((int) crc.getValue() != buf.getInt( loc.size - TRAILERSIZE )){
+      return( null );
+    }
+
+    buf.rewind();
+    return( buf );
+  } // readRecord
+
+
+  private static ByteBuffer encode( byte type, String key, String val ){
+    byte[] k = key.getBytes( StandardCharsets.UTF_8 );
+    byte[] v = (type == PUT) ? val.getBytes( StandardCharsets.UTF_8 ) : new byte[0];
+    ByteBuffer buf = ByteBuffer.allocate( HEADERSIZE + k.length + v.length + TRAILERSIZE );
+
+    buf.put( type ).putInt( k.length ).putInt( v.length ).put( k ).put( v );
+
+    CRC32 crc = new CRC32();
+    crc.update( buf.array(), 0, buf.position() );
+    buf.putInt( (int) crc.getValue() );
+
+    buf.flip();
+    return( buf );
+  } // encode
+
+
+  private static void readFully( FileChannel ch, ByteBuffer buf, long offset ) throws IOException {
+    while (buf.hasRemaining()){
+      int n = ch.read( buf, offset );
+      if (n < 0){
+        throw new EOFException();
+      }
+      offset += n;
+    }
+  } // readFully
+
+
+  private List<Integer> listSegments(){
+    List<Integer> ret = new ArrayList<Integer>();
+    String[] names = dir.list();
+
+    if (names != null){
+      for( String name : names ){
+        if (name.startsWith( "segment-" ) && name.endsWith( ".hfs" )){
+          try{
+            ret.add( Integer.parseInt( name.substring( 8, name.length() - 4 ) ) );
+          }
+          catch( NumberFormatException e ){
+          }
+        }
+      }
+    }
+    Collections.sort( ret );
+    return( ret );
+  } // listSegments
+
+
+  private Path segmentPath( int id ){
+    return( new File( dir, String.format( "segment-%08d.hfs", id ) ).toPath() );
+  } // segmentPath
+
+} // HashFSSegmentStore
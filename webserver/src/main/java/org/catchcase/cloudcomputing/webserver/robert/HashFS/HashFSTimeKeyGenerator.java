@@ -0,0 +1,105 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+/* *******************************************************************
+ * class HashFSTimeKeyGenerator
+ * -------------------------------------------------------------------
+ * Default key generator of HashFS. Creates short, time-ordered keys
+ * without any shared state on the fast path.
+ * -------------------------------------------------------------------
+ * A key has 100 bits, written as 20 chars of Crockford base32:
+ *   48 bits milliseconds since 1970, 36 bits thread slot,
+ *   16 bits sequence number
+ * Every thread gets its own slot on its first key. The slots of a
+ * generator are counted up from a random start, so threads of one
+ * generator never share a slot (2^36 threads would be needed to
+ * wrap around), and a second generator, e.g. after a restart with
+ * the clock set back, is very unlikely to use the same slots.
+ * Keys are still not guaranteed to be unique across generators, so
+ * HashFS retries with a new key if a key already exists.
+ * Within a thread the sequence number counts the keys of one
+ * millisecond. If it runs over, or the clock goes back, the thread
+ * continues with the next millisecond after the last one used, so
+ * the keys of a thread are strictly increasing.
+ * Keys of different threads are ordered by their millisecond, so
+ * recent inserts can be found by a range query.
+ ******************************************************************** */
+
+                                       // Import packages
+
+import java.security.*;
+import java.util.concurrent.atomic.*;
+
+
+public final class HashFSTimeKeyGenerator implements HashFSKeyGenerator {
+
+  /* *****************************************************************
+   * inner class ThreadState
+   * -----------------------------------------------------------------
+   * Slot, last millisecond and sequence number of one thread.
+   ****************************************************************** */
+
+  private static final class ThreadState {
+    final long slot;          // slot of the thread
+    long millis = -1;         // millisecond of the last key
+    int sequence = 0;         // number of the last key in millis
+
+    ThreadState( long slot ){
+      this.slot = slot;
+    }
+  } // ThreadState
+
+
+  private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+                     // Crockford base32, ordered like the values (RO)
+  private static final int KEYLENGTH = 20;       // chars of a key (RO)
+  private static final int MAXSEQUENCE = 0xFFFF; // 16 bits (RO)
+  private static final long SLOTMASK = 0xFFFFFFFFFL; // 36 bits (RO)
+
+  private final AtomicLong slots = new AtomicLong( new SecureRandom().nextLong() );
+                     // next free thread slot, starts at random
+  private final ThreadLocal<ThreadState> state = ThreadLocal.withInitial(
+      () -> new ThreadState( slots.getAndIncrement() & SLOTMASK ) );
+                     // state of the calling thread
+
+
+
+  /* *****************************************************************
+   * public String nextKey()
+   * -----------------------------------------------------------------
+   * Returns:
+   *   String ... a key of KEYLENGTH chars
+   * -----------------------------------------------------------------
+   * Thread-safe: fully (state per thread)
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   ****************************************************************** */
+
+  @Override
+  public String nextKey(){
+    ThreadState ts = state.get();
+    long now = System.currentTimeMillis();
+
+    if (now > ts.millis){              // new millisecond
+      ts.millis = now;
+      ts.sequence = 0;
+    }
+    else if (++ts.sequence > MAXSEQUENCE){
+      ts.millis++;                     // sequence used up or clock
+      ts.sequence = 0;                 // went back -> borrow the next
+    }                                  // millisecond
+
+    long high = ts.millis & 0xFFFFFFFFFFFFL;      // 48 bits
+    long low = (ts.slot << 16) | ts.sequence;     // 52 bits
+
+    char[] key = new char[ KEYLENGTH ];
+    for( int i = KEYLENGTH - 1; i >= 0; i-- ){    // 5 bits per char
+      key[i] = ALPHABET[ (int) (low & 0x1F) ];
+      low = (low >>> 5) | ((high & 0x1F) << 47);
+      high >>>= 5;
+    }
+
+    return( new String( key ) );
+  } // nextKey
+
+} // HashFSTimeKeyGenerator
@@ -0,0 +1,231 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+/* *******************************************************************
+ * class HashFSValueCache
+ * -------------------------------------------------------------------
+ * Keeps the values of frequently read keys in memory, so search
+ * doesn't have to read them from the segments again.
+ * -------------------------------------------------------------------
+ * The cache is a segmented LRU with a budget in bytes. New values
+ * enter the probationary segment. A value that is hit again is
+ * promoted to the protected segment, which takes PROTECTEDSHARE of
+ * the budget. If the protected segment is full, its least recently
+ * used value is moved back to the probationary segment. Values
+ * leaving the probationary segment are evicted. So a scan over many
+ * keys which are read once cannot push out the hot keys.
+ * The size of an entry is estimated from the chars of key and value
+ * plus ENTRYOVERHEAD.
+ ******************************************************************** */
+
+                                       // Import packages
+
+import java.util.*;
+
+
+final class HashFSValueCache {
+
+  private static final double PROTECTEDSHARE = 0.8;
+                     // share of the budget for the protected segment
+  private static final long ENTRYOVERHEAD = 96;
+                     // estimated bytes of the map entry and strings
+
+  private final long probationbudget;   // bytes of the probationary
+                                        // segment (RO)
+  private final long protectedbudget;   // bytes of the protected
+                                        // segment (RO)
+
+  private final LinkedHashMap<String,String> probation = new LinkedHashMap<String,String>( 16, 0.75f, true );
+  private final LinkedHashMap<String,String> protect = new LinkedHashMap<String,String>( 16, 0.75f, true );
+                  // both segments in access order, the eldest entry
+                  // is the least recently used one
+
+  private long probationbytes = 0;    // bytes in the probationary segment
+  private long protectedbytes = 0;    // bytes in the protected segment
+
+  private long hits = 0;          // number of values found
+  private long misses = 0;        // number of values not found
+  private long evictions = 0;     // number of values evicted
+
+
+
+  /* ***************************************************************
+   * constructor HashFSValueCache( long budget )
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   budget ... bytes the cache may use, 0 disables the cache
+   **************************************************************** */
+
+  HashFSValueCache( long budget ){
+    protectedbudget = (long) (budget * PROTECTEDSHARE);
+    probationbudget = budget - protectedbudget;
+  } // HashFSValueCache
+
+
+
+  /* ***************************************************************
+   * String get( String key )
+   * ---------------------------------------------------------------
+   * Returns the cached value of a key. A hit in the probationary
+   * segment promotes the value to the protected segment.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   key ... key
+   * Returns:
+   *   String ... cached value, null if the key is not cached
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (synchronized)
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  synchronized String get( String key ){
+    String val = protect.get( key );
+
+    if (val == null){
+      val = probation.remove( key );
+      if (val != null){                  // second hit -> promote
+        probationbytes -= weight( key, val );
+        protect.put( key, val );
+        protectedbytes += weight( key, val );
+        demote();
+      }
+    }
+
+    if (val != null){
+      hits++;
+    }
+    else {
+      misses++;
+    }
+    return( val );
+  } // get
+
+
+
+  /* ***************************************************************
+   * void put( String key, String val )
+   * ---------------------------------------------------------------
+   * Adds a value read from the segments to the probationary segment.
+   * Values larger than the probationary segment are not cached.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   key ... key
+   *   val ... value of the key
+   * Returns: nothing
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (synchronized)
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  synchronized void put( String key, String val ){
+    long w = weight( key, val );
+
+    if ((w > probationbudget) || protect.containsKey( key )){
+      return;
+    }
+
+    String old = probation.put( key, val );
+    if (old != null){
+      probationbytes -= weight( key, old );
+    }
+    probationbytes += w;
+    evict();
+  } // put
+
+
+
+  /* ***************************************************************
+   * void invalidate( String key )
+   * ---------------------------------------------------------------
+   * Removes a key whose value has been changed or deleted.
+   * ---------------------------------------------------------------
+   * Parameters:
+   *   key ... key
+   * Returns: nothing
+   * ---------------------------------------------------------------
+   * Thread-safe: fully (synchronized)
+   * Blocks: never
+   * Throws: no exception thrown
+   * Exploits parallelism: no
+   **************************************************************** */
+
+  synchronized void invalidate( String key ){
+    String val = probation.remove( key );
+    if (val != null){
+      probationbytes -= weight( key, val );
+    }
+
+    val = protect.remove( key );
+    if (val != null){
+      protectedbytes -= weight( key, val );
+    }
+  } // invalidate
+
+
+
+  /* ***************************************************************
+   * Counters
+   **************************************************************** */
+
+  synchronized long getHits(){
+    return( hits );
+  } // getHits
+
+  synchronized long getMisses(){
+    return( misses );
+  } // getMisses
+
+  synchronized long getEvictions(){
+    return( evictions );
+  } // getEvictions
+
+  synchronized long getBytes(){
+    return( probationbytes + protectedbytes );
+  } // getBytes
+
+
+
+  /* ***************************************************************
+   * private helpers, called with the monitor held
+   **************************************************************** */
+
+  private void demote(){
+                   // move the least recently used protected values
+                   // back to the probationary segment
+    Iterator<Map.Entry<String,String>> itr = protect.entrySet().iterator();
+
+    while ((protectedbytes > protectedbudget) && itr.hasNext()){
+      Map.Entry<String,String> e = itr.next();
+      long w = weight( e.getKey(), e.getValue() );
+
+      itr.remove();
+      protectedbytes -= w;
+      probation.put( e.getKey(), e.getValue() );
+      probationbytes += w;
+    }
+    evict();
+  } // demote
+
+
+  private void evict(){
+                   // drop the least recently used probationary values
+    Iterator<Map.Entry<String,String>> itr = probation.entrySet().iterator();
+
+    while ((probationbytes > probationbudget) && itr.hasNext()){
+      Map.Entry<String,String> e = itr.next();
+
+      itr.remove();
+      probationbytes -= weight( e.getKey(), e.getValue() );
+      evictions++;
+    }
+  } // evict
+
+
+  private static long weight( String key, String val ){
+    return( 2L * (key.length() + val.length()) + ENTRYOVERHEAD );
+  } // weight
+
+} // HashFSValueCache
@@ -0,0 +1,70 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * JMH benchmark for the contention on a single resident bucket.
+ * Compare readSingleThread with readAllThreads to see how lookups scale with
+ * the number of cores; mixed adds one writer to three readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloudStorageBucketBenchmark {
+
+	private static final int KEYS = 10000;
+
+	private CloudStorageBucket bucket;
+
+	@Setup
+	public void setUp() throws Exception {
+		bucket = new CloudStorageBucket(0, CloudStorageWriteMode.WRITE_BACK, Integer.MAX_VALUE,
+				Files.createTempDirectory("bucket-benchmark").toFile(), 0, 0);
+		for (int key = 0; key < KEYS; key++) {
+			MyKeyValue keyValue = new MyKeyValue();
+			keyValue.setKey(key);
+			keyValue.setValue("value" + key);
+			bucket.add(keyValue);
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public MyKeyValue readSingleThread() {
+		return bucket.getKeyValue(ThreadLocalRandom.current().nextInt(KEYS));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public MyKeyValue readAllThreads() {
+		return bucket.getKeyValue(ThreadLocalRandom.current().nextInt(KEYS));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public MyKeyValue mixedRead() {
+		return bucket.getKeyValue(ThreadLocalRandom.current().nextInt(KEYS));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public boolean mixedWrite() {
+		int key = ThreadLocalRandom.current().nextInt(KEYS);
+		return bucket.delete(key) && reinsert(key);
+	}
+
+	private boolean reinsert(int key) {
+		MyKeyValue keyValue = new MyKeyValue();
+		keyValue.setKey(key);
+		keyValue.setValue("value" + key);
+		return bucket.add(keyValue);
+	}
+}
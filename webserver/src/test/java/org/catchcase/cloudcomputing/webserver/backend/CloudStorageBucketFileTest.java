@@ -0,0 +1,49 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageBucketFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void lookupFindsEveryKey() throws IOException {
+		File file = folder.newFile("bucket0.txt");
+		Map<Integer, String> entries = new HashMap<>();
+		entries.put(-7, "minus seven");
+		entries.put(0, "");
+		entries.put(42, "forty-two äöü");
+		entries.put(Integer.MAX_VALUE, "max");
+
+		CloudStorageBucketFile.write(file, entries);
+		CloudStorageBucketFile bucketFile = CloudStorageBucketFile.open(file);
+
+		assertFalse(bucketFile.isLegacy());
+		assertEquals(4, bucketFile.size());
+		entries.forEach((key, value) -> assertEquals(value, bucketFile.lookup(key)));
+		assertNull(bucketFile.lookup(1));
+		assertEquals(entries, bucketFile.readAll());
+	}
+
+	@Test
+	public void readsSerializedHashMap() throws IOException {
+		File file = folder.newFile("bucket1.txt");
+		HashMap<Integer, String> entries = new HashMap<>();
+		entries.put(1, "one");
+
+		try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+			oos.writeObject(entries);
+		}
+		CloudStorageBucketFile bucketFile = CloudStorageBucketFile.open(file);
+
+		assertTrue(bucketFile.isLegacy());
+		assertEquals(entries, bucketFile.readAll());
+	}
+}
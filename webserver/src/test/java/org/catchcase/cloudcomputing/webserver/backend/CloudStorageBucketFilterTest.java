@@ -0,0 +1,53 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageBucketFilterTest {
+
+	private static final int KEYS = 10000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void containsEveryKeyAndFewOthers() {
+		CloudStorageBucketFilter filter = CloudStorageBucketFilter.create(KEYS);
+		int falsePositives = 0;
+
+		for (int key = 0; key < KEYS; key++) {
+			filter.put(key * 4);
+		}
+		for (int key = 0; key < KEYS; key++) {
+			assertTrue(filter.mightContain(key * 4));
+			if (filter.mightContain(key * 4 + 1)) {
+				falsePositives++;
+			}
+		}
+
+		assertFalse(filter.isSaturated());
+		assertEquals(CloudStorageBucketFilter.FALSE_POSITIVE_RATE, (double) falsePositives / KEYS, 0.01);
+		assertEquals(CloudStorageBucketFilter.FALSE_POSITIVE_RATE, filter.getExpectedFalsePositiveRate(), 0.005);
+	}
+
+	@Test
+	public void survivesWriteAndRead() throws IOException {
+		File file = folder.newFile("bucket0.bloom");
+		CloudStorageBucketFilter filter = CloudStorageBucketFilter.create(100);
+
+		filter.put(-7);
+		filter.put(Integer.MAX_VALUE);
+		filter.write(file, "1a2b-40-7");
+		CloudStorageBucketFilter read = CloudStorageBucketFilter.read(file);
+
+		assertTrue(read.mightContain(-7));
+		assertTrue(read.mightContain(Integer.MAX_VALUE));
+		assertEquals("1a2b-40-7", read.getSnapshotVersion());
+		assertEquals(filter.getBytes(), read.getBytes());
+		assertEquals(filter.getExpectedFalsePositiveRate(), read.getExpectedFalsePositiveRate(), 0.0);
+	}
+}
@@ -0,0 +1,53 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageBucketLogTest {
+
+	@Test
+	public void skipsZeroedGap() throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+		log.write(CloudStorageBucketLog.insertRecord(1, "one"));
+		log.write(new byte[20]);
+		log.write(CloudStorageBucketLog.deleteRecord(1));
+		log.write(CloudStorageBucketLog.insertRecord(2, "two"));
+		List<String> replayed = replay(log.toByteArray());
+
+		assertEquals(Arrays.asList("I1=one", "D1", "I2=two"), replayed);
+	}
+
+	@Test
+	public void ignoresTornLastRecord() throws IOException {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		byte[] last = CloudStorageBucketLog.insertRecord(3, "three");
+
+		log.write(CloudStorageBucketLog.insertRecord(1, "one"));
+		log.write(last, 0, last.length - 2);
+		List<String> replayed = replay(log.toByteArray());
+
+		assertEquals(Collections.singletonList("I1=one"), replayed);
+	}
+
+	private static List<String> replay(byte[] log) {
+		List<String> replayed = new ArrayList<>();
+
+		CloudStorageBucketLog.replay(log, new CloudStorageBucketLog.Replay() {
+			@Override
+			public void insert(int key, String value) {
+				replayed.add("I" + key + "=" + value);
+			}
+
+			@Override
+			public void delete(int key) {
+				replayed.add("D" + key);
+			}
+		});
+		return replayed;
+	}
+}
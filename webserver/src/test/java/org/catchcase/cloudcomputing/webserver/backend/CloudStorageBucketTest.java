@@ -0,0 +1,183 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageBucketTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FailingBlobStore store = new FailingBlobStore();
+
+	@Test
+	public void failedAppendIsRolledBack() throws IOException {
+		CloudStorageBucket bucket = bucket(folder.newFolder(), 1000);
+
+		assertTrue(bucket.add(pair(4, "four")));
+		store.failAppends = true;
+		try {
+			bucket.add(pair(8, "eight"));
+			fail("add must fail if the log cannot be appended");
+		} catch (UncheckedIOException e) {
+			//Expected
+		}
+		store.failAppends = false;
+
+		assertNull(bucket.getKeyValue(8));
+		assertEquals("four", bucket.getKeyValue(4).getValue());
+		assertTrue(bucket.add(pair(8, "eight")));
+		assertEquals(2, bucket(folder.newFolder(), 1000).size());
+	}
+
+	@Test
+	public void failedLoadKeepsSnapshot() throws IOException {
+		CloudStorageBucket writer = bucket(folder.newFolder(), 2);
+
+		for (int key = 0; key < 40; key += 4) {
+			assertTrue(writer.add(pair(key, "v" + key)));
+		}
+		store.failDownloads = true;
+		CloudStorageBucket reader = bucket(folder.newFolder(), 2);
+		try {
+			reader.getEntries();
+			fail("a bucket must not be loaded without its snapshot");
+		} catch (UncheckedIOException e) {
+			//Expected
+		}
+		store.failDownloads = false;
+
+		assertEquals(10, reader.getEntries().size());
+		assertTrue(reader.add(pair(40, "v40")));
+		assertEquals(11, bucket(folder.newFolder(), 2).size());
+	}
+
+	@Test
+	public void conflictingFlushIsRebased() throws IOException {
+		CloudStorageBucket writeBack = new CloudStorageBucket(0, CloudStorageWriteMode.WRITE_BACK, 1000,
+				folder.newFolder(), 2, 0, CloudStorageValueStorage.HEAP, false, store);
+		CloudStorageBucket other = bucket(folder.newFolder(), 1000);
+
+		assertTrue(writeBack.add(pair(4, "four")));
+		writeBack.flush();
+		assertTrue(writeBack.add(pair(8, "eight")));
+		assertTrue(writeBack.delete(4));
+		assertTrue(other.add(pair(12, "twelve")));
+		writeBack.flush();
+
+		assertFalse(writeBack.isDirty());
+		assertEquals("twelve", writeBack.getKeyValue(12).getValue());
+		CloudStorageBucket reader = bucket(folder.newFolder(), 1000);
+		assertNull(reader.getKeyValue(4));
+		assertEquals("eight", reader.getKeyValue(8).getValue());
+		assertEquals("twelve", reader.getKeyValue(12).getValue());
+	}
+
+	@Test
+	public void failedSiblingSnapshotAbortsSplit() throws IOException {
+		CloudStorageBucket bucket = bucket(folder.newFolder(), 1000);
+
+		for (int key = 0; key < 40; key += 4) {
+			assertTrue(bucket.add(pair(key, "v" + key)));
+		}
+		store.failUploads = true;
+		try {
+			bucket.split(1, sibling -> fail("a sibling without snapshot must not be published"));
+			fail("split must fail if the sibling cannot be written");
+		} catch (UncheckedIOException e) {
+			//Expected
+		}
+		store.failUploads = false;
+
+		assertEquals(2, bucket.getLocalDepth());
+		assertEquals(10, bucket.size());
+		assertEquals("v36", bucket.getKeyValue(36).getValue());
+	}
+
+	@Test
+	public void splitMovesMixedKeys() throws IOException {
+		CloudStorageBucket bucket = new CloudStorageBucket(0, CloudStorageWriteMode.WRITE_THROUGH, 1000,
+				folder.newFolder(), 0, 0, CloudStorageValueStorage.HEAP, true, store);
+
+		for (int key = 0; key < 4096; key += 1024) {
+			assertTrue(bucket.add(pair(key, "v" + key)));
+		}
+		CloudStorageBucket sibling = bucket.split(1, published -> { });
+
+		assertNotNull(sibling);
+		assertEquals(4, bucket.size() + sibling.size());
+		for (int key = 0; key < 4096; key += 1024) {
+			assertTrue(bucket.covers(key) != sibling.covers(key));
+		}
+	}
+
+	@Test
+	public void splitWhichMovesNothingIsSkipped() throws IOException {
+		CloudStorageBucket bucket = bucket(folder.newFolder(), 1000);
+
+		for (int key = 0; key < 80; key += 8) {
+			assertTrue(bucket.add(pair(key, "v" + key)));
+		}
+
+		assertNull(bucket.split(1, sibling -> fail("an empty sibling must not be published")));
+		assertEquals(2, bucket.getLocalDepth());
+		assertEquals(10, bucket.size());
+	}
+
+	@Test
+	public void reloadUpdatesKeyIndex() throws IOException {
+		CloudStorageBucket bucket = bucket(folder.newFolder(), 1000);
+		CloudStorageBucket other = bucket(folder.newFolder(), 1000);
+		CloudStorageKeyIndex keyIndex = new CloudStorageKeyIndex();
+
+		assertTrue(bucket.add(pair(4, "four")));
+		assertTrue(bucket.add(pair(8, "eight")));
+		bucket.indexKeys(keyIndex);
+		assertTrue(other.delete(4));
+		assertTrue(other.add(pair(12, "twelve")));
+
+		assertTrue(bucket.add(pair(16, "sixteen")));
+
+		assertEquals(new TreeSet<>(Arrays.asList(8, 12, 16)), keyIndex.range(0, 100));
+	}
+
+	private CloudStorageBucket bucket(File localDirectory, int checkpointInterval) {
+		return new CloudStorageBucket(0, CloudStorageWriteMode.WRITE_THROUGH, checkpointInterval, localDirectory,
+				2, 0, CloudStorageValueStorage.HEAP, false, store);
+	}
+
+	private static MyKeyValue pair(int key, String value) {
+		MyKeyValue pair = new MyKeyValue();
+
+		pair.setKey(key);
+		pair.setValue(value);
+		return pair;
+	}
+
+	private static class FailingBlobStore extends InMemoryBlobStore {
+
+		private volatile boolean failAppends;
+		private volatile boolean failDownloads;
+		private volatile boolean failUploads;
+
+		@Override
+		public String upload(File reference, String version) {
+			return failUploads ? null : super.upload(reference, version);
+		}
+
+		@Override
+		public String append(String name, byte[] data, String version) {
+			return failAppends ? null : super.append(name, data, version);
+		}
+
+		@Override
+		public String download(File reference, String version) {
+			return failDownloads ? null : super.download(reference, version);
+		}
+	}
+}
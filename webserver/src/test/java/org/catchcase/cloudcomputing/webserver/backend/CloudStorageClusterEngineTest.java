@@ -0,0 +1,342 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import com.fasterxml.jackson.databind.*;
+import org.junit.*;
+import org.springframework.http.*;
+import org.springframework.http.client.*;
+import org.springframework.mock.http.client.*;
+import org.springframework.util.*;
+import org.springframework.web.util.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageClusterEngineTest {
+
+	private static final List<String> NODES = Arrays.asList("http://a", "http://b", "http://c");
+	private static final String SECRET = "secret";
+
+	private Network network = new Network();
+
+	@After
+	public void close() {
+		network.nodes.values().forEach(CloudStorageClusterEngine::close);
+	}
+
+	@Test
+	public void quorumWriteReachesEveryReplica() {
+		network.start(3, 2, 2);
+
+		assertTrue(node("http://a").insert(7, "seven"));
+		assertFalse(node("http://b").insert(7, "other"));
+		assertEquals("seven", node("http://c").get(7));
+		awaitTrue(() -> NODES.stream().allMatch(node -> "seven".equals(copy(node, 7).getValue())));
+	}
+
+	@Test
+	public void operationsFailWithoutQuorum() {
+		network.start(3, 2, 2);
+		network.down.addAll(Arrays.asList("http://b", "http://c"));
+
+		try {
+			node("http://a").insert(7, "seven");
+			fail("an insert must fail if only one of three replicas answers");
+		} catch (IllegalStateException e) {
+			//Expected
+		}
+		network.down.remove("http://c");
+		assertTrue(node("http://a").insert(7, "seven"));
+		assertEquals("seven", node("http://c").get(7));
+	}
+
+	@Test
+	public void readRepairsStaleReplica() {
+		network.start(3, 2, 2);
+		assertTrue(node("http://a").insert(7, "seven"));
+		awaitTrue(() -> NODES.stream().allMatch(node -> copy(node, 7) != null));
+		long version = copy("http://a", 7).getVersion();
+
+		network.down.add("http://c");
+		assertTrue(node("http://a").delete(7));
+		assertTrue(node("http://a").insert(7, "again"));
+		network.down.clear();
+		assertEquals(version, copy("http://c", 7).getVersion());
+
+		assertEquals("again", node("http://c").get(7));
+		awaitTrue(() -> "again".equals(copy("http://c", 7).getValue()));
+	}
+
+	@Test
+	public void deleteLeavesTombstone() {
+		network.start(3, 2, 3);
+		assertTrue(node("http://a").insert(7, "seven"));
+		long inserted = copy("http://b", 7).getVersion();
+
+		assertTrue(node("http://b").delete(7));
+		assertFalse(node("http://c").delete(7));
+		assertNull(node("http://c").get(7));
+		for (String node : NODES) {
+			CloudStorageVersioned tombstone = copy(node, 7);
+
+			assertNull(tombstone.getValue());
+			assertTrue(tombstone.getVersion() > inserted);
+			assertFalse("a late copy must not revive the key",
+					network.nodes.get(node).writeReplica(7, new CloudStorageVersioned(inserted, "seven")));
+		}
+		assertFalse(node("http://a").range(0, 10).iterator().hasNext());
+	}
+
+	@Test
+	public void tombstonesAreCollectedAfterGrace() throws InterruptedException {
+		network.tombstoneGrace = 0;
+		network.start(3, 2, 3);
+		assertTrue(node("http://a").insert(7, "seven"));
+		assertTrue(node("http://a").insert(8, "eight"));
+		assertTrue(node("http://a").delete(7));
+		Thread.sleep(2);
+
+		for (String node : NODES) {
+			assertEquals(1, network.nodes.get(node).collectTombstones());
+			assertNull(copy(node, 7));
+			assertEquals("eight", copy(node, 8).getValue());
+		}
+		assertTrue(node("http://b").insert(7, "again"));
+		assertEquals("again", node("http://c").get(7));
+	}
+
+	@Test
+	public void versionAheadOfClockIsRejected() {
+		network.start(3, 2, 2);
+		long now = System.currentTimeMillis();
+
+		try {
+			node("http://a").writeReplica(7, new CloudStorageVersioned((now + TimeUnit.HOURS.toMillis(1)) << 16, "x"));
+			fail("a version an hour ahead must be rejected");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+		assertNull(copy("http://a", 7));
+		assertTrue(node("http://a").writeReplica(7, new CloudStorageVersioned(now << 16, "seven")));
+	}
+
+	@Test
+	public void requestsWithoutSecretAreRejected() {
+		network.start(3, 2, 2);
+		CloudStorageClusterEngine intruder = new CloudStorageClusterEngine(new MapEngine(),
+				new CloudStorageHashRing(NODES, 64), "http://d", "guess", TimeUnit.DAYS.toMillis(7), network, 3, 1, 1);
+
+		try {
+			intruder.insert(7, "seven");
+			fail("a node without the secret must not reach the replicas");
+		} catch (IllegalStateException e) {
+			//Expected
+		} finally {
+			intruder.close();
+		}
+		for (String node : NODES) {
+			assertNull(copy(node, 7));
+		}
+		assertTrue(node("http://a").insert(7, "seven"));
+	}
+
+	@Test
+	public void scanReadsKeysOfUnreachableNodeFromNextReplica() throws IOException {
+		network.start(2, 1, 2);
+		for (int key = 0; key < 100; key++) {
+			assertTrue(node("http://a").insert(key, "v" + key));
+		}
+		network.down.add("http://b");
+
+		Map<Integer, String> scanned = new HashMap<>();
+		node("http://a").scan((bucketNumber, key, value) -> assertNull("visited twice: " + key, scanned.put(key, value)));
+
+		assertEquals(100, scanned.size());
+		assertEquals("v42", scanned.get(42));
+	}
+
+	private CloudStorageClusterEngine node(String node) {
+		return network.nodes.get(node);
+	}
+
+	private CloudStorageVersioned copy(String node, int key) {
+		return network.nodes.get(node).readReplica(key);
+	}
+
+	private static void awaitTrue(BooleanSupplier condition) {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while (!condition.getAsBoolean()) {
+			assertTrue("condition not reached in time", System.currentTimeMillis() < deadline);
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AssertionError(e);
+			}
+		}
+	}
+
+	/**
+	 * class Network
+	 *
+	 * Connects the nodes in memory. A request is served by the cluster engine of the addressed node the way the
+	 * ClusterController would, requests without the secret are rejected and requests to nodes in down fail to connect.
+	 */
+	private static class Network implements ClientHttpRequestFactory {
+
+		private final Map<String, CloudStorageClusterEngine> nodes = new ConcurrentHashMap<>();
+		private final Set<String> down = ConcurrentHashMap.newKeySet();
+		private final ObjectMapper mapper = new ObjectMapper();
+		private long tombstoneGrace = TimeUnit.DAYS.toMillis(7);
+
+		void start(int replicas, int readQuorum, int writeQuorum) {
+			CloudStorageHashRing ring = new CloudStorageHashRing(NODES, 64);
+
+			for (String node : NODES) {
+				nodes.put(node, new CloudStorageClusterEngine(new MapEngine(), ring, node, SECRET, tombstoneGrace, this,
+						replicas, readQuorum, writeQuorum));
+			}
+		}
+
+		@Override
+		public ClientHttpRequest createRequest(URI uri, HttpMethod method) throws IOException {
+			String node = uri.getScheme() + "://" + uri.getHost();
+
+			if (down.contains(node)) {
+				throw new ConnectException(node + " is down");
+			}
+			CloudStorageClusterEngine engine = nodes.get(node);
+
+			return new MockClientHttpRequest(method, uri) {
+				@Override
+				protected ClientHttpResponse executeInternal() throws IOException {
+					if (!engine.isTrusted(getHeaders().getFirst(CloudStorageClusterEngine.SECRET_HEADER))) {
+						return new MockClientHttpResponse(new byte[0], HttpStatus.FORBIDDEN);
+					}
+					return serve(engine, method, uri, getBodyAsString());
+				}
+			};
+		}
+
+		private ClientHttpResponse serve(CloudStorageClusterEngine engine, HttpMethod method, URI uri, String body)
+				throws IOException {
+			MultiValueMap<String, String> query = UriComponentsBuilder.fromUri(uri).build().getQueryParams();
+			String[] path = uri.getPath().split("/");
+
+			if (uri.getPath().equals("/internal/ping")) {
+				return json(true);
+			}
+			if (uri.getPath().equals("/internal/entries")) {
+				List<String> skipped = new ArrayList<>();
+				String value = query.getFirst("down");
+
+				if (value != null && !value.isEmpty()) {
+					skipped.addAll(Arrays.asList(URLDecoder.decode(value, "UTF-8").split(",")));
+				}
+				StringBuilder entries = new StringBuilder();
+				engine.scanReplica(skipped, (bucketNumber, key, entry) -> {
+					Map<String, Object> line = new LinkedHashMap<>();
+
+					line.put("bucket", bucketNumber);
+					line.put("key", key);
+					line.put("value", entry);
+					entries.append(mapper.writeValueAsString(line)).append('\n');
+				});
+				return new MockClientHttpResponse(entries.toString().getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+			}
+
+			if (uri.getPath().equals("/internal/keys")) {
+				List<Integer> keys = new ArrayList<>();
+				int limit = Integer.parseInt(query.getFirst("limit"));
+
+				for (int key : engine.rangeReplica(Integer.parseInt(query.getFirst("from")),
+						Integer.parseInt(query.getFirst("to")))) {
+					if (keys.size() == limit) {
+						break;
+					}
+					keys.add(key);
+				}
+				return json(keys);
+			}
+
+			int key = Integer.parseInt(path[3]);
+			switch (method) {
+				case GET:
+					CloudStorageVersioned copy = engine.readReplica(key);
+
+					return copy == null ? new MockClientHttpResponse(new byte[0], HttpStatus.NOT_FOUND) : json(copy);
+				case PUT:
+					return json(engine.writeReplica(key,
+							new CloudStorageVersioned(Long.parseLong(query.getFirst("version")), body)));
+				default:
+					return json(engine.writeReplica(key,
+							new CloudStorageVersioned(Long.parseLong(query.getFirst("version")), null)));
+			}
+		}
+
+		private ClientHttpResponse json(Object value) throws IOException {
+			MockClientHttpResponse response = new MockClientHttpResponse(mapper.writeValueAsBytes(value), HttpStatus.OK);
+
+			response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return response;
+		}
+	}
+
+	/**
+	 * class MapEngine
+	 *
+	 * Local engine of a node which keeps the copies in memory.
+	 */
+	private static class MapEngine implements CloudStorageEngine {
+
+		private final ConcurrentSkipListMap<Integer, String> map = new ConcurrentSkipListMap<>();
+
+		@Override
+		public boolean insert(int key, String value) {
+			return map.putIfAbsent(key, value) == null;
+		}
+
+		@Override
+		public boolean put(int key, String value) {
+			map.put(key, value);
+			return true;
+		}
+
+		@Override
+		public boolean delete(int key) {
+			return map.remove(key) != null;
+		}
+
+		@Override
+		public String get(int key) {
+			return map.get(key);
+		}
+
+		@Override
+		public Iterable<Integer> range(int fromKey, int toKey) {
+			return map.subMap(fromKey, true, toKey, true).keySet();
+		}
+
+		@Override
+		public void scan(EntryVisitor visitor) throws IOException {
+			for (Map.Entry<Integer, String> entry : map.entrySet()) {
+				visitor.visit(0, entry.getKey(), entry.getValue());
+			}
+		}
+
+		@Override
+		public int getBucketNumber(int key) {
+			return 0;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageHashDirectoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LayoutFailingBlobStore store = new LayoutFailingBlobStore();
+
+	@Test
+	public void splitBucketsSurviveRestart() throws IOException {
+		CloudStorageHashDirectory directory = directory();
+
+		for (int key = 0; key < 500; key++) {
+			assertTrue(directory.add(pair(key, "v" + key)));
+		}
+		assertTrue("the buckets must have been split", directory.getSize() > 4);
+
+		CloudStorageHashDirectory restarted = directory();
+
+		assertEquals(directory.getSize(), restarted.getSize());
+		assertEquals(directory.getGlobalDepth(), restarted.getGlobalDepth());
+		assertAllReadable(restarted, 500);
+	}
+
+	@Test(timeout = 30000)
+	public void splitIsRolledBackIfLayoutIsNotStored() throws IOException {
+		CloudStorageHashDirectory directory = directory();
+
+		store.failLayout = true;
+		for (int key = 0; key < 100; key++) {
+			assertTrue(directory.add(pair(key, "v" + key)));
+		}
+		assertEquals("no split may be published without its layout", 4, directory.getSize());
+		assertAllReadable(directory, 100);
+		assertAllReadable(directory(), 100);
+
+		store.failLayout = false;
+		for (int key = 100; key < 500; key++) {
+			assertTrue(directory.add(pair(key, "v" + key)));
+		}
+		assertTrue("the buckets must be split once the layout can be stored", directory.getSize() > 4);
+		assertAllReadable(directory(), 500);
+	}
+
+	private CloudStorageHashDirectory directory() throws IOException {
+		return new CloudStorageHashDirectory(CloudStorageWriteMode.WRITE_THROUGH, 1000, CloudStorageValueStorage.HEAP,
+				16, folder.newFolder(), store, 1000);
+	}
+
+	private static void assertAllReadable(CloudStorageHashDirectory directory, int count) {
+		for (int key = 0; key < count; key++) {
+			MyKeyValue found = directory.getKeyValuePair(key);
+
+			assertNotNull("key " + key + " is lost", found);
+			assertEquals("v" + key, found.getValue());
+		}
+	}
+
+	private static MyKeyValue pair(int key, String value) {
+		MyKeyValue pair = new MyKeyValue();
+
+		pair.setKey(key);
+		pair.setValue(value);
+		return pair;
+	}
+
+
+	/**
+	 * class LayoutFailingBlobStore
+	 *
+	 * Fails the uploads of the directory layout while failLayout is set.
+	 */
+	private static class LayoutFailingBlobStore extends InMemoryBlobStore {
+
+		private volatile boolean failLayout;
+
+		@Override
+		public String upload(File reference, String version) {
+			return failLayout && reference.getName().equals("directory.meta") ? null : super.upload(reference, version);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageHashRingTest {
+
+	private static final int KEYS = 100000;
+
+	@Test
+	public void spreadsKeysEvenly() {
+		CloudStorageHashRing ring = new CloudStorageHashRing(nodes(4), 128);
+		Map<String, Integer> counts = new HashMap<>();
+
+		for (int key = 0; key < KEYS; key++) {
+			counts.merge(ring.getNode(key), 1, Integer::sum);
+		}
+
+		assertEquals(4, counts.size());
+		counts.values().forEach(count -> assertTrue("unbalanced: " + counts, Math.abs(count - KEYS / 4) < KEYS / 4 * 0.2));
+	}
+
+	@Test
+	public void addingNodeMovesOnlyItsShare() {
+		CloudStorageHashRing ring = new CloudStorageHashRing(nodes(4), 128);
+		String[] before = owners(ring);
+
+		ring.addNode("http://localhost:8084");
+		String[] after = owners(ring);
+		int moved = 0;
+
+		for (int key = 0; key < KEYS; key++) {
+			if (!before[key].equals(after[key])) {
+				assertEquals("keys only move to the new node", "http://localhost:8084", after[key]);
+				moved++;
+			}
+		}
+		assertEquals(KEYS / 5, moved, KEYS / 5 * 0.2);
+	}
+
+	@Test
+	public void removingNodeMovesOnlyItsKeys() {
+		CloudStorageHashRing ring = new CloudStorageHashRing(nodes(4), 128);
+		String[] before = owners(ring);
+
+		ring.removeNode("http://localhost:8082");
+		String[] after = owners(ring);
+
+		for (int key = 0; key < KEYS; key++) {
+			if (!before[key].equals("http://localhost:8082")) {
+				assertEquals(before[key], after[key]);
+			}
+		}
+		assertEquals(3, ring.getNodes().size());
+	}
+
+	@Test
+	public void preferenceListStartsWithOwner() {
+		CloudStorageHashRing ring = new CloudStorageHashRing(nodes(4), 128);
+
+		for (int key = 0; key < 1000; key++) {
+			List<String> preference = ring.getNodes(key, 3);
+
+			assertEquals(3, preference.size());
+			assertEquals(3, new HashSet<>(preference).size());
+			assertEquals(ring.getNode(key), preference.get(0));
+		}
+		assertEquals(4, ring.getNodes(0, 10).size());
+	}
+
+	private static List<String> nodes(int count) {
+		List<String> nodes = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			nodes.add("http://localhost:" + (8080 + i));
+		}
+		return nodes;
+	}
+
+	private static String[] owners(CloudStorageHashRing ring) {
+		String[] owners = new String[KEYS];
+
+		for (int key = 0; key < KEYS; key++) {
+			owners[key] = ring.getNode(key);
+		}
+		return owners;
+	}
+}
@@ -0,0 +1,69 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * JMH benchmark comparing CloudStorageIntMap with the HashMap buckets used
+ * before. The lookup benchmarks measure the throughput of random hits, the
+ * fill benchmarks build a map of the given size from scratch. Run with
+ * -prof gc, gc.alloc.rate.norm of fill is the number of bytes allocated for
+ * one map, which is its footprint plus the arrays discarded while growing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloudStorageIntMapBenchmark {
+
+	@Param({"1000", "100000"})
+	private int size;
+
+	private String[] values;
+	private CloudStorageIntMap<String> intMap;
+	private HashMap<Integer, String> hashMap;
+
+	@Setup
+	public void setUp() {
+		values = new String[size];
+		intMap = new CloudStorageIntMap<>();
+		hashMap = new HashMap<>(1, 0.5F);
+		for (int key = 0; key < size; key++) {
+			values[key] = "value" + key;
+			intMap.put(key, values[key]);
+			hashMap.put(key, values[key]);
+		}
+	}
+
+	@Benchmark
+	public String lookupIntMap() {
+		return intMap.get(ThreadLocalRandom.current().nextInt(size));
+	}
+
+	@Benchmark
+	public String lookupHashMap() {
+		return hashMap.get(ThreadLocalRandom.current().nextInt(size));
+	}
+
+	@Benchmark
+	public CloudStorageIntMap<String> fillIntMap() {
+		CloudStorageIntMap<String> map = new CloudStorageIntMap<>();
+		for (int key = 0; key < size; key++) {
+			map.put(key, values[key]);
+		}
+		return map;
+	}
+
+	@Benchmark
+	public HashMap<Integer, String> fillHashMap() {
+		HashMap<Integer, String> map = new HashMap<>(1, 0.5F);
+		for (int key = 0; key < size; key++) {
+			map.put(key, values[key]);
+		}
+		return map;
+	}
+}
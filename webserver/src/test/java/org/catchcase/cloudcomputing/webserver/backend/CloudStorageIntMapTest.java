@@ -0,0 +1,68 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageIntMapTest {
+
+	@Test
+	public void behavesLikeHashMap() {
+		CloudStorageIntMap<String> map = new CloudStorageIntMap<>();
+		Map<Integer, String> expected = new HashMap<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(5000) - 2500;
+
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				String value = "value" + i;
+				assertEquals(expected.put(key, value), map.put(key, value));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+
+		expected.forEach((key, value) -> assertEquals(value, map.get(key.intValue())));
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+	}
+
+	@Test
+	public void findsKeysAfterRemovalInsideRun() {
+		CloudStorageIntMap<String> map = new CloudStorageIntMap<>();
+
+		for (int key = 0; key < 11; key++) {
+			map.put(key * 16, "value" + key);
+		}
+		map.remove(0);
+		map.remove(80);
+
+		for (int key = 0; key < 11; key++) {
+			assertEquals(key == 0 || key == 5 ? null : "value" + key, map.get(key * 16));
+		}
+		assertEquals(9, map.size());
+	}
+
+	@Test
+	public void copyIsIndependent() {
+		CloudStorageIntMap<String> map = new CloudStorageIntMap<>();
+		map.put(Integer.MIN_VALUE, "min");
+		map.put(Integer.MAX_VALUE, "max");
+
+		CloudStorageIntMap<String> copy = map.copy();
+		copy.remove(Integer.MIN_VALUE);
+
+		assertEquals("min", map.get(Integer.MIN_VALUE));
+		assertNull(copy.get(Integer.MIN_VALUE));
+		assertEquals("max", copy.get(Integer.MAX_VALUE));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void rejectsNullValues() {
+		new CloudStorageIntMap<String>().put(1, null);
+	}
+}
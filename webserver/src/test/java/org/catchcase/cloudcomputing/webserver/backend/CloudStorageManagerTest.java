@@ -0,0 +1,256 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageManagerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void cursorRoundTripsEveryKey() {
+		for (int key : new int[]{Integer.MIN_VALUE, -1, 0, 1, 4711, Integer.MAX_VALUE}) {
+			String cursor = CloudStorageManager.encodeCursor(key);
+
+			assertFalse("a cursor must be URL safe: " + cursor, cursor.matches(".*[+/=].*"));
+			assertEquals(key, CloudStorageManager.decodeCursor(cursor));
+		}
+		assertNull(CloudStorageManager.encodeCursor(null));
+
+		for (String invalid : new String[]{"", "AAA", "AAAAAAA", "!!!!!!"}) {
+			try {
+				CloudStorageManager.decodeCursor(invalid);
+				fail("cursor " + invalid + " must be rejected");
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		}
+	}
+
+	@Test
+	public void rangeIsCappedWithoutLimit() throws IOException {
+		CloudStorageManager manager = manager(3, 5);
+
+		for (int key = 0; key < 20; key++) {
+			assertTrue(manager.insert(key, "v" + key).isStatus());
+		}
+
+		CloudStoragePage<String> page = manager.rangeQuery(0, 19, null, null);
+		assertEquals("the default limit applies without limit and cursor", 3, page.getEntries().size());
+		assertNotNull(page.getCursor());
+
+		page = manager.rangeQuery(0, 19, null, 100);
+		assertEquals("the limit is capped at the max limit", 5, page.getEntries().size());
+
+		assertEquals(3, manager.listPage(null, null).getEntries().size());
+
+		try {
+			manager.rangeQuery(0, 19, null, 0);
+			fail("a limit below 1 must be rejected");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+
+	@Test
+	public void cursorsVisitEveryKeyOnce() throws IOException {
+		CloudStorageManager manager = manager(3, 5);
+		List<Integer> keys = new ArrayList<>();
+
+		for (int key = 0; key < 20; key++) {
+			assertTrue(manager.insert(key, "v" + key).isStatus());
+		}
+
+		String cursor = null;
+		do {
+			CloudStoragePage<MyKeyValue> page = manager.listPage(cursor, 4);
+
+			page.getEntries().forEach(entry -> keys.add(entry.getKey()));
+			cursor = page.getCursor();
+		} while (cursor != null);
+
+		List<Integer> expected = new ArrayList<>();
+		for (int key = 0; key < 20; key++) {
+			expected.add(key);
+		}
+		assertEquals(expected, keys);
+	}
+
+	@Test
+	public void pageEndsAtLargestKey() throws IOException {
+		CloudStorageManager manager = manager(2, 5);
+
+		for (int key = Integer.MAX_VALUE - 2; key > 0; key++) {
+			assertTrue(manager.insert(key, "v" + key).isStatus());
+		}
+		assertTrue(manager.insert(Integer.MIN_VALUE, "min").isStatus());
+
+		CloudStoragePage<String> first = manager.rangeQuery(0, Integer.MAX_VALUE, null, null);
+		assertEquals(2, first.getEntries().size());
+		assertEquals(Integer.MAX_VALUE, CloudStorageManager.decodeCursor(first.getCursor()));
+
+		CloudStoragePage<String> last = manager.rangeQuery(0, Integer.MAX_VALUE, first.getCursor(), null);
+		assertEquals(1, last.getEntries().size());
+		assertTrue(last.getEntries().get(0).contains("key: " + Integer.MAX_VALUE));
+		assertNull("no page follows the largest key", last.getCursor());
+
+		CloudStoragePage<MyKeyValue> all = manager.listPage(null, 5);
+		assertEquals(4, all.getEntries().size());
+		assertEquals(Integer.MIN_VALUE, all.getEntries().get(0).getKey());
+		assertEquals(Integer.MAX_VALUE, all.getEntries().get(3).getKey());
+		assertNull(all.getCursor());
+	}
+
+	@Test
+	public void batchReportsEveryOperation() throws IOException {
+		CloudStorageManager manager = manager(10000, 3, 5);
+		List<CloudStorageOperation> operations = new ArrayList<>();
+
+		assertTrue(manager.insert(7, "seven").isStatus());
+		for (int key = 0; key < 40; key++) {
+			operations.add(operation(CloudStorageOperation.INSERT, String.valueOf(key), "v" + key));
+		}
+		operations.add(operation(CloudStorageOperation.INSERT, null, "no key"));
+		operations.add(operation(CloudStorageOperation.SEARCH, "abc", null));
+		operations.add(operation(CloudStorageOperation.INSERT, "100", null));
+		operations.add(operation("upsert", "101", "v"));
+		operations.add(operation(CloudStorageOperation.DELETE, "3", null));
+		operations.add(operation(CloudStorageOperation.SEARCH, "3", null));
+		operations.add(operation(CloudStorageOperation.SEARCH, "39", null));
+		operations.add(operation(CloudStorageOperation.DELETE, "102", null));
+
+		List<CloudStorageLogger> results = manager.batch(operations);
+		Set<Integer> buckets = new HashSet<>();
+
+		assertEquals(operations.size(), results.size());
+		for (int key = 0; key < 40; key++) {
+			assertEquals("insert of " + key, key != 7, results.get(key).isStatus());
+			buckets.add(manager.getBucketNumber(key));
+		}
+		assertTrue("the batch must span several buckets", buckets.size() > 1);
+		assertEquals("Key already exist.", results.get(7).getMsg());
+		assertResult(results.get(40), false, "Missing key parameter");
+		assertResult(results.get(41), false, "Invalid key parameter: abc; must be integer");
+		assertResult(results.get(42), false, "Missing value for key: 100");
+		assertResult(results.get(43), false, "Unknown operation: upsert");
+		assertTrue(results.get(44).isStatus());
+		assertResult(results.get(45), false, "Data with key: 3 not found.");
+		assertTrue(results.get(46).getMsg().startsWith("Data: v39 with key: 39 found in bucket"));
+		assertResult(results.get(47), false, "Key not existing.");
+
+		assertTrue(manager.search(7).getMsg().startsWith("Data: seven with key: 7"));
+		assertFalse(manager.search(3).isStatus());
+		assertFalse(manager.search(100).isStatus());
+		assertFalse(manager.search(101).isStatus());
+	}
+
+	@Test
+	public void batchAcceptsMaxOperations() throws IOException {
+		CloudStorageManager manager = manager(50, 3, 5);
+		List<CloudStorageOperation> operations = new ArrayList<>();
+
+		for (int key = 0; key < 50; key++) {
+			operations.add(operation(CloudStorageOperation.INSERT, String.valueOf(key), "v" + key));
+		}
+		for (CloudStorageLogger result : manager.batch(operations)) {
+			assertTrue(result.getMsg(), result.isStatus());
+		}
+
+		operations.add(operation(CloudStorageOperation.INSERT, "50", "v50"));
+		try {
+			manager.batch(operations);
+			fail("a batch above the max operations must be rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Batch must not contain more than 50 operations.", e.getMessage());
+		}
+		assertFalse("a rejected batch must not apply any operation", manager.search(50).isStatus());
+		assertTrue(manager.search(49).isStatus());
+	}
+
+	@Test
+	public void listEntriesReadsOneBucket() throws IOException {
+		DownloadFailingBlobStore store = new DownloadFailingBlobStore();
+		CloudStorageManager manager = manager(store, 10000, 3, 5);
+
+		for (int key = 0; key < 40; key++) {
+			assertTrue(manager.insert(key, "v" + key).isStatus());
+		}
+		int bucketNumber = manager.getBucketNumber(7);
+		List<String> expected = new ArrayList<>();
+
+		for (int key = 0; key < 40; key++) {
+			if (manager.getBucketNumber(key) == bucketNumber) {
+				expected.add(key + " : v" + key);
+			}
+		}
+		List<String> entries = manager.listEntries(bucketNumber);
+
+		Collections.sort(entries);
+		Collections.sort(expected);
+		assertEquals(expected, entries);
+		assertTrue(manager.listEntries(-1).isEmpty());
+
+		CloudStorageManager restarted = manager(store, 10000, 3, 5);
+
+		store.failDownloads = true;
+		try {
+			restarted.listEntries(bucketNumber);
+			fail("a bucket which cannot be read must not be listed as empty");
+		} catch (UncheckedIOException e) {
+			//Expected
+		}
+	}
+
+	private CloudStorageManager manager(int defaultPageLimit, int maxPageLimit) throws IOException {
+		return manager(10000, defaultPageLimit, maxPageLimit);
+	}
+
+	private CloudStorageManager manager(int maxBatchSize, int defaultPageLimit, int maxPageLimit) throws IOException {
+		return manager(new InMemoryBlobStore(), maxBatchSize, defaultPageLimit, maxPageLimit);
+	}
+
+	private CloudStorageManager manager(BlobStore store, int maxBatchSize, int defaultPageLimit, int maxPageLimit)
+			throws IOException {
+		CloudStorageHashDirectory directory = new CloudStorageHashDirectory(CloudStorageWriteMode.WRITE_THROUGH, 1000,
+				CloudStorageValueStorage.HEAP, 16, folder.newFolder(), store, 1000);
+
+		return new CloudStorageManager(new CloudStorageBucketEngine(directory), maxBatchSize, defaultPageLimit,
+				maxPageLimit);
+	}
+
+	private static void assertResult(CloudStorageLogger result, boolean status, String msg) {
+		assertEquals(msg, result.getMsg());
+		assertEquals(msg, status, result.isStatus());
+	}
+
+	private static CloudStorageOperation operation(String op, String key, String value) {
+		CloudStorageOperation operation = new CloudStorageOperation();
+
+		operation.setOp(op);
+		operation.setKey(key);
+		operation.setValue(value);
+		return operation;
+	}
+
+
+	/**
+	 * class DownloadFailingBlobStore
+	 *
+	 * Fails every download while failDownloads is set.
+	 */
+	private static class DownloadFailingBlobStore extends InMemoryBlobStore {
+
+		private volatile boolean failDownloads;
+
+		@Override
+		public String download(File reference, String version) {
+			return failDownloads ? null : super.download(reference, version);
+		}
+	}
+}
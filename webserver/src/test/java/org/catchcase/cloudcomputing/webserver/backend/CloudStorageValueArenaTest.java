@@ -0,0 +1,73 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CloudStorageValueArenaTest {
+
+	@Test
+	public void readsWhatWasAllocated() {
+		CloudStorageValueArena arena = new CloudStorageValueArena(256);
+		Map<Long, String> handles = new HashMap<>();
+
+		for (int i = 0; i < 1000; i++) {
+			String value = i % 100 == 0 ? repeat('x', 1000) : "value äöü " + i;
+			handles.put(arena.allocate(value), value);
+		}
+
+		handles.forEach((handle, value) -> assertEquals(value, arena.read(handle)));
+	}
+
+	@Test
+	public void reusesFreedSlots() {
+		CloudStorageValueArena arena = new CloudStorageValueArena(1024);
+		long first = arena.allocate("first");
+		long allocated = arena.getAllocatedBytes();
+
+		arena.free(first);
+		long second = arena.allocate("second");
+
+		assertEquals(first, second);
+		assertEquals("second", arena.read(second));
+		assertEquals(allocated, arena.getAllocatedBytes());
+		assertEquals(4 + "second".length(), arena.getUsedBytes());
+	}
+
+	@Test
+	public void dropsSlabOfLargeValue() {
+		CloudStorageValueArena arena = new CloudStorageValueArena(64);
+		long handle = arena.allocate(repeat('y', 100));
+
+		assertEquals(repeat('y', 100), arena.read(handle));
+		arena.free(handle);
+		assertEquals(0, arena.getAllocatedBytes());
+		assertEquals(0, arena.getUsedBytes());
+	}
+
+	@Test
+	public void reusesNumberOfDroppedSlab() {
+		CloudStorageValueArena arena = new CloudStorageValueArena(64);
+		long kept = arena.allocate("kept");
+		long first = arena.allocate(repeat('y', 100));
+
+		for (int i = 0; i < 100; i++) {
+			arena.free(first);
+			long next = arena.allocate(repeat('z', 200));
+
+			assertEquals(first >>> 32, next >>> 32);
+			assertEquals(repeat('z', 200), arena.read(next));
+			arena.free(next);
+			first = arena.allocate(repeat('y', 100));
+		}
+		assertEquals("kept", arena.read(kept));
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
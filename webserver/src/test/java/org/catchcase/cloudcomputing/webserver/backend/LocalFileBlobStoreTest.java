@@ -0,0 +1,63 @@
+package org.catchcase.cloudcomputing.webserver.backend;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import static org.junit.Assert.*;
+
+public class LocalFileBlobStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void conditionalWritesDetectOtherWriters() throws IOException {
+		LocalFileBlobStore store = new LocalFileBlobStore(folder.newFolder("blobs").getPath());
+		byte[] record = "a".getBytes(StandardCharsets.UTF_8);
+
+		String first = store.append("bucket0.log", record, null);
+		assertEquals(first, store.version("bucket0.log"));
+
+		String second = store.append("bucket0.log", record, first);
+		assertNotEquals(first, second);
+
+		try {
+			store.append("bucket0.log", record, first);
+			fail("append with an old version must conflict");
+		} catch (BlobStoreConflictException e) {
+			assertEquals(second, store.version("bucket0.log"));
+		}
+		try {
+			store.delete("bucket0.log", first);
+			fail("delete with an old version must conflict");
+		} catch (BlobStoreConflictException e) {
+			assertTrue(store.exists("bucket0.log"));
+		}
+		assertTrue(store.delete("bucket0.log", second));
+		assertNull(store.version("bucket0.log"));
+	}
+
+	@Test
+	public void conditionalDownloadSkipsUnchangedBlobs() throws IOException {
+		LocalFileBlobStore store = new LocalFileBlobStore(folder.newFolder("blobs").getPath());
+		File upload = new File(folder.newFolder("upload"), "bucket0.txt");
+		File copy = new File(folder.newFolder("copy"), "bucket0.txt");
+
+		Files.write(upload.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+		String version = store.upload(upload, null);
+		assertEquals(version, store.download(copy, null));
+
+		Files.write(copy.toPath(), "local".getBytes(StandardCharsets.UTF_8));
+		assertEquals(version, store.download(copy, version));
+		assertEquals("local", new String(Files.readAllBytes(copy.toPath()), StandardCharsets.UTF_8));
+
+		Files.write(upload.toPath(), "second".getBytes(StandardCharsets.UTF_8));
+		String changed = store.upload(upload, version);
+		assertEquals(changed, store.download(copy, version));
+		assertEquals("second", new String(Files.readAllBytes(copy.toPath()), StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,70 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * JMH benchmark for the contention on a single HashFS bucket.
+ * All keys hash to the same bucket and the value cache is disabled, so every
+ * search reads its record from the segments. Compare searchSingleThread with
+ * searchAllThreads to see how operations on different keys of one bucket
+ * scale with the number of cores; mixed adds one writer to three readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashFSBenchmark {
+
+	private static final int KEYS = 10000;
+
+	private HashFS hashFS;
+	private String value;
+
+	@Setup
+	public void setUp() throws Exception {
+		Logger.getLogger("HashFSLogger").setLevel(java.util.logging.Level.WARNING);
+		hashFS = new HashFS(1, Files.createTempDirectory("hashfs-benchmark").toString(), 64L * 1024 * 1024, 0);
+		value = new String(new char[1024]).replace('\0', 'v');
+		for (int key = 0; key < KEYS; key++) {
+			hashFS.insert("key" + key, value);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		hashFS.close();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String searchSingleThread() {
+		return hashFS.search("key" + ThreadLocalRandom.current().nextInt(KEYS));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public String searchAllThreads() {
+		return hashFS.search("key" + ThreadLocalRandom.current().nextInt(KEYS));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public String mixedSearch() {
+		return hashFS.search("key" + ThreadLocalRandom.current().nextInt(KEYS));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public boolean mixedWrite() {
+		String key = "key" + ThreadLocalRandom.current().nextInt(KEYS);
+		return hashFS.delete(key) && hashFS.insert(key, value);
+	}
+}
@@ -0,0 +1,256 @@
+package org.catchcase.cloudcomputing.webserver.robert.HashFS;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import static org.junit.Assert.*;
+
+public class HashFSTest {
+
+	private static final String PADDING = new String(new char[40]).replace('\0', 'p');
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<HashFS> opened = new ArrayList<>();
+
+	@Before
+	public void quiet() {
+		Logger.getLogger("HashFSLogger").setLevel(Level.WARNING);
+	}
+
+	@After
+	public void close() {
+		opened.forEach(HashFS::close);
+	}
+
+	@Test
+	public void compactionRelocatesLiveRecords() throws IOException {
+		File dir = folder.newFolder();
+		HashFS hashFS = open(dir, 512, 0, HashFSDurability.NONE);
+
+		for (int i = 0; i < 60; i++) {
+			assertTrue(hashFS.insert("k" + i, value(i)));
+		}
+		for (int i = 0; i < 40; i++) {
+			assertTrue(hashFS.delete("k" + i));
+		}
+		for (int i = 40; i < 45; i++) {
+			assertTrue(hashFS.update("k" + i, "new" + i));
+		}
+		int before = segments(dir);
+
+		hashFS.compact();
+
+		assertTrue("compaction must delete segments of dead records", segments(dir) < before);
+		assertCompacted(hashFS);
+
+		File crashed = copy(dir);
+		hashFS.close();
+		opened.remove(hashFS);
+		assertCompacted(open(dir, 512, 0, HashFSDurability.NONE));
+		assertCompacted(open(crashed, 512, 0, HashFSDurability.NONE));
+	}
+
+	@Test
+	public void uncleanIndexIsReplayedFromSegments() throws IOException {
+		File dir = folder.newFolder();
+		HashFS hashFS = open(dir, 1024, 0, HashFSDurability.NONE);
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(hashFS.insert("k" + i, value(i)));
+		}
+		hashFS.close();
+		opened.remove(hashFS);
+
+		hashFS = open(dir, 1024, 0, HashFSDurability.NONE);
+		File stale = copy(dir);
+
+		assertTrue(hashFS.delete("k3"));
+		assertTrue(hashFS.update("k4", "four"));
+		assertTrue(hashFS.delete("k5"));
+		assertTrue(hashFS.insert("k5", "five"));
+		assertTrue(hashFS.insert("k100", "hundred"));
+
+		HashFS replayed = open(crash(dir, stale), 1024, 0, HashFSDurability.NONE);
+
+		assertNull(replayed.search("k3"));
+		assertEquals("four", replayed.search("k4"));
+		assertEquals("five", replayed.search("k5"));
+		assertEquals("hundred", replayed.search("k100"));
+		assertEquals(value(99), replayed.search("k99"));
+		assertEquals(100, replayed.Range("k", "l").length);
+		assertFalse("a replayed key must not be inserted twice", replayed.insert("k4", "again"));
+		assertTrue(replayed.insert("k3", "three"));
+	}
+
+	@Test
+	public void everyDurabilityModeKeepsAcknowledgedWrites() throws Exception {
+		for (HashFSDurability durability : HashFSDurability.values()) {
+			File dir = folder.newFolder();
+			HashFS hashFS = open(dir, 4096, 0, durability);
+			ExecutorService writers = Executors.newFixedThreadPool(4);
+			List<Future<?>> done = new ArrayList<>();
+
+			for (int t = 0; t < 4; t++) {
+				int thread = t;
+
+				done.add(writers.submit(() -> {
+					for (int i = 0; i < 50; i++) {
+						String key = thread + "-" + i;
+
+						assertTrue(hashFS.insert(key, value(i)));
+						if (i % 5 == 0) {
+							assertTrue(hashFS.delete(key));
+						} else if (i % 5 == 1) {
+							assertTrue(hashFS.update(key, "new" + i));
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : done) {
+				future.get();
+			}
+			writers.shutdown();
+
+			assertWritten(durability, open(copy(dir), 4096, 0, durability));
+			hashFS.close();
+			opened.remove(hashFS);
+			assertWritten(durability, open(dir, 4096, 0, durability));
+		}
+	}
+
+	@Test
+	public void overwriteAndDeleteInvalidateCachedValue() throws IOException {
+		HashFS hashFS = open(folder.newFolder(), 1024 * 1024, 1024 * 1024, HashFSDurability.NONE);
+
+		assertTrue(hashFS.insert("k", "one"));
+		assertEquals("one", hashFS.search("k"));
+		assertEquals("one", hashFS.search("k"));
+		assertTrue("the second search must be answered from the cache", hashFS.getCacheHits() > 0);
+
+		assertTrue(hashFS.update("k", "two"));
+		assertEquals("two", hashFS.search("k"));
+		assertTrue(hashFS.delete("k"));
+		assertNull(hashFS.search("k"));
+		assertTrue(hashFS.insert("k", "three"));
+		assertEquals("three", hashFS.search("k"));
+	}
+
+	@Test
+	public void generatedKeysAreOrderedAndUnique() throws Exception {
+		HashFS hashFS = open(folder.newFolder(), 1024 * 1024, 0, HashFSDurability.NONE);
+		String previous = "";
+
+		for (int i = 0; i < 1000; i++) {
+			String key = hashFS.insert(value(i));
+
+			assertTrue("keys of one thread must increase", key.compareTo(previous) > 0);
+			assertEquals(value(i), hashFS.search(key));
+			previous = key;
+		}
+
+		ExecutorService writers = Executors.newFixedThreadPool(4);
+		List<Future<List<String>>> done = new ArrayList<>();
+		Set<String> keys = new HashSet<>();
+
+		for (int t = 0; t < 4; t++) {
+			done.add(writers.submit(() -> {
+				List<String> written = new ArrayList<>();
+
+				for (int i = 0; i < 500; i++) {
+					written.add(hashFS.insert("v"));
+				}
+				return written;
+			}));
+		}
+		for (Future<List<String>> future : done) {
+			for (String key : future.get()) {
+				assertNotNull(key);
+				assertTrue("generated twice: " + key, keys.add(key));
+			}
+		}
+		writers.shutdown();
+	}
+
+	@Test
+	public void generatedKeyWhichExistsIsReplaced() throws IOException {
+		HashFS hashFS = open(folder.newFolder(), 1024 * 1024, 0, HashFSDurability.NONE);
+		String taken = hashFS.insert("first");
+		Iterator<String> keys = Arrays.asList(taken, taken, "free").iterator();
+
+		hashFS.setKeyGenerator(keys::next);
+
+		assertEquals("free", hashFS.insert("second"));
+		assertEquals("first", hashFS.search(taken));
+		assertEquals("second", hashFS.search("free"));
+	}
+
+	private void assertCompacted(HashFS hashFS) {
+		for (int i = 0; i < 40; i++) {
+			assertNull("deleted key k" + i + " is back", hashFS.search("k" + i));
+		}
+		for (int i = 40; i < 45; i++) {
+			assertEquals("new" + i, hashFS.search("k" + i));
+		}
+		for (int i = 45; i < 60; i++) {
+			assertEquals(value(i), hashFS.search("k" + i));
+		}
+	}
+
+	private static void assertWritten(HashFSDurability durability, HashFS hashFS) {
+		for (int t = 0; t < 4; t++) {
+			for (int i = 0; i < 50; i++) {
+				String key = t + "-" + i;
+				String expected = i % 5 == 0 ? null : i % 5 == 1 ? "new" + i : value(i);
+
+				assertEquals(durability + ": " + key, expected, hashFS.search(key));
+			}
+		}
+	}
+
+	private HashFS open(File dir, long segmentSize, long cacheSize, HashFSDurability durability) {
+		HashFS hashFS = new HashFS(4, dir.getPath(), segmentSize, cacheSize, durability);
+
+		opened.add(hashFS);
+		return hashFS;
+	}
+
+	/**
+	 * Copies the files of a HashFS which is still open, as if the process had crashed. The index files are not
+	 * marked clean, so the copy must rebuild them from the segments.
+	 */
+	private File copy(File dir) throws IOException {
+		return crash(dir, dir);
+	}
+
+	/**
+	 * Like copy, but takes the index files from an earlier copy, as if the mapped index had not been written back
+	 * since then.
+	 */
+	private File crash(File dir, File indexes) throws IOException {
+		File copy = folder.newFolder();
+
+		for (File file : dir.listFiles()) {
+			File source = file.getName().startsWith("index-") ? new File(indexes, file.getName()) : file;
+
+			Files.copy(source.toPath(), new File(copy, file.getName()).toPath());
+		}
+		return copy;
+	}
+
+	private static int segments(File dir) {
+		return dir.list((parent, name) -> name.startsWith("segment-")).length;
+	}
+
+	private static String value(int i) {
+		return "v" + i + PADDING;
+	}
+}